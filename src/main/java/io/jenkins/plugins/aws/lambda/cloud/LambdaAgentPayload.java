@@ -0,0 +1,234 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.Util;
+import hudson.remoting.Channel;
+import hudson.remoting.Which;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invocation payload sent to a Lambda agent.
+ *
+ * The fields that do not change between launches of the same function are
+ * rendered once into a {@link Template}; a launch then only appends the node
+ * secret and the node name.
+ */
+public final class LambdaAgentPayload {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaAgentPayload.class);
+
+    static final String URL = "url";
+    static final String NODE_SECRET = "node_secret";
+    static final String NODE_NAME = "node_name";
+    static final String JVM_OPTIONS = "jvm_options";
+    static final String CONNECTION_MODE = "connection_mode";
+    static final String DIRECT_CONNECTION = "direct_connection";
+    static final String WORK_DIR = "work_dir";
+    static final String REMOTING_VERSION = "remoting_version";
+    static final String REMOTING_JAR_SHA256 = "remoting_jar_sha256";
+    static final String DEPENDENCY_CACHE = "dependency_cache";
+
+    private static volatile String remotingJarChecksum;
+
+    @Nonnull
+    private final String url;
+
+    private LambdaConnectionMode connectionMode = LambdaConnectionMode.JNLP;
+
+    private String directConnection;
+
+    private final List<String> jvmOptions = new ArrayList<String>();
+
+    private String workDir;
+
+    private String remotingVersion;
+
+    private String remotingChecksum;
+
+    private String dependencyCacheUrl;
+
+    private Map<String, String> dependencyMirrors = Collections.emptyMap();
+
+    public LambdaAgentPayload(@Nonnull String url) {
+        this.url = url;
+    }
+
+    @Nonnull
+    public String getUrl() {
+        return url;
+    }
+
+    @Nonnull
+    public LambdaConnectionMode getConnectionMode() {
+        return connectionMode;
+    }
+
+    public LambdaAgentPayload withConnection(@Nonnull LambdaConnectionMode mode, @CheckForNull String directConnection) {
+        this.connectionMode = mode;
+        this.directConnection = mode == LambdaConnectionMode.DIRECT ? StringUtils.trimToNull(directConnection) : null;
+        return this;
+    }
+
+    @Nonnull
+    public List<String> getJvmOptions() {
+        return Collections.unmodifiableList(jvmOptions);
+    }
+
+    public LambdaAgentPayload withJvmOption(@CheckForNull String option) {
+        if (StringUtils.isNotBlank(option)) {
+            jvmOptions.add(option.trim());
+        }
+        return this;
+    }
+
+    public LambdaAgentPayload withWorkDir(@CheckForNull String workDir) {
+        this.workDir = StringUtils.trimToNull(workDir);
+        return this;
+    }
+
+    public LambdaAgentPayload withRemoting(@CheckForNull String version, @CheckForNull String checksum) {
+        this.remotingVersion = version;
+        this.remotingChecksum = checksum;
+        return this;
+    }
+
+    /**
+     * Points agents to a dependency cache.
+     *
+     * @param url the URL of the cache.
+     * @param mirrors the URL of each repository of the cache, by name.
+     * @return this payload.
+     */
+    public LambdaAgentPayload withDependencyCache(@CheckForNull String url, @Nonnull Map<String, String> mirrors) {
+        this.dependencyCacheUrl = url;
+        this.dependencyMirrors = new LinkedHashMap<String, String>(mirrors);
+        return this;
+    }
+
+    /**
+     * Serializes the launch independent fields, in a stable order.
+     *
+     * @return a {@link JSONObject} without node secret nor node name.
+     */
+    @Nonnull
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put(URL, url);
+        json.put(CONNECTION_MODE, connectionMode.getPayloadValue());
+        if (directConnection != null) {
+            json.put(DIRECT_CONNECTION, directConnection);
+        }
+        if (!jvmOptions.isEmpty()) {
+            json.put(JVM_OPTIONS, JSONArray.fromObject(jvmOptions));
+        }
+        if (workDir != null) {
+            json.put(WORK_DIR, workDir);
+        }
+        if (remotingVersion != null) {
+            json.put(REMOTING_VERSION, remotingVersion);
+        }
+        if (remotingChecksum != null) {
+            json.put(REMOTING_JAR_SHA256, remotingChecksum);
+        }
+        if (dependencyCacheUrl != null) {
+            JSONObject cache = new JSONObject();
+            cache.put("url", dependencyCacheUrl);
+            cache.put("mirrors", JSONObject.fromObject(dependencyMirrors));
+            json.put(DEPENDENCY_CACHE, cache);
+        }
+        return json;
+    }
+
+    /**
+     * Renders this payload into a reusable {@link Template}.
+     *
+     * @return a {@link Template} object.
+     */
+    @Nonnull
+    public Template toTemplate() {
+        return new Template(toJSON());
+    }
+
+    /**
+     * Pre-rendered payload of a function: the JSON document without its closing
+     * brace, waiting for the per-node fields.
+     */
+    public static final class Template {
+
+        private final String prefix;
+
+        Template(@Nonnull JSONObject json) {
+            String rendered = json.toString();
+            // JSONObject always renders at least the url, so the document is never empty
+            this.prefix = rendered.substring(0, rendered.length() - 1) + ",";
+        }
+
+        /**
+         * Completes the payload of a launch.
+         *
+         * @param nodeSecret the JNLP secret of the node.
+         * @param nodeName the name of the node.
+         * @return the JSON payload.
+         */
+        @Nonnull
+        public String render(@Nonnull String nodeSecret, @Nonnull String nodeName) {
+            return new StringBuilder(prefix.length() + nodeSecret.length() + nodeName.length() + 32)
+                .append(prefix)
+                .append('"').append(NODE_SECRET).append("\":").append(JSONUtils.quote(nodeSecret))
+                .append(",\"").append(NODE_NAME).append("\":").append(JSONUtils.quote(nodeName))
+                .append('}')
+                .toString();
+        }
+    }
+
+    /**
+     * SHA-256 of the remoting jar served by this controller, computed once. Agents
+     * holding a cached agent.jar with the same checksum can skip downloading it.
+     *
+     * @return the hex encoded checksum or null if the jar could not be read.
+     */
+    @CheckForNull
+    static String getRemotingJarChecksum() {
+        String checksum = remotingJarChecksum;
+        if (checksum == null) {
+            try {
+                File jar = Which.jarFile(Channel.class);
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                try (InputStream in = new DigestInputStream(new FileInputStream(jar), digest)) {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) != -1) {
+                        // digest is updated while reading
+                    }
+                }
+                checksum = Util.toHexString(digest.digest());
+                remotingJarChecksum = checksum;
+            } catch (IOException | NoSuchAlgorithmException e) {
+                LOGGER.warn("[AWS Lambda Cloud]: Unable to compute the remoting jar checksum: {}", e.getMessage());
+            }
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,417 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.slaves.ComputerListener;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lifecycle of the agents of a cloud: planned, invoked, connected, removed.
+ *
+ * A node removed after its invocation but before its agent connected leaves an
+ * orphaned invocation behind: the Lambda keeps running, and using concurrency,
+ * until it gives up or reaches its time limit. Orphans are kept until then so
+ * that {@link LambdaReconcilerWork} can account for them.
+ */
+public final class LambdaAgentTracker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaAgentTracker.class);
+
+    /**
+     * AWS Lambda time limit, the longest an orphaned invocation can run when
+     * the timeout of its function is unknown.
+     */
+    static final long ORPHAN_TTL = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Number of recent failures kept for display.
+     */
+    private static final int RECENT_FAILURES = 20;
+
+    private static final ConcurrentMap<String, LambdaAgentTracker> TRACKERS =
+        new ConcurrentHashMap<String, LambdaAgentTracker>();
+
+    /**
+     * Lifecycle phases of an agent.
+     */
+    public enum Phase {
+        PLANNED, INVOKED, CONNECTED
+    }
+
+    private final String cloudName;
+
+    private final ConcurrentMap<String, Agent> agents = new ConcurrentHashMap<String, Agent>();
+
+    private final ConcurrentMap<String, Long> orphans = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Timeouts of the functions of the cloud by function name, when known.
+     */
+    private final ConcurrentMap<String, Long> functionTimeouts = new ConcurrentHashMap<String, Long>();
+
+    private final Map<Phase, AtomicInteger> phaseCounts = new EnumMap<Phase, AtomicInteger>(Phase.class);
+
+    private final Deque<Failure> failures = new ArrayDeque<Failure>();
+
+    private volatile long leaks;
+
+    private LambdaAgentTracker(String cloudName) {
+        this.cloudName = cloudName;
+        for (Phase phase : Phase.values()) {
+            phaseCounts.put(phase, new AtomicInteger());
+        }
+    }
+
+    /**
+     * Get the tracker of a cloud.
+     *
+     * @param cloudName the name of the cloud.
+     * @return a {@link LambdaAgentTracker} object.
+     */
+    @Nonnull
+    public static LambdaAgentTracker of(@Nonnull String cloudName) {
+        LambdaAgentTracker tracker = TRACKERS.get(cloudName);
+        if (tracker == null) {
+            LambdaAgentTracker created = new LambdaAgentTracker(cloudName);
+            tracker = TRACKERS.putIfAbsent(cloudName, created);
+            if (tracker == null) {
+                tracker = created;
+            }
+        }
+        return tracker;
+    }
+
+    void planned(@Nonnull String nodeName, @Nonnull String label, @Nonnull String function, long now) {
+        Agent previous = agents.put(nodeName, new Agent(nodeName, label, function, now));
+        phaseCounts.get(Phase.PLANNED).incrementAndGet();
+        if (previous != null) {
+            leave(previous);
+        }
+    }
+
+    void invoked(@Nonnull String nodeName, long now) {
+        Agent agent = agents.get(nodeName);
+        if (agent != null) {
+            agent.invoked = now;
+            move(agent, Phase.INVOKED);
+        }
+    }
+
+    void connected(@Nonnull String nodeName, long now, long launchMs) {
+        Agent agent = agents.get(nodeName);
+        if (agent != null) {
+            agent.connected = now;
+            agent.launchMs = launchMs;
+            move(agent, Phase.CONNECTED);
+        }
+    }
+
+    private void move(Agent agent, Phase phase) {
+        synchronized (agent) {
+            if (!agent.removed) {
+                phaseCounts.get(agent.phase).decrementAndGet();
+                phaseCounts.get(phase).incrementAndGet();
+            }
+            agent.phase = phase;
+        }
+    }
+
+    private void leave(Agent agent) {
+        synchronized (agent) {
+            if (!agent.removed) {
+                phaseCounts.get(agent.phase).decrementAndGet();
+                agent.removed = true;
+            }
+        }
+    }
+
+    void timedOut(@Nonnull String nodeName, long launchMs) {
+        Agent agent = agents.get(nodeName);
+        if (agent != null) {
+            agent.outcome = LambdaHistoryStore.Outcome.TIMED_OUT;
+            agent.launchMs = launchMs;
+        }
+    }
+
+    void failed(@Nonnull String nodeName) {
+        Agent agent = agents.get(nodeName);
+        if (agent != null && agent.outcome == null) {
+            agent.outcome = LambdaHistoryStore.Outcome.FAILED;
+        }
+    }
+
+    /**
+     * Records the removal of an agent.
+     *
+     * @param nodeName the node name of the agent.
+     * @return false if the agent was not tracked, e.g. already removed or unknown.
+     */
+    boolean removed(@Nonnull String nodeName) {
+        Agent agent = agents.remove(nodeName);
+        if (agent == null) {
+            return false;
+        }
+        leave(agent);
+        if (agent.phase == Phase.INVOKED) {
+            orphans.put(nodeName, agent.invoked + getOrphanTtl(agent.function));
+            LOGGER.info("[AWS Lambda Cloud]: [{}]: Removed while its invocation may still run", nodeName);
+        }
+        record(agent, System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Whether a node name belongs to an agent this cloud is waiting for or running.
+     *
+     * @param nodeName a node name.
+     * @return true if the agent is known and not removed.
+     */
+    public boolean isLive(@Nonnull String nodeName) {
+        return agents.containsKey(nodeName);
+    }
+
+    /**
+     * Whether a removed agent left an invocation which may still run.
+     *
+     * @param nodeName a node name.
+     * @return true if the agent is an orphan not expired yet.
+     */
+    public boolean isOrphan(@Nonnull String nodeName) {
+        return orphans.containsKey(nodeName);
+    }
+
+    @CheckForNull
+    public Phase getPhase(@Nonnull String nodeName) {
+        Agent agent = agents.get(nodeName);
+        return agent == null ? null : agent.phase;
+    }
+
+    /**
+     * Get the agents per phase.
+     *
+     * @return the number of agents in each phase.
+     */
+    @Nonnull
+    public Map<Phase, Integer> getPhaseCounts() {
+        Map<Phase, Integer> counts = new EnumMap<Phase, Integer>(Phase.class);
+        for (Map.Entry<Phase, AtomicInteger> entry : phaseCounts.entrySet()) {
+            counts.put(entry.getKey(), Math.max(0, entry.getValue().get()));
+        }
+        return counts;
+    }
+
+    /**
+     * Get the latest agents which did not complete, most recent first.
+     *
+     * @return a list of {@link Failure} objects.
+     */
+    @Nonnull
+    public List<Failure> getRecentFailures() {
+        synchronized (failures) {
+            return new ArrayList<Failure>(failures);
+        }
+    }
+
+    @Nonnull
+    List<Agent> getAgents() {
+        return new ArrayList<Agent>(agents.values());
+    }
+
+    /**
+     * Drops orphans whose invocation has necessarily ended.
+     *
+     * @param now the current time.
+     * @return the number of orphaned invocations which may still be running.
+     */
+    int expireOrphans(long now) {
+        for (Iterator<Long> it = orphans.values().iterator(); it.hasNext(); ) {
+            if (it.next() <= now) {
+                it.remove();
+            }
+        }
+        return orphans.size();
+    }
+
+    /**
+     * Records the timeout of a function, which bounds the life of its orphaned invocations.
+     *
+     * @param function the function name.
+     * @param timeoutMs the timeout of the function.
+     */
+    void setFunctionTimeout(@Nonnull String function, long timeoutMs) {
+        functionTimeouts.put(function, timeoutMs);
+    }
+
+    /**
+     * Get the longest an orphaned invocation of a function can run.
+     *
+     * @param function the function name.
+     * @return the timeout of the function, {@link #ORPHAN_TTL} while unknown.
+     */
+    long getOrphanTtl(@Nonnull String function) {
+        return getTimeLimit(function);
+    }
+
+    /**
+     * Get the longest an invocation of a function can run.
+     *
+     * @param function the function name.
+     * @return the timeout of the function, the AWS Lambda limit of {@link #ORPHAN_TTL} while unknown.
+     */
+    long getTimeLimit(@Nonnull String function) {
+        Long timeout = functionTimeouts.get(function);
+        return timeout != null ? Math.min(timeout, ORPHAN_TTL) : ORPHAN_TTL;
+    }
+
+    void forget(@Nonnull String nodeName) {
+        Agent agent = agents.remove(nodeName);
+        if (agent != null) {
+            leave(agent);
+            agent.outcome = LambdaHistoryStore.Outcome.FAILED;
+            record(agent, System.currentTimeMillis());
+        }
+    }
+
+    private void record(Agent agent, long removed) {
+        LambdaHistoryStore.Outcome outcome = agent.outcome;
+        if (outcome == null) {
+            outcome = agent.phase == Phase.CONNECTED ? LambdaHistoryStore.Outcome.COMPLETED
+                : agent.phase == Phase.INVOKED ? LambdaHistoryStore.Outcome.ABORTED : LambdaHistoryStore.Outcome.FAILED;
+        }
+        if (outcome != LambdaHistoryStore.Outcome.COMPLETED) {
+            synchronized (failures) {
+                failures.addFirst(new Failure(agent.nodeName, agent.function, outcome, removed));
+                if (failures.size() > RECENT_FAILURES) {
+                    failures.removeLast();
+                }
+            }
+        }
+        LambdaHistoryStore history = LambdaHistoryStore.get();
+        if (history == null) {
+            return;
+        }
+        history.append(new LambdaHistoryStore.Record(cloudName, agent.function, agent.label, agent.planned,
+            offset(agent, agent.invoked), offset(agent, agent.connected), offset(agent, removed),
+            (int) Math.min(Integer.MAX_VALUE, agent.launchMs), outcome));
+    }
+
+    private static int offset(Agent agent, long time) {
+        return time == 0 ? 0 : (int) Math.max(0, Math.min(Integer.MAX_VALUE, time - agent.planned));
+    }
+
+    void leaked(int count) {
+        leaks += count;
+    }
+
+    /**
+     * Get the number of leaks detected and fixed by the reconciler.
+     *
+     * @return a long.
+     */
+    public long getLeaks() {
+        return leaks;
+    }
+
+    public int getOrphans() {
+        return orphans.size();
+    }
+
+    static final class Agent {
+
+        final String nodeName;
+        final String label;
+        final String function;
+        final long planned;
+        volatile Phase phase = Phase.PLANNED;
+        volatile long invoked;
+        volatile long connected;
+        volatile long launchMs;
+        volatile LambdaHistoryStore.Outcome outcome;
+        boolean removed;
+
+        Agent(String nodeName, String label, String function, long planned) {
+            this.nodeName = nodeName;
+            this.label = label;
+            this.function = function;
+            this.planned = planned;
+        }
+    }
+
+    /**
+     * An agent which did not complete.
+     */
+    public static final class Failure {
+
+        private final String nodeName;
+        private final String function;
+        private final LambdaHistoryStore.Outcome outcome;
+        private final long time;
+
+        Failure(String nodeName, String function, LambdaHistoryStore.Outcome outcome, long time) {
+            this.nodeName = nodeName;
+            this.function = function;
+            this.outcome = outcome;
+            this.time = time;
+        }
+
+        public String getNodeName() {
+            return nodeName;
+        }
+
+        public String getFunction() {
+            return function;
+        }
+
+        public LambdaHistoryStore.Outcome getOutcome() {
+            return outcome;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * Refuses the connection of Lambda agents their cloud does not know about,
+     * e.g. agents of a previous controller run or agents removed while connecting.
+     */
+    @Extension
+    public static class UnknownAgentGuard extends ComputerListener {
+
+        @Override
+        public void preOnline(Computer c, Channel channel, FilePath root, TaskListener listener)
+            throws IOException, InterruptedException {
+            if (!(c instanceof LambdaComputer)) {
+                return;
+            }
+            LambdaComputer computer = (LambdaComputer) c;
+            if (!of(computer.getCloudName()).isLive(computer.getName())) {
+                LOGGER.warn("[AWS Lambda Cloud]: [{}]: Refusing connection of an unknown Lambda agent",
+                    computer.getName());
+                throw new AbortException("Unknown AWS Lambda agent " + computer.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.PeriodicWork;
+import hudson.slaves.Cloud;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.model.Jenkins;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Slows down provisioning while the controller itself is the bottleneck.
+ *
+ * The load of the controller is sampled every few seconds: the time tasks
+ * wait for {@link Computer#threadPoolForRemoting}, the Lambda agents invoked
+ * and not connected yet, the share of time spent in garbage collection and
+ * the heap occupancy after collection. Each signal turns into a pressure,
+ * from 0 below its soft limit to 1 at its hard limit, and the highest one
+ * scales down the agents planned at each provisioning round. Starting fewer
+ * agents keeps the controller responsive, so that those started connect and
+ * build instead of timing out.
+ */
+public final class LambdaBackpressure {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaBackpressure.class);
+
+    private static final boolean DISABLED = Boolean.getBoolean(
+        "io.jenkins.plugins.aws.lambda.cloud.backpressure.disable");
+
+    static final long SAMPLE_PERIOD = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Age after which a sample is ignored, e.g. when the sampler is stuck.
+     */
+    private static final long SAMPLE_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    static final long SOFT_QUEUE_WAIT = 500;
+    static final long HARD_QUEUE_WAIT = TimeUnit.SECONDS.toMillis(5);
+
+    static final int SOFT_CONNECTING = 200;
+    static final int HARD_CONNECTING = 1000;
+
+    static final double SOFT_GC_RATIO = 0.05;
+    static final double HARD_GC_RATIO = 0.3;
+
+    static final double SOFT_HEAP_RATIO = 0.7;
+    static final double HARD_HEAP_RATIO = 0.95;
+
+    private static volatile double current = 1;
+
+    private static volatile long sampled;
+
+    private LambdaBackpressure() {
+    }
+
+    /**
+     * Get the share of the planned agents the controller can take now.
+     *
+     * @return a factor between 0 and 1, 1 without recent sample.
+     */
+    public static double getFactor() {
+        if (DISABLED || System.currentTimeMillis() - sampled > SAMPLE_TTL) {
+            return 1;
+        }
+        return current;
+    }
+
+    /**
+     * Scales down a number of agents to the load of the controller.
+     *
+     * @param agents the number of agents planned.
+     * @return the number of agents to start.
+     */
+    static int apply(int agents) {
+        return apply(agents, getFactor());
+    }
+
+    /**
+     * Scales down a number of agents, keeping at least one unless the factor is 0.
+     */
+    static int apply(int agents, double factor) {
+        if (agents <= 0 || factor >= 1) {
+            return agents;
+        }
+        if (factor <= 0) {
+            return 0;
+        }
+        return Math.max(1, (int) Math.floor(agents * factor));
+    }
+
+    /**
+     * Get the factor of a load sample.
+     *
+     * @param queueWaitMs the wait of a task for the remoting thread pool.
+     * @param connecting the number of agents invoked and not connected yet.
+     * @param gcRatio the share of time spent in garbage collection.
+     * @param heapRatio the occupancy of the heap after collection.
+     * @return a factor between 0 and 1.
+     */
+    static double factor(long queueWaitMs, int connecting, double gcRatio, double heapRatio) {
+        double pressure = Math.max(
+            Math.max(pressure(queueWaitMs, SOFT_QUEUE_WAIT, HARD_QUEUE_WAIT),
+                pressure(connecting, SOFT_CONNECTING, HARD_CONNECTING)),
+            Math.max(pressure(gcRatio, SOFT_GC_RATIO, HARD_GC_RATIO),
+                pressure(heapRatio, SOFT_HEAP_RATIO, HARD_HEAP_RATIO)));
+        return 1 - pressure;
+    }
+
+    private static double pressure(double value, double soft, double hard) {
+        return Math.max(0, Math.min(1, (value - soft) / (hard - soft)));
+    }
+
+    /**
+     * Samples the load of the controller.
+     */
+    @Extension
+    public static class Sampler extends PeriodicWork {
+
+        /**
+         * Submission time of the probe waiting for the remoting thread pool, 0 when none.
+         */
+        private volatile long probeSubmitted;
+
+        private volatile long probeWait;
+
+        private long lastSample;
+
+        private long lastGcTime;
+
+        /** {@inheritDoc} */
+        @Override
+        public long getRecurrencePeriod() {
+            return SAMPLE_PERIOD;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void doRun() {
+            if (DISABLED) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long queueWait = getQueueWait(now);
+            int connecting = getConnecting();
+            double gcRatio = getGcRatio(now);
+            double heapRatio = getHeapRatio();
+            double previous = current;
+            double factor = factor(queueWait, connecting, gcRatio, heapRatio);
+            current = factor;
+            sampled = now;
+            if ((factor < 1) != (previous < 1) || factor < previous - 0.25) {
+                LOGGER.info("[AWS Lambda Cloud]: Provisioning at {}% under controller load: remoting wait {}ms, "
+                        + "{} agent(s) connecting, {}% of time in GC, {}% of heap used",
+                    Math.round(factor * 100), queueWait, connecting, Math.round(gcRatio * 100),
+                    Math.round(heapRatio * 100));
+            }
+        }
+
+        /**
+         * Get the wait of the latest probe for the remoting thread pool, then
+         * submits a new one. A probe still waiting has waited at least since
+         * its submission.
+         */
+        private long getQueueWait(long now) {
+            long submitted = probeSubmitted;
+            if (submitted > 0) {
+                return now - submitted;
+            }
+            final long probe = now;
+            probeSubmitted = probe;
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                @Override
+                public void run() {
+                    probeWait = System.currentTimeMillis() - probe;
+                    probeSubmitted = 0;
+                }
+            });
+            return probeWait;
+        }
+
+        private static int getConnecting() {
+            int connecting = 0;
+            for (Cloud c : Jenkins.getActiveInstance().clouds) {
+                if (c instanceof LambdaCloud) {
+                    connecting += LambdaAgentTracker.of(c.name).getPhaseCounts().get(LambdaAgentTracker.Phase.INVOKED);
+                }
+            }
+            return connecting;
+        }
+
+        private double getGcRatio(long now) {
+            long gcTime = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcTime += Math.max(0, gc.getCollectionTime());
+            }
+            double ratio = lastSample > 0 && now > lastSample
+                ? (double) (gcTime - lastGcTime) / (now - lastSample) : 0;
+            lastSample = now;
+            lastGcTime = gcTime;
+            return Math.max(0, Math.min(1, ratio));
+        }
+
+        /**
+         * Get the occupancy of the fullest heap pool after its last collection,
+         * live data rather than garbage, or of the whole heap when the JVM
+         * does not tell.
+         */
+        private static double getHeapRatio() {
+            double ratio = -1;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                // tenured pools only, young ones are mostly garbage or full by design
+                MemoryUsage usage = pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsage() : null;
+                if (usage != null && usage.getMax() > 0) {
+                    ratio = Math.max(ratio, (double) usage.getUsed() / usage.getMax());
+                }
+            }
+            if (ratio < 0) {
+                MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+                ratio = heap.getMax() > 0 ? (double) heap.getUsed() / heap.getMax() : 0;
+            }
+            return ratio;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares the concurrency of a {@link LambdaCloud} between the functions waiting for agents.
+ *
+ * The NodeProvisioner asks for agents one label at a time, in no particular
+ * order. The allocator remembers the recent demand of every label, grouped by
+ * the function serving it, so that when concurrency is capped each free slot
+ * goes to the most deserving waiting function instead of the first one asking:
+ * <ol>
+ * <li>functions below their minimum quota first,</li>
+ * <li>then the function with the fewest agents in flight relatively to its weight,</li>
+ * <li>ties broken by the position of the first item of its labels in the build queue,
+ * which follows the queue sorter (e.g. priorities) when there is one.</li>
+ * </ol>
+ * No function gets more than its maximum quota, whatever the number of label
+ * expressions it serves.
+ */
+public final class LambdaCapacityAllocator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaCapacityAllocator.class);
+
+    /**
+     * Demand not renewed for that long is considered served or gone.
+     */
+    private static final long DEMAND_TTL = TimeUnit.SECONDS.toMillis(15);
+
+    private static final ConcurrentMap<String, LambdaCapacityAllocator> ALLOCATORS =
+        new ConcurrentHashMap<String, LambdaCapacityAllocator>();
+
+    private final String cloudName;
+
+    private final Map<String, Integer> inFlight = new HashMap<String, Integer>();
+
+    private final Map<String, Demand> demands = new HashMap<String, Demand>();
+
+    private int totalInFlight;
+
+    /**
+     * Concurrency used outside of the agents in flight, e.g. by orphaned invocations.
+     */
+    private int reserved;
+
+    /**
+     * Concurrency used by keep-warm invocations in progress.
+     */
+    private int warming;
+
+    private LambdaCapacityAllocator(String cloudName) {
+        this.cloudName = cloudName;
+    }
+
+    /**
+     * Get the allocator of a cloud.
+     *
+     * @param cloudName the name of the cloud.
+     * @return a {@link LambdaCapacityAllocator} object.
+     */
+    @Nonnull
+    public static LambdaCapacityAllocator of(@Nonnull String cloudName) {
+        LambdaCapacityAllocator allocator = ALLOCATORS.get(cloudName);
+        if (allocator == null) {
+            LambdaCapacityAllocator created = new LambdaCapacityAllocator(cloudName);
+            allocator = ALLOCATORS.putIfAbsent(cloudName, created);
+            if (allocator == null) {
+                allocator = created;
+            }
+        }
+        return allocator;
+    }
+
+    /**
+     * Grants agents to a label, within the share of the cloud concurrency the function
+     * serving it is entitled to. Granted agents are accounted in flight for the function
+     * until {@link #release(String)}.
+     *
+     * @param label the label asking for agents.
+     * @param function the function serving the label.
+     * @param wanted the number of agents the label is asking for.
+     * @param queuePosition the position of the first item of the label in the build queue.
+     * @param maxConcurrency the concurrency of the cloud, 0 for unlimited.
+     * @param now the current time.
+     * @return the number of agents granted, between 0 and <code>wanted</code>.
+     */
+    public synchronized int allocate(@Nonnull String label, @Nonnull LambdaFunction function, int wanted,
+                                     int queuePosition, int maxConcurrency, long now) {
+        if (wanted <= 0) {
+            return 0;
+        }
+        String functionName = function.getFunctionName();
+        Demand demand = demands.get(functionName);
+        if (demand == null) {
+            demand = new Demand(functionName);
+            demands.put(functionName, demand);
+        }
+        demand.quotas(function.getWeight(), function.getMinConcurrency(), function.getMaxConcurrency());
+        demand.wants.put(label, new Want(wanted, queuePosition, now));
+
+        int free = maxConcurrency > 0 ? maxConcurrency - totalInFlight - reserved - warming : Integer.MAX_VALUE;
+        List<Demand> waiting = waiting(now);
+        for (Demand each : waiting) {
+            each.granted = 0;
+            each.current = getInFlight(each.function);
+        }
+
+        int granted;
+        if (free >= sumOfWanted(waiting)) {
+            // enough capacity for everyone, only quotas apply
+            granted = Math.max(0, Math.min(wanted, demand.room()));
+        } else {
+            // the share of the function may be more than this label asks for,
+            // its other labels get the rest when they ask
+            granted = Math.min(wanted, share(waiting, free, functionName));
+        }
+
+        if (granted > 0) {
+            inFlight.put(functionName, getInFlight(functionName) + granted);
+            totalInFlight += granted;
+        }
+        if (granted >= wanted) {
+            demand.wants.remove(label);
+            if (demand.wants.isEmpty()) {
+                demands.remove(functionName);
+            }
+        } else {
+            demand.wants.get(label).count -= granted;
+            LOGGER.info("[AWS Lambda Cloud]: [{}]: Granted {} of {} agent(s) to label {} of function {} "
+                    + "({} in flight, limit {})", cloudName, granted, wanted, label, functionName, totalInFlight,
+                maxConcurrency > 0 ? maxConcurrency : "none");
+        }
+        return granted;
+    }
+
+    /**
+     * Drops the wants not renewed recently, and returns the demands still waiting.
+     */
+    private List<Demand> waiting(long now) {
+        List<Demand> waiting = new ArrayList<Demand>();
+        for (Demand demand : new ArrayList<Demand>(demands.values())) {
+            demand.expire(now);
+            if (demand.wants.isEmpty()) {
+                demands.remove(demand.function);
+            } else {
+                waiting.add(demand);
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * Hands free slots one at a time to the most deserving demand, and returns
+     * how many the given function got.
+     */
+    private static int share(List<Demand> waiting, int free, String function) {
+        // minimum quotas first
+        for (Demand demand : waiting) {
+            while (free > 0 && demand.current + demand.granted < demand.min && demand.remaining() > 0) {
+                demand.granted++;
+                free--;
+            }
+        }
+        while (free > 0) {
+            Demand next = null;
+            for (Demand demand : waiting) {
+                if (demand.remaining() > 0 && demand.room() > 0
+                    && (next == null || demand.isMoreDeservingThan(next))) {
+                    next = demand;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            next.granted++;
+            free--;
+        }
+        for (Demand demand : waiting) {
+            if (demand.function.equals(function)) {
+                return demand.granted;
+            }
+        }
+        return 0;
+    }
+
+    private static int sumOfWanted(List<Demand> waiting) {
+        long sum = 0;
+        for (Demand demand : waiting) {
+            sum += demand.wanted();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, sum);
+    }
+
+    /**
+     * Grants slots to keep-warm invocations, out of the concurrency no function
+     * is waiting for. Granted slots are accounted until {@link #warmed(int)}.
+     *
+     * @param wanted the number of invocations wanted.
+     * @param maxConcurrency the concurrency of the cloud, 0 for unlimited.
+     * @param now the current time.
+     * @return the number of invocations granted, between 0 and <code>wanted</code>.
+     */
+    public synchronized int warm(int wanted, int maxConcurrency, long now) {
+        if (wanted <= 0) {
+            return 0;
+        }
+        if (maxConcurrency <= 0) {
+            warming += wanted;
+            return wanted;
+        }
+        int free = maxConcurrency - totalInFlight - reserved - warming - sumOfWanted(waiting(now));
+        int granted = Math.max(0, Math.min(wanted, free));
+        warming += granted;
+        return granted;
+    }
+
+    /**
+     * Gives back the slots of keep-warm invocations once they returned.
+     *
+     * @param count the number of invocations.
+     */
+    public synchronized void warmed(int count) {
+        warming = Math.max(0, warming - count);
+    }
+
+    public synchronized int getWarming() {
+        return warming;
+    }
+
+    /**
+     * Gives back the slot of an agent of a function.
+     *
+     * @param function the name of the function of the agent.
+     */
+    public synchronized void release(@Nonnull String function) {
+        int count = getInFlight(function);
+        if (count <= 0) {
+            return;
+        }
+        if (count == 1) {
+            inFlight.remove(function);
+        } else {
+            inFlight.put(function, count - 1);
+        }
+        totalInFlight--;
+    }
+
+    /**
+     * Moves the slot of a removed agent of a function to the reserved concurrency,
+     * when its invocation may still run. The next {@link #reconcile(Map, int)}
+     * keeps it reserved until the orphan expires.
+     *
+     * @param function the name of the function of the agent.
+     */
+    public synchronized void orphaned(@Nonnull String function) {
+        if (getInFlight(function) > 0) {
+            release(function);
+            reserved++;
+        }
+    }
+
+    /**
+     * Replaces the in-flight counters by the actual agents of the cloud.
+     *
+     * @param actual the actual agents in flight per function name.
+     * @param reserved the concurrency used outside of these agents.
+     * @return the total drift that was corrected.
+     */
+    public synchronized int reconcile(@Nonnull Map<String, Integer> actual, int reserved) {
+        int drift = 0;
+        for (Map.Entry<String, Integer> entry : inFlight.entrySet()) {
+            Integer count = actual.get(entry.getKey());
+            drift += Math.abs(entry.getValue() - (count == null ? 0 : count));
+        }
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : actual.entrySet()) {
+            if (!inFlight.containsKey(entry.getKey())) {
+                drift += entry.getValue();
+            }
+            total += entry.getValue();
+        }
+        inFlight.clear();
+        inFlight.putAll(actual);
+        totalInFlight = total;
+        this.reserved = reserved;
+        return drift;
+    }
+
+    public synchronized int getReserved() {
+        return reserved;
+    }
+
+    public synchronized int getInFlight(@Nonnull String function) {
+        Integer count = inFlight.get(function);
+        return count == null ? 0 : count;
+    }
+
+    public synchronized int getTotalInFlight() {
+        return totalInFlight;
+    }
+
+    private static final class Demand {
+
+        private final String function;
+        private final Map<String, Want> wants = new HashMap<String, Want>();
+        private int weight;
+        private int min;
+        private int max;
+        private int current;
+        private int granted;
+
+        Demand(String function) {
+            this.function = function;
+        }
+
+        void quotas(int weight, int min, int max) {
+            this.weight = weight;
+            this.min = min;
+            this.max = max;
+        }
+
+        void expire(long now) {
+            Iterator<Want> it = wants.values().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().time > DEMAND_TTL) {
+                    it.remove();
+                }
+            }
+        }
+
+        int wanted() {
+            long sum = 0;
+            for (Want want : wants.values()) {
+                sum += want.count;
+            }
+            return (int) Math.min(Integer.MAX_VALUE, sum);
+        }
+
+        int queuePosition() {
+            int position = Integer.MAX_VALUE;
+            for (Want want : wants.values()) {
+                position = Math.min(position, want.queuePosition);
+            }
+            return position;
+        }
+
+        int remaining() {
+            return wanted() - granted;
+        }
+
+        int room() {
+            return max > 0 ? max - current - granted : Integer.MAX_VALUE;
+        }
+
+        boolean isMoreDeservingThan(Demand other) {
+            // compare (current + granted) / weight without dividing
+            long mine = (long) (current + granted) * other.weight;
+            long theirs = (long) (other.current + other.granted) * weight;
+            if (mine != theirs) {
+                return mine < theirs;
+            }
+            return queuePosition() < other.queuePosition();
+        }
+    }
+
+    /**
+     * The recent demand of one label.
+     */
+    private static final class Want {
+
+        private final int queuePosition;
+        private final long time;
+        private int count;
+
+        Want(int count, int queuePosition, long time) {
+            this.count = count;
+            this.queuePosition = queuePosition;
+            this.time = time;
+        }
+    }
+}
@@ -4,33 +4,64 @@ import com.amazonaws.ClientConfiguration;
 import com.amazonaws.services.lambda.AWSLambda;
 import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
 
-import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
-import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
-
+import hudson.Extension;
 import hudson.ProxyConfiguration;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
 import jenkins.model.Jenkins;
 
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Class to create AWS Lambda Client
  *
+ * Clients are shared by credentials id and region: they are thread-safe, and
+ * their credentials come from the shared {@link LambdaCredentialsProvider} of
+ * the id, so building one does not resolve any credentials.
+ *
  * @author jlamande
  */
 public class LambdaClient {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LambdaClient.class);
 
+    private static final ConcurrentMap<String, AWSLambda> CLIENTS = new ConcurrentHashMap<String, AWSLambda>();
+
+    /**
+     * Get the shared client of a credentials id and region.
+     *
+     * @param credentialsId the Jenkins credentials id, blank for the default AWS credentials.
+     * @param region an AWS region.
+     * @return a {@link com.amazonaws.services.lambda.AWSLambda} object, null if it cannot be built.
+     */
     @CheckForNull
-    private static AmazonWebServicesCredentials getCredentials(@Nullable String credentialsId) {
-        return AWSCredentialsHelper.getCredentials(credentialsId, Jenkins.getActiveInstance());
+    public static AWSLambda getClient(@Nullable String credentialsId, String region) {
+        String key = StringUtils.defaultString(credentialsId) + '/' + region;
+        AWSLambda client = CLIENTS.get(key);
+        if (client == null) {
+            client = buildClient(credentialsId, region);
+            if (client != null) {
+                AWSLambda existing = CLIENTS.putIfAbsent(key, client);
+                if (existing != null) {
+                    client.shutdown();
+                    client = existing;
+                }
+            }
+        }
+        return client;
     }
 
+    @CheckForNull
     public static AWSLambda buildClient(String credentialsId, String region) {
         try {
             ProxyConfiguration proxy = Jenkins.getActiveInstance().proxy;
@@ -44,13 +75,10 @@ public class LambdaClient {
             }
 
             AWSLambdaClientBuilder builder = AWSLambdaClientBuilder.standard()
-                .withClientConfiguration(clientConfiguration).withRegion(region);
-
-            AmazonWebServicesCredentials credentials = getCredentials(credentialsId);
-            if (credentials != null) {
-                LOGGER.debug("[AWS Lambda Cloud]: Using credentials: {}", credentialsId);
-                builder.withCredentials(credentials);
-            }
+                .withClientConfiguration(clientConfiguration).withRegion(region)
+                .withCredentials(LambdaCredentialsProvider.of(credentialsId))
+                .withRequestHandlers(LambdaCredentialsProvider.expiryHandler(credentialsId));
+            LOGGER.debug("[AWS Lambda Cloud]: Using credentials: {}", credentialsId);
             LOGGER.debug("[AWS Lambda Cloud]: Selected Region: {}", region);
             return builder.build();
         } catch(IllegalStateException e) {
@@ -58,4 +86,20 @@ public class LambdaClient {
             return null;
         }
     }
+
+    /**
+     * Drops the shared clients when the proxy configuration is saved. Clients
+     * still in use by a cloud keep working with the previous proxy until the
+     * cloud is saved again.
+     */
+    @Extension
+    public static class ProxyListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof ProxyConfiguration) {
+                CLIENTS.clear();
+            }
+        }
+    }
 }
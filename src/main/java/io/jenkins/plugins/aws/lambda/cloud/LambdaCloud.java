@@ -5,16 +5,20 @@ import com.amazonaws.regions.DefaultAwsRegionProviderChain;
 import com.amazonaws.services.lambda.AWSLambda;
 
 import hudson.Extension;
-import hudson.model.Computer;
 import hudson.model.Label;
 import hudson.model.Node;
+import hudson.model.Queue;
 import hudson.slaves.Cloud;
+import hudson.slaves.CloudRetentionStrategy;
 import hudson.slaves.NodeProvisioner;
 
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -45,10 +49,22 @@ public class LambdaCloud extends Cloud {
 
     private static final int DEFAULT_AGENT_TIMEOUT = 60;
 
-    private static final int DEFAULT_MAX_CONCURRENT_EXECUTIONS = 2;
+    private static final double DEFAULT_AGENT_TIMEOUT_FACTOR = 2.0;
+
+    private static final int DEFAULT_MIN_AGENT_TIMEOUT = 10;
+
+    private static final int DEFAULT_MAX_AGENT_TIMEOUT = 300;
+
+    /**
+     * Number of observed launches of a function before its adaptive timeout is used.
+     */
+    private static final int ADAPTIVE_TIMEOUT_MIN_SAMPLES = 20;
 
     private static final String DEFAULT_REGION = "us-east-1";
 
+    private static final LambdaProvisioningPolicy DEFAULT_PROVISIONING_POLICY =
+        new LambdaProvisioningPolicy.Conservative();
+
     static {
         clearAllNodes();
     }
@@ -65,6 +81,24 @@ public class LambdaCloud extends Cloud {
 
     private int agentTimeout;
 
+    private boolean adaptiveAgentTimeout;
+
+    private double agentTimeoutFactor;
+
+    private int minAgentTimeout;
+
+    private int maxAgentTimeout;
+
+    private String connectionMode;
+
+    private String directConnection;
+
+    @CheckForNull
+    private LambdaDependencyCache dependencyCache;
+
+    @CheckForNull
+    private LambdaProvisioningPolicy provisioningPolicy;
+
     private List<LambdaFunction> functions;
 
     /**
@@ -72,6 +106,10 @@ public class LambdaCloud extends Cloud {
     */
     private transient AWSLambda client;
 
+    private transient volatile CloudRetentionStrategy retentionStrategy;
+
+    private transient volatile int retentionIdleMinutes;
+
     /**
     * Constructor for LambdaCloud.
     *
@@ -94,7 +132,7 @@ public class LambdaCloud extends Cloud {
         } else {
             this.region = region;
         }
-        this.client = LambdaClient.buildClient(this.credentialsId, this.region);
+        this.client = LambdaClient.getClient(this.credentialsId, this.region);
         LOGGER.info("[AWS Lambda Cloud]: Initializing Cloud: {}", this);
     }
 
@@ -186,13 +224,123 @@ public class LambdaCloud extends Cloud {
     }
 
     /**
-     * Getter for the field <code>maxConcurrentExecutions</code>.
+     * Getter for the field <code>adaptiveAgentTimeout</code>.
+     *
+     * @return true if agent timeouts are learned per function.
+     */
+    public boolean isAdaptiveAgentTimeout() {
+        return adaptiveAgentTimeout;
+    }
+
+    /**
+     * Setter for the field <code>adaptiveAgentTimeout</code>.
+     *
+     * @param adaptiveAgentTimeout a boolean.
+     */
+    @DataBoundSetter
+    public void setAdaptiveAgentTimeout(boolean adaptiveAgentTimeout) {
+        this.adaptiveAgentTimeout = adaptiveAgentTimeout;
+    }
+
+    /**
+     * Getter for the field <code>agentTimeoutFactor</code>.
+     *
+     * @return the factor applied to the p99 launch latency.
+     */
+    public double getAgentTimeoutFactor() {
+        return agentTimeoutFactor <= 0 ? DEFAULT_AGENT_TIMEOUT_FACTOR : agentTimeoutFactor;
+    }
+
+    /**
+     * Setter for the field <code>agentTimeoutFactor</code>.
+     *
+     * @param agentTimeoutFactor a double.
+     */
+    @DataBoundSetter
+    public void setAgentTimeoutFactor(double agentTimeoutFactor) {
+        this.agentTimeoutFactor = agentTimeoutFactor;
+    }
+
+    /**
+     * Getter for the field <code>minAgentTimeout</code>.
      *
+     * @return the lower bound in seconds of adaptive timeouts.
+     */
+    public int getMinAgentTimeout() {
+        return minAgentTimeout <= 0 ? DEFAULT_MIN_AGENT_TIMEOUT : minAgentTimeout;
+    }
+
+    /**
+     * Setter for the field <code>minAgentTimeout</code>.
+     *
+     * @param minAgentTimeout a int.
+     */
+    @DataBoundSetter
+    public void setMinAgentTimeout(int minAgentTimeout) {
+        this.minAgentTimeout = minAgentTimeout;
+    }
+
+    /**
+     * Getter for the field <code>maxAgentTimeout</code>.
+     *
+     * @return the upper bound in seconds of adaptive timeouts.
+     */
+    public int getMaxAgentTimeout() {
+        return maxAgentTimeout <= 0 ? DEFAULT_MAX_AGENT_TIMEOUT : maxAgentTimeout;
+    }
+
+    /**
+     * Setter for the field <code>maxAgentTimeout</code>.
+     *
+     * @param maxAgentTimeout a int.
+     */
+    @DataBoundSetter
+    public void setMaxAgentTimeout(int maxAgentTimeout) {
+        this.maxAgentTimeout = maxAgentTimeout;
+    }
+
+    /**
+     * Get the launch latencies (invocation to agent online) observed for a function.
+     *
+     * @param function a {@link LambdaFunction} of this cloud.
+     * @return a {@link LambdaLatencySketch} object.
+     */
+    @Nonnull
+    public LambdaLatencySketch getLaunchLatency(@Nonnull LambdaFunction function) {
+        return LambdaFunctionState.of(this, function).getLaunchLatency();
+    }
+
+    /**
+     * Get the time in seconds to wait for an agent of a function to connect.
+     *
+     * With adaptive timeouts, once enough launches have been observed, this is
+     * the p99 launch latency of the function times {@link #getAgentTimeoutFactor()},
+     * bounded by {@link #getMinAgentTimeout()} and {@link #getMaxAgentTimeout()}.
+     * Otherwise this is {@link #getAgentTimeout()}.
+     *
+     * @param function a {@link LambdaFunction} of this cloud.
      * @return a int.
      */
+    public int getAgentTimeout(@Nonnull LambdaFunction function) {
+        if (!adaptiveAgentTimeout) {
+            return getAgentTimeout();
+        }
+        LambdaLatencySketch sketch = getLaunchLatency(function);
+        if (sketch.getCount() < ADAPTIVE_TIMEOUT_MIN_SAMPLES) {
+            return getAgentTimeout();
+        }
+        long seconds = (long) Math.ceil(sketch.getQuantile(0.99) * getAgentTimeoutFactor() / 1000);
+        return (int) Math.max(getMinAgentTimeout(), Math.min(getMaxAgentTimeout(), seconds));
+    }
+
+    /**
+     * Getter for the field <code>maxConcurrentExecutions</code>.
+     *
+     * @return the maximum number of agents in flight, 0 for unlimited.
+     */
     @Nonnull
     public int getMaxConcurrentExecutions() {
-        return maxConcurrentExecutions == 0 ? DEFAULT_MAX_CONCURRENT_EXECUTIONS : maxConcurrentExecutions;
+        return Math.max(0, maxConcurrentExecutions);
     }
 
     /**
@@ -205,6 +353,85 @@ public class LambdaCloud extends Cloud {
         this.maxConcurrentExecutions = maxConcurrentExecutions;
     }
 
+    /**
+     * Getter for the field <code>connectionMode</code>.
+     *
+     * @return a {@link LambdaConnectionMode} object.
+     */
+    @Nonnull
+    public LambdaConnectionMode getConnectionMode() {
+        return LambdaConnectionMode.fromName(connectionMode);
+    }
+
+    /**
+     * Setter for the field <code>connectionMode</code>.
+     *
+     * @param connectionMode the name of a {@link LambdaConnectionMode}.
+     */
+    @DataBoundSetter
+    public void setConnectionMode(String connectionMode) {
+        this.connectionMode = LambdaConnectionMode.fromName(connectionMode).name();
+    }
+
+    /**
+     * Getter for the field <code>directConnection</code>.
+     *
+     * @return the host:port of the TCP agent listener, used in direct mode.
+     */
+    public String getDirectConnection() {
+        return directConnection;
+    }
+
+    /**
+     * Setter for the field <code>directConnection</code>.
+     *
+     * @param directConnection a host:port {@link String}.
+     */
+    @DataBoundSetter
+    public void setDirectConnection(String directConnection) {
+        this.directConnection = StringUtils.trimToNull(directConnection);
+    }
+
+    /**
+     * Creates the cloud level part of an invocation payload.
+     *
+     * @return a {@link LambdaAgentPayload} object.
+     */
+    @Nonnull
+    LambdaAgentPayload newPayload() {
+        LambdaAgentPayload payload = new LambdaAgentPayload(getJenkinsUrl())
+            .withConnection(getConnectionMode(), directConnection);
+        if (dependencyCache != null) {
+            payload.withDependencyCache(dependencyCache.getBaseUrl(this), dependencyCache.getMirrorUrls(this));
+        }
+        return payload;
+    }
+
+    @CheckForNull
+    public LambdaDependencyCache getDependencyCache() {
+        return dependencyCache;
+    }
+
+    @DataBoundSetter
+    public void setDependencyCache(LambdaDependencyCache dependencyCache) {
+        this.dependencyCache = dependencyCache;
+    }
+
+    /**
+     * Getter for the field <code>provisioningPolicy</code>.
+     *
+     * @return the {@link LambdaProvisioningPolicy}, {@link LambdaProvisioningPolicy.Conservative} by default.
+     */
+    @Nonnull
+    public LambdaProvisioningPolicy getProvisioningPolicy() {
+        return provisioningPolicy != null ? provisioningPolicy : DEFAULT_PROVISIONING_POLICY;
+    }
+
+    @DataBoundSetter
+    public void setProvisioningPolicy(LambdaProvisioningPolicy provisioningPolicy) {
+        this.provisioningPolicy = provisioningPolicy;
+    }
+
     @Nonnull
     public List<LambdaFunction> getFunctions() {
         return functions != null ? functions : Collections.<LambdaFunction> emptyList();
@@ -227,6 +454,59 @@ public class LambdaCloud extends Cloud {
         return this.client;
     }
 
+    /**
+     * Get the client of a region, the cloud client for the cloud region. Clients
+     * of other regions come from the shared cache of {@link LambdaClient}, built
+     * on first use without holding the lock of the cloud.
+     *
+     * @param region an AWS region.
+     * @return a {@link com.amazonaws.services.lambda.AWSLambda} object, null if it cannot be built.
+     */
+    public AWSLambda getClient(@Nonnull String region) {
+        if (region.equals(this.region)) {
+            return getClient();
+        }
+        return LambdaClient.getClient(credentialsId, region);
+    }
+
+    /**
+     * Get the live view of the cloud, at <code>/cloud/NAME/dashboard/</code>.
+     *
+     * @return a {@link LambdaDashboard} object.
+     */
+    @Nonnull
+    public LambdaDashboard getDashboard() {
+        return new LambdaDashboard(this);
+    }
+
+    /**
+     * Get the regions a function can be invoked in, the cloud region first.
+     *
+     * @param function a {@link LambdaFunction} of this cloud.
+     * @return the regions and their weights.
+     */
+    @Nonnull
+    public Map<String, Integer> getRegions(@Nonnull LambdaFunction function) {
+        return function.getRegions(region);
+    }
+
+    /**
+     * Get the retention strategy of the agents, shared by all of them.
+     *
+     * @return a {@link CloudRetentionStrategy} object.
+     */
+    @Nonnull
+    CloudRetentionStrategy getRetentionStrategy() {
+        int idleMinutes = getAgentTimeout() / 60;
+        CloudRetentionStrategy strategy = retentionStrategy;
+        if (strategy == null || retentionIdleMinutes != idleMinutes) {
+            strategy = new CloudRetentionStrategy(idleMinutes);
+            retentionIdleMinutes = idleMinutes;
+            retentionStrategy = strategy;
+        }
+        return strategy;
+    }
+
     private transient long lastProvisionTime = 0;
 
     /**
@@ -254,62 +534,313 @@ public class LambdaCloud extends Cloud {
         }
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     *
+     * Functions fenced by {@link LambdaHealthProbeWork} do not count, so that
+     * their builds go to other clouds while they are unhealthy.
+     */
     @Override
     public boolean canProvision(Label label) {
         return getFunction(label)!= null;
     }
 
+    /**
+     * Whether a function of this cloud serves a label, healthy or not.
+     *
+     * @param label the label.
+     * @return true when a function has the label.
+     */
+    boolean hasFunction(@CheckForNull Label label) {
+        if (label == null) {
+            return false;
+        }
+        for (LambdaFunction f : getFunctions()) {
+            if (label.matches(f.getLabelSet())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private LambdaFunction getFunction(Label label) {
         if (label == null) {
             return null;
         }
         for (LambdaFunction f : getFunctions()) {
-            if (label.matches(f.getLabelSet())) {
+            if (label.matches(f.getLabelSet()) && LambdaFunctionState.of(this, f).isHealthy()) {
                 return f;
             }
         }
         return null;
     }
 
+    /**
+     * Get the healthy functions serving a label, in the order of the
+     * configuration. When they are variants of one another, the
+     * {@link LambdaRightSizer} routes each job to one of them.
+     *
+     * @param label the label.
+     * @return the functions, the default one first.
+     */
+    @Nonnull
+    List<LambdaFunction> getLadder(@CheckForNull Label label) {
+        if (label == null) {
+            return Collections.emptyList();
+        }
+        List<LambdaFunction> ladder = new ArrayList<LambdaFunction>();
+        for (LambdaFunction f : getFunctions()) {
+            if (label.matches(f.getLabelSet()) && LambdaFunctionState.of(this, f).isHealthy()) {
+                ladder.add(f);
+            }
+        }
+        return ladder;
+    }
+
+    /**
+     * Get the jobs of the buildable items of a label, in queue order.
+     */
+    private static List<String> getQueuedJobs(Label label) {
+        List<String> jobs = new ArrayList<String>();
+        for (Queue.BuildableItem item : Jenkins.getActiveInstance().getQueue().getBuildableItems()) {
+            if (label.equals(item.getAssignedLabel())) {
+                jobs.add(LambdaRightSizer.key(item.task));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Get the number of buildable items of a label.
+     */
+    private static int getQueueLength(Label label) {
+        int length = 0;
+        for (Queue.BuildableItem item : Jenkins.getActiveInstance().getQueue().getBuildableItems()) {
+            if (label.equals(item.getAssignedLabel())) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Get the position of the first buildable item of a label in the queue, which
+     * follows the queue sorter when one is installed.
+     */
+    private static int getQueuePosition(Label label) {
+        int position = 0;
+        for (Queue.BuildableItem item : Jenkins.getActiveInstance().getQueue().getBuildableItems()) {
+            if (label.equals(item.getAssignedLabel())) {
+                return position;
+            }
+            position++;
+        }
+        return Integer.MAX_VALUE;
+    }
+
     @Override
     public synchronized Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
         List<NodeProvisioner.PlannedNode> nodesList = new ArrayList<NodeProvisioner.PlannedNode>();
-
-        // guard against double-provisioning with a 500ms cooldown clock
-        long timeDiff = System.currentTimeMillis() - lastProvisionTime;
-        if (timeDiff < 500) {
-            LOGGER.info("[AWS Lambda Cloud]: Provision of {} skipped, still on cooldown ({}ms of 500ms)", excessWorkload,
-                timeDiff);
-            return nodesList;
+        // granted slots and their tracked agents must appear together to the reconciler
+        synchronized (LambdaCapacityAllocator.of(name)) {
+            return provision(nodesList, label, excessWorkload);
         }
+    }
 
+    private List<NodeProvisioner.PlannedNode> provision(List<NodeProvisioner.PlannedNode> nodesList, Label label,
+                                                        int excessWorkload) {
+        LambdaNodeRegistration registration = new LambdaNodeRegistration(this);
         try {
             LOGGER.debug("Asked to provision {} node(s) for: {}", excessWorkload, label);
-            final LambdaFunction function = getFunction(label);
-            // final LambdaFunction function = new LambdaFunction(this.functionName, label.getName());
+            final List<LambdaFunction> ladder = getLadder(label);
+            if (ladder.isEmpty()) {
+                return nodesList;
+            }
+            final long now = System.currentTimeMillis();
+            final int queuePosition = getQueuePosition(label);
+            if (!LambdaRightSizer.isLadder(ladder)) {
+                final LambdaFunction function = ladder.get(0);
+                addPlannedNodes(nodesList, registration, function, label, plan(function, label.getName(),
+                    excessWorkload, getQueueLength(label), queuePosition, now), now);
+                return nodesList;
+            }
+            final List<String> jobs = getQueuedJobs(label);
+            final long sinceLastProvision = now - lastProvisionTime;
+            for (Map.Entry<LambdaFunction, Integer> variant
+                : LambdaRightSizer.split(ladder, jobs, excessWorkload).entrySet()) {
+                addPlannedNodes(nodesList, registration, variant.getKey(), label, plan(variant.getKey(),
+                    label.getName(), variant.getValue(), jobs.size(), queuePosition, sinceLastProvision, now), now);
+            }
+            return nodesList;
+        } catch (Exception e) {
+            LOGGER.warn("Failed to provision Lambda node", e);
+            // the agents planned so far get registered: NodeProvisioner must count them as connecting
+            return nodesList;
+        } finally {
+            // the agents planned are accounted in flight, register them even on failure
+            registration.submit();
+        }
+    }
 
-            for (int i = 1; i <= excessWorkload; i++) {
+    /**
+     * Plans the agents granted by {@link #plan}. The slots of the agents
+     * which could not be planned are given back to the
+     * {@link LambdaCapacityAllocator}.
+     */
+    private void addPlannedNodes(List<NodeProvisioner.PlannedNode> nodesList, LambdaNodeRegistration registration,
+                                 LambdaFunction function, Label label, int nodesToProvision, long now) {
+        final int executors = function.getExecutors();
+        int added = 0;
+        String tracked = null;
+        try {
+            for (int i = 1; i <= nodesToProvision; i++) {
                 // String agentName = name + "-" + label.getName() + "-" + RandomStringUtils.random(5, "bcdfghjklmnpqrstvwxz0123456789");
                 final String suffix = RandomStringUtils.randomAlphabetic(6);
                 final String nodeName = String.format("%s.lambda-%s", label.getName(), suffix);
                 LOGGER.info("Will provision {}, for label: {}", nodeName, label);
+                LambdaAgentTracker.of(name).planned(nodeName, label.getName(), function.getFunctionName(), now);
+                tracked = nodeName;
                 nodesList.add(
                     new NodeProvisioner.PlannedNode(
                         nodeName,
-                        Computer.threadPoolForRemoting.submit(
-                            new LambdaCloudProvisioningCallback(this, function, nodeName, label.getName())
-                        ),
-                        1
+                        registration.add(function, nodeName, label.getName()),
+                        executors
                     )
                 );
+                added++;
+                tracked = null;
+            }
+        } finally {
+            if (added < nodesToProvision) {
+                LOGGER.warn("[AWS Lambda Cloud]: Only {} of {} agent(s) of {} planned, releasing the others", added,
+                    nodesToProvision, function.getFunctionName());
+                if (tracked != null) {
+                    LambdaAgentTracker.of(name).forget(tracked);
+                }
+                LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of(name);
+                for (int i = added; i < nodesToProvision; i++) {
+                    allocator.release(function.getFunctionName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Decides how many agents of a function to start for a label. Granted agents
+     * are accounted in flight by the {@link LambdaCapacityAllocator} of the cloud.
+     *
+     * This holds all of the provisioning decision but the node creation, and only
+     * depends on the given clock, so that it can be replayed by a simulation.
+     *
+     * @param function the function serving the label.
+     * @param label the name of the label.
+     * @param excessWorkload the number of executors missing for the label.
+     * @param queueLength the number of buildable items of the label.
+     * @param queuePosition the position of the first item of the label in the build queue.
+     * @param now the current time.
+     * @return the number of agents to start.
+     */
+    synchronized int plan(@Nonnull LambdaFunction function, @Nonnull String label, int excessWorkload,
+                          int queueLength, int queuePosition, long now) {
+        return plan(function, label, excessWorkload, queueLength, queuePosition, now - lastProvisionTime, now);
+    }
+
+    /**
+     * Asks the {@link LambdaProvisioningPolicy} of the cloud, scales its plan
+     * down to the load of the controller with {@link LambdaBackpressure}, then
+     * applies the hard limits: throttled regions, quotas and fair share.
+     */
+    private int plan(LambdaFunction function, String label, int excessWorkload, int queueLength, int queuePosition,
+                     long sinceLastProvision, long now) {
+        LambdaProvisioningPolicy policy = getProvisioningPolicy();
+        int wanted = policy.plan(snapshot(function, label, excessWorkload, queueLength, queuePosition,
+            sinceLastProvision, now));
+        if (wanted <= 0) {
+            LOGGER.info("[AWS Lambda Cloud]: Provision of {} skipped by the {} policy ({}ms since the last one)",
+                excessWorkload, policy.getClass().getSimpleName(), sinceLastProvision);
+            return 0;
+        }
+        int allowed = LambdaBackpressure.apply(wanted);
+        if (allowed < wanted) {
+            LOGGER.info("[AWS Lambda Cloud]: Provision of {} agent(s) of {} reduced to {}, the controller is under load",
+                wanted, function.getFunctionName(), allowed);
+            if (allowed <= 0) {
+                return 0;
+            }
+        }
+        lastProvisionTime = now;
+        LambdaFunctionState.of(this, function).demanded(now);
+        if (LambdaRegionRouter.of(name).isSaturated(getRegions(function).keySet(), now)) {
+            LOGGER.info("[AWS Lambda Cloud]: Provision of {} skipped, every region of {} is throttling",
+                excessWorkload, function.getFunctionName());
+            return 0;
+        }
+        return LambdaCapacityAllocator.of(name).allocate(label, function, allowed, queuePosition,
+            getMaxConcurrentExecutions(), now);
+    }
+
+    /**
+     * Get the executors of the agents of a label slower to connect than the
+     * p99 launch latency of their function, when the provisioning policy
+     * replaces such stragglers.
+     *
+     * @param label the label.
+     * @param now the current time.
+     * @return a number of executors, 0 when the policy does not replace stragglers.
+     */
+    int getStragglerExecutors(@Nonnull Label label, long now) {
+        if (!getProvisioningPolicy().isReplacingStragglers()) {
+            return 0;
+        }
+        int executors = 0;
+        for (LambdaFunction function : getLadder(label)) {
+            long p99 = getLaunchLatencyP99(function);
+            if (p99 <= 0) {
+                continue;
+            }
+            for (LambdaAgentTracker.Agent agent : LambdaAgentTracker.of(name).getAgents()) {
+                if (agent.label.equals(label.getName()) && agent.phase != LambdaAgentTracker.Phase.CONNECTED
+                    && agent.function.equals(function.getFunctionName()) && now - agent.planned > p99) {
+                    executors += function.getExecutors();
+                }
+            }
+        }
+        return executors;
+    }
+
+    /**
+     * Get the p99 launch latency of a function, 0 until enough launches are known.
+     */
+    private long getLaunchLatencyP99(LambdaFunction function) {
+        LambdaLatencySketch sketch = getLaunchLatency(function);
+        return sketch.getCount() >= ADAPTIVE_TIMEOUT_MIN_SAMPLES ? sketch.getQuantile(0.99) : 0;
+    }
+
+    /**
+     * Takes the state a {@link LambdaProvisioningPolicy} decides on.
+     */
+    private LambdaProvisioningPolicy.Snapshot snapshot(LambdaFunction function, String label, int excessWorkload,
+                                                       int queueLength, int queuePosition, long sinceLastProvision,
+                                                       long now) {
+        LambdaLatencySketch sketch = getLaunchLatency(function);
+        boolean known = sketch.getCount() >= ADAPTIVE_TIMEOUT_MIN_SAMPLES;
+        long p50 = known ? sketch.getQuantile(0.5) : 0;
+        long p99 = known ? sketch.getQuantile(0.99) : 0;
+        int launching = 0;
+        int stragglers = 0;
+        for (LambdaAgentTracker.Agent agent : LambdaAgentTracker.of(name).getAgents()) {
+            if (agent.function.equals(function.getFunctionName())
+                && agent.phase != LambdaAgentTracker.Phase.CONNECTED) {
+                launching++;
+                if (p99 > 0 && agent.label.equals(label) && now - agent.planned > p99) {
+                    stragglers++;
+                }
             }
-            lastProvisionTime = System.currentTimeMillis();
-            return nodesList;
-        } catch (Exception e) {
-            LOGGER.warn("Failed to provision Lambda node", e);
         }
-        return Collections.emptyList();
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of(name);
+        return new LambdaProvisioningPolicy.Snapshot(label, function, excessWorkload, queueLength, queuePosition,
+            allocator.getInFlight(function.getFunctionName()), allocator.getTotalInFlight(), launching, stragglers,
+            getMaxConcurrentExecutions(), p50, p99, sinceLastProvision, now);
     }
 
     @Extension
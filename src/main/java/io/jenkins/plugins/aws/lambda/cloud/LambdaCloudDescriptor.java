@@ -96,7 +96,7 @@ public class LambdaCloudDescriptor extends Descriptor<Cloud> {
             final List<String> functions = new ArrayList<String>();
             String lastToken = null;
             do {
-                ListFunctionsResult result = LambdaClient.buildClient(credentialsId, region)
+                ListFunctionsResult result = LambdaClient.getClient(credentialsId, region)
                     .listFunctions(new ListFunctionsRequest().withMarker(lastToken));
                 //functions.addAll(result.getFunctions().stream().map(f -> f.getFunctionArn()).collect(Collectors.toList()));
                 functions.addAll(result.getFunctions().stream().map(f -> f.getFunctionName()).collect(Collectors.toList()));
@@ -116,6 +116,29 @@ public class LambdaCloudDescriptor extends Descriptor<Cloud> {
         }
     }
 
+    public ListBoxModel doFillConnectionModeItems() {
+        final ListBoxModel options = new ListBoxModel();
+        for (LambdaConnectionMode mode : LambdaConnectionMode.values()) {
+            options.add(mode.getDisplayName(), mode.name());
+        }
+        return options;
+    }
+
+    public FormValidation doCheckDirectConnection(@QueryParameter String connectionMode, @QueryParameter String value) {
+        if (LambdaConnectionMode.fromName(connectionMode) != LambdaConnectionMode.DIRECT) {
+            return FormValidation.ok();
+        }
+        if (StringUtils.isBlank(value)) {
+            return FormValidation.error("A host:port is required in direct TCP mode");
+        }
+        int separator = value.lastIndexOf(':');
+        if (separator <= 0 || !StringUtils.isNumeric(value.substring(separator + 1))
+            || value.length() == separator + 1) {
+            return FormValidation.error("Expected host:port");
+        }
+        return FormValidation.ok();
+    }
+
     public FormValidation doCheckName(@QueryParameter String value) throws IOException, ServletException {
         if (value.length() > 0 && value.length() <= 127 && value.matches(CLOUD_NAME_PATTERN)) {
             return FormValidation.ok();
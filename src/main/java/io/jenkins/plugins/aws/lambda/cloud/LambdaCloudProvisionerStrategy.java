@@ -10,7 +10,12 @@ import hudson.slaves.Cloud;
 import hudson.slaves.CloudProvisioningListener;
 import hudson.slaves.NodeProvisioner;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
 
@@ -41,28 +46,51 @@ public class LambdaCloudProvisionerStrategy extends Strategy {
     private static final boolean DISABLED_STRATEGY = Boolean.valueOf(
         System.getProperty("io.jenkins.plugins.aws.lambda.cloud.lambdaCloudProvisionerStrategy.disable"));
 
+    /**
+     * Agents started outside of the provisioner, by label name, until the next
+     * review of their label records them as pending launches.
+     */
+    private static final ConcurrentMap<String, ConcurrentLinkedQueue<NodeProvisioner.PlannedNode>> HANDED_OFF =
+        new ConcurrentHashMap<String, ConcurrentLinkedQueue<NodeProvisioner.PlannedNode>>();
+
     /**
      * Takes a provisioning decision for a single label. Determines how many ECS tasks to start based solely on
      * queue length and how many agents are in the process of connecting.
+     *
+     * Labels no Lambda function serves are passed on at once, without
+     * walking the clouds: this runs for every label on every provisioner tick.
      */
     @Nonnull
     @Override
     public StrategyDecision apply(@Nonnull NodeProvisioner.StrategyState state) {
         LOGGER.debug( "[AWS Lambda Cloud]: LambdaCloudProvisionerStrategy received {}", state);
+        Label label = state.getLabel();
+        int handedOff = recordHandedOff(state, label);
         if (DISABLED_STRATEGY) {
             LOGGER.info("Provisioning not complete, LambdaCloudProvisionerStrategy is disabled");
             return CONSULT_REMAINING_STRATEGIES;
         }
 
-        LoadStatistics.LoadStatisticsSnapshot snap = state.getSnapshot();
-        Label label = state.getLabel();
+        LambdaLabelIndex index = LambdaLabelIndex.get();
+        Cloud[] clouds = index.getClouds(label, Jenkins.getActiveInstance().clouds);
+        if (clouds.length == 0) {
+            return CONSULT_REMAINING_STRATEGIES;
+        }
 
-        int excessWorkload = snap.getQueueLength() - snap.getAvailableExecutors() - snap.getConnectingExecutors();
+        LoadStatistics.LoadStatisticsSnapshot snap = state.getSnapshot();
+        int excessWorkload = getExcessWorkload(snap.getQueueLength(), snap.getAvailableExecutors(),
+            snap.getConnectingExecutors()) - handedOff;
+        long now = System.currentTimeMillis();
 
         CLOUD:
-        for (Cloud c : Jenkins.getActiveInstance().clouds) {
-            if (excessWorkload <= 0) {
-                break;  // enough agents allocated
+        for (Cloud c : clouds) {
+            int cloudExcess = excessWorkload;
+            if (c instanceof LambdaCloud && label != null) {
+                cloudExcess = withStragglers(excessWorkload, snap.getQueueLength(),
+                    ((LambdaCloud) c).getStragglerExecutors(label, now));
+            }
+            if (cloudExcess <= 0) {
+                continue;  // enough agents allocated
             }
 
             // Make sure this cloud actually can provision for this label.
@@ -70,18 +98,19 @@ public class LambdaCloudProvisionerStrategy extends Strategy {
                 continue;
             }
 
-            for (CloudProvisioningListener cl : CloudProvisioningListener.all()) {
-                CauseOfBlockage causeOfBlockage = cl.canProvision(c, label, excessWorkload);
+            for (CloudProvisioningListener cl : index.getListeners()) {
+                CauseOfBlockage causeOfBlockage = cl.canProvision(c, label, cloudExcess);
                 if (causeOfBlockage != null) {
                     continue CLOUD;
                 }
             }
 
-            Collection<NodeProvisioner.PlannedNode> additionalCapacities = c.provision(label, excessWorkload);
+            Collection<NodeProvisioner.PlannedNode> additionalCapacities = c.provision(label, cloudExcess);
 
             // compat with what the default NodeProvisioner.Strategy does
             fireOnStarted(c, label, additionalCapacities);
 
+            // a planned Lambda node carries the executors of its function, not necessarily 1
             for (NodeProvisioner.PlannedNode ac : additionalCapacities) {
                 excessWorkload -= ac.numExecutors;
                 LOGGER.debug( "Started provisioning {} from {} with {} "
@@ -94,9 +123,90 @@ public class LambdaCloudProvisionerStrategy extends Strategy {
         return excessWorkload > 0 ? CONSULT_REMAINING_STRATEGIES : PROVISIONING_COMPLETED;
     }
 
+    /**
+     * Hands agents started outside of the provisioner, e.g. by the
+     * <code>lambdaShard</code> step, over to the next review of their label,
+     * so that the provisioner counts them as on their way instead of
+     * starting more.
+     *
+     * @param label the label of the agents.
+     * @param plannedNodes the agents.
+     */
+    static void handOff(@Nonnull Label label, @Nonnull Collection<NodeProvisioner.PlannedNode> plannedNodes) {
+        if (plannedNodes.isEmpty()) {
+            return;
+        }
+        ConcurrentLinkedQueue<NodeProvisioner.PlannedNode> queue = HANDED_OFF.get(label.getName());
+        if (queue == null) {
+            queue = new ConcurrentLinkedQueue<NodeProvisioner.PlannedNode>();
+            ConcurrentLinkedQueue<NodeProvisioner.PlannedNode> existing =
+                HANDED_OFF.putIfAbsent(label.getName(), queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+        queue.addAll(plannedNodes);
+        label.nodeProvisioner.suggestReviewNow();
+    }
+
+    /**
+     * Records the agents handed over for a label as pending launches.
+     *
+     * @return the executors of the agents.
+     */
+    private static int recordHandedOff(NodeProvisioner.StrategyState state, Label label) {
+        if (label == null) {
+            return 0;
+        }
+        ConcurrentLinkedQueue<NodeProvisioner.PlannedNode> queue = HANDED_OFF.get(label.getName());
+        if (queue == null) {
+            return 0;
+        }
+        List<NodeProvisioner.PlannedNode> taken = new ArrayList<NodeProvisioner.PlannedNode>();
+        int executors = 0;
+        for (NodeProvisioner.PlannedNode plannedNode = queue.poll(); plannedNode != null;
+             plannedNode = queue.poll()) {
+            taken.add(plannedNode);
+            executors += plannedNode.numExecutors;
+        }
+        if (!taken.isEmpty()) {
+            state.recordPendingLaunches(taken);
+        }
+        return executors;
+    }
+
+    /**
+     * Get the number of executors missing for a label: queued items not covered
+     * by idle executors nor by executors on their way.
+     *
+     * @param queueLength the number of items waiting for the label.
+     * @param availableExecutors the number of idle executors of the label.
+     * @param connectingExecutors the number of executors being launched for the label.
+     * @return the excess workload, possibly negative.
+     */
+    static int getExcessWorkload(int queueLength, int availableExecutors, int connectingExecutors) {
+        return queueLength - availableExecutors - connectingExecutors;
+    }
+
+    /**
+     * Get the excess workload of a label for a cloud replacing its stragglers:
+     * their executors count as missing, up to the queue length.
+     *
+     * @param excessWorkload the excess workload of the label.
+     * @param queueLength the number of items waiting for the label.
+     * @param stragglerExecutors the executors of the stragglers of the cloud.
+     * @return the excess workload, possibly negative.
+     */
+    static int withStragglers(int excessWorkload, int queueLength, int stragglerExecutors) {
+        if (stragglerExecutors <= 0) {
+            return excessWorkload;
+        }
+        return Math.max(excessWorkload, Math.min(queueLength, excessWorkload + stragglerExecutors));
+    }
+
     private static void fireOnStarted(final Cloud cloud, final Label label,
                                       final Collection<NodeProvisioner.PlannedNode> plannedNodes) {
-        for (CloudProvisioningListener cl : CloudProvisioningListener.all()) {
+        for (CloudProvisioningListener cl : LambdaLabelIndex.get().getListeners()) {
             try {
                 cl.onStarted(cloud, label, plannedNodes);
             } catch (Error e) {
@@ -124,7 +234,7 @@ public class LambdaCloudProvisionerStrategy extends Strategy {
             LOGGER.debug("LambdaProvisioningQueueListener - onEnterBuildable");
             final Jenkins jenkins = Jenkins.getActiveInstance();
             final Label label = item.getAssignedLabel();
-            for (Cloud cloud : jenkins.clouds) {
+            for (Cloud cloud : LambdaLabelIndex.get().getClouds(label, jenkins.clouds)) {
                 LOGGER.debug("LambdaProvisioningQueueListener - cloud : " + cloud.getDisplayName() + " - label : " + label);
                 if (cloud instanceof LambdaCloud && cloud.canProvision(label)) {
                     LOGGER.debug("LambdaProvisioningQueueListener - cloud can provision label " + label);
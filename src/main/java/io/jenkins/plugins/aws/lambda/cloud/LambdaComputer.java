@@ -3,8 +3,16 @@ package io.jenkins.plugins.aws.lambda.cloud;
 import hudson.model.Executor;
 import hudson.model.Node;
 import hudson.model.Queue;
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.AbstractCloudComputer;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import jenkins.model.Jenkins;
@@ -20,9 +28,49 @@ public class LambdaComputer extends AbstractCloudComputer<LambdaNode> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LambdaComputer.class);
 
+    /**
+     * Time kept for the agent to shut down before the function times out.
+     */
+    static final long SHUTDOWN_MARGIN = TimeUnit.MINUTES.toMillis(1);
+
     @Nonnull
     private final LambdaCloud cloud;
 
+    /**
+     * Region the agent was invoked in.
+     */
+    private volatile String region;
+
+    private volatile boolean launched;
+
+    /**
+     * When the function was invoked, 0 if unknown.
+     */
+    private volatile long invoked;
+
+    /**
+     * Longest task run on this agent, in ms.
+     */
+    private volatile long longestTask;
+
+    /**
+     * Name of the function of this agent, whose concurrency it holds.
+     */
+    @CheckForNull
+    private final String functionName;
+
+    /**
+     * Function of this agent when it has a memory size, hence may be a variant
+     * of its label.
+     */
+    @CheckForNull
+    private final LambdaFunction sizedFunction;
+
+    /**
+     * Jobs of the tasks running on this agent, for {@link LambdaRightSizer}.
+     */
+    private final List<String> running = new ArrayList<String>();
+
     /**
     * Constructor for LambdaComputer.
     *
@@ -31,12 +79,22 @@ public class LambdaComputer extends AbstractCloudComputer<LambdaNode> {
     public LambdaComputer(LambdaNode node) {
         super(node);
         this.cloud = node.getCloud();
+        LambdaFunction function = node.getLauncher() instanceof LambdaComputerLauncher
+            ? ((LambdaComputerLauncher) node.getLauncher()).getFunction() : null;
+        this.functionName = function != null ? function.getFunctionName() : null;
+        this.sizedFunction = function != null && function.getMemorySize() > 0 ? function : null;
     }
 
     /** {@inheritDoc} */
     @Override
     public void taskAccepted(Executor executor, Queue.Task task) {
         super.taskAccepted(executor, task);
+        if (sizedFunction != null) {
+            synchronized (running) {
+                running.add(LambdaRightSizer.key(task));
+            }
+            watchMemory(executor);
+        }
         LOGGER.info("[AWS Lambda Cloud]: [{}]: Task in job '{}' accepted", this, task.getFullDisplayName());
         LOGGER.debug("[AWS Lambda Cloud]: [{}] -  online : {} - isAcceptingTasks : {}", this, this.isOnline(), this.isAcceptingTasks());
     }
@@ -46,7 +104,9 @@ public class LambdaComputer extends AbstractCloudComputer<LambdaNode> {
     public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
         super.taskCompleted(executor, task, durationMS);
         LOGGER.debug("[AWS Lambda Cloud]: [{}]: Task in job '{}' completed in {}ms", this, task.getFullDisplayName(), durationMS);
-        gracefulShutdown();
+        recordPreloadUsage(task);
+        recordSizing(executor, task, durationMS);
+        drain(executor, durationMS, System.currentTimeMillis());
     }
 
     /** {@inheritDoc} */
@@ -55,7 +115,75 @@ public class LambdaComputer extends AbstractCloudComputer<LambdaNode> {
         super.taskCompletedWithProblems(executor, task, durationMS, problems);
         LOGGER.error("[AWS Lambda Cloud]: [{}]: Task in job '{}' completed with problems in {}ms", this,
             task.getFullDisplayName(), durationMS, problems);
-        gracefulShutdown();
+        LambdaFunction function = sizedFunction;
+        if (function != null && isRunning(task)) {
+            LambdaRightSizer.lost(LambdaRightSizer.key(task), function.getFunctionName());
+        }
+        drain(executor, durationMS, System.currentTimeMillis());
+    }
+
+    @Nonnull
+    public String getCloudName() {
+        return cloud.name;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    void setRegion(String region) {
+        this.region = region;
+    }
+
+    boolean isLaunched() {
+        return launched;
+    }
+
+    void setLaunched(boolean launched) {
+        this.launched = launched;
+    }
+
+    void setInvoked(long invoked) {
+        this.invoked = invoked;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isLaunchSupported() {
+        return !launched;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void onRemoved() {
+        super.onRemoved();
+        LambdaFunction function = sizedFunction;
+        if (function != null) {
+            synchronized (running) {
+                // tasks still running went down with their agent
+                for (String job : running) {
+                    LambdaRightSizer.lost(job, function.getFunctionName());
+                }
+                running.clear();
+            }
+        }
+        LambdaAgentTracker tracker = LambdaAgentTracker.of(cloud.name);
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of(cloud.name);
+        synchronized (allocator) {
+            if (!tracker.removed(getName()) || functionName == null) {
+                // unknown or already reconciled agent, its slots are not counted
+                return;
+            }
+            if (tracker.isOrphan(getName())) {
+                // the invocation may still run and hold its concurrency
+                allocator.orphaned(functionName);
+            } else {
+                allocator.release(functionName);
+            }
+        }
+        if (region != null) {
+            LambdaRegionRouter.of(cloud.name).released(region);
+        }
     }
 
     /** {@inheritDoc} */
@@ -64,6 +192,138 @@ public class LambdaComputer extends AbstractCloudComputer<LambdaNode> {
         return String.format("name: %s", getName());
     }
 
+    private void recordPreloadUsage(Queue.Task task) {
+        LambdaNode node = getNode();
+        if (node != null && node.getLauncher() instanceof LambdaComputerLauncher
+            && ((LambdaComputerLauncher) node.getLauncher()).getFunction().isPreloadClasses()) {
+            LambdaPreloadBundle.forLabel(node.getLabelString()).record(task);
+        }
+    }
+
+    private boolean isRunning(Queue.Task task) {
+        synchronized (running) {
+            return running.remove(LambdaRightSizer.key(task));
+        }
+    }
+
+    /**
+     * Starts watching the peak memory of the task an executor starts. The agent
+     * is not waited for: a failure is logged in the background, and the task is
+     * then recorded without its peak memory.
+     */
+    private void watchMemory(Executor executor) {
+        VirtualChannel channel = getChannel();
+        if (channel == null) {
+            return;
+        }
+        final Future<Long> watch;
+        try {
+            watch = channel.callAsync(new LambdaRightSizer.PeakMemory(executor.getNumber(), true));
+        } catch (IOException e) {
+            LOGGER.debug("[AWS Lambda Cloud]: [{}]: Cannot watch the peak memory: {}", this, e.toString());
+            return;
+        }
+        threadPoolForRemoting.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    watch.get(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    LOGGER.warn("[AWS Lambda Cloud]: [{}]: Cannot watch the peak memory: {}", LambdaComputer.this,
+                        e.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the duration and peak memory of a task for the right-sizing of
+     * its job. The peak memory is read from the agent in the background, so
+     * that the executor is not held meanwhile.
+     */
+    private void recordSizing(Executor executor, Queue.Task task, final long durationMS) {
+        final LambdaFunction function = sizedFunction;
+        if (function == null || !isRunning(task)) {
+            return;
+        }
+        final String key = LambdaRightSizer.key(task);
+        VirtualChannel channel = getChannel();
+        if (channel == null) {
+            LambdaRightSizer.completed(key, function.getFunctionName(), durationMS, 0);
+            return;
+        }
+        final Future<Long> peak;
+        try {
+            peak = channel.callAsync(new LambdaRightSizer.PeakMemory(executor.getNumber(), false));
+        } catch (IOException e) {
+            LOGGER.debug("[AWS Lambda Cloud]: [{}]: Cannot read the peak memory: {}", this, e.toString());
+            LambdaRightSizer.completed(key, function.getFunctionName(), durationMS, 0);
+            return;
+        }
+        threadPoolForRemoting.submit(new Runnable() {
+            @Override
+            public void run() {
+                long peakMemoryMb = 0;
+                try {
+                    peakMemoryMb = peak.get(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    LOGGER.debug("[AWS Lambda Cloud]: [{}]: Cannot read the peak memory: {}", LambdaComputer.this,
+                        e.toString());
+                }
+                LambdaRightSizer.completed(key, function.getFunctionName(), durationMS, peakMemoryMb);
+            }
+        });
+    }
+
+    /**
+     * Keeps an agent with several executors serving the queue while its
+     * function has time left for another task as long as the longest it ran,
+     * idle agents being removed by the retention strategy of the cloud.
+     * Otherwise, and always for a single executor, stops accepting tasks and
+     * terminates the agent once no other executor is busy, which keeps it
+     * within the AWS Lambda time limit.
+     */
+    private void drain(Executor completed, long durationMS, long now) {
+        longestTask = Math.max(longestTask, durationMS);
+        LambdaNode node = getNode();
+        if (node != null && node.getNumExecutors() > 1 && isAcceptingTasks()
+            && hasTimeFor(now - invoked, longestTask, getTimeLimit(node))) {
+            LOGGER.debug("[AWS Lambda Cloud]: [{}]: Still accepting tasks, {}s since invocation", this,
+                TimeUnit.MILLISECONDS.toSeconds(now - invoked));
+            return;
+        }
+        setAcceptingTasks(false);
+        for (Executor e : getExecutors()) {
+            if (e != completed && e.isBusy()) {
+                LOGGER.debug("[AWS Lambda Cloud]: [{}]: Draining, executor {} is still busy", this, e.getNumber());
+                return;
+            }
+        }
+        gracefulShutdown();
+    }
+
+    private long getTimeLimit(LambdaNode node) {
+        if (node.getLauncher() instanceof LambdaComputerLauncher) {
+            return LambdaAgentTracker.of(cloud.name).getTimeLimit(
+                ((LambdaComputerLauncher) node.getLauncher()).getFunction().getFunctionName());
+        }
+        return LambdaAgentTracker.ORPHAN_TTL;
+    }
+
+    /**
+     * Whether an invocation has time left for one more task.
+     *
+     * @param elapsedMs the time since the invocation, as large as the limit when unknown.
+     * @param expectedMs the expected duration of a task.
+     * @param limitMs the timeout of the function.
+     * @return true if the task and the shutdown of the agent fit before the timeout.
+     */
+    static boolean hasTimeFor(long elapsedMs, long expectedMs, long limitMs) {
+        return elapsedMs >= 0 && elapsedMs + expectedMs + SHUTDOWN_MARGIN <= limitMs;
+    }
+
     private void gracefulShutdown() {
         setAcceptingTasks(false);
 
@@ -1,14 +1,19 @@
 package io.jenkins.plugins.aws.lambda.cloud;
 
+import com.amazonaws.services.lambda.AWSLambda;
 import com.amazonaws.services.lambda.model.InvocationType;
 import com.amazonaws.services.lambda.model.InvokeRequest;
 import com.amazonaws.services.lambda.model.InvokeResult;
 import com.amazonaws.services.lambda.model.LogType;
+import com.amazonaws.services.lambda.model.TooManyRequestsException;
 
 import com.google.common.base.Throwables;
+import hudson.model.Computer;
 import hudson.model.Node;
 import hudson.model.Slave;
 import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.JNLPLauncher;
 import hudson.slaves.SlaveComputer;
 
@@ -16,6 +21,12 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nonnull;
 
@@ -32,16 +43,20 @@ public class LambdaComputerLauncher extends JNLPLauncher {
 
     private static final int sleepMs = 500;
 
+    /**
+     * Longest time the agent waits for its preload bundle before accepting tasks.
+     */
+    private static final long PRELOAD_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
     private static final Logger LOGGER = LoggerFactory.getLogger(LambdaComputerLauncher.class);
 
     private final LambdaCloud cloud;
 
     private final LambdaFunction function;
 
-    private boolean launched;
-
     /**
-     * Constructor for LambdaComputerLauncher.
+     * Constructor for LambdaComputerLauncher. Launchers are immutable and shared
+     * by all the agents of a function, see {@link LambdaFunction#getLauncher(LambdaCloud)}.
      *
      * @param cloud a {@link LambdaCloud} object.
      * @param function lambda function to launch
@@ -52,21 +67,39 @@ public class LambdaComputerLauncher extends JNLPLauncher {
         this.function = function;
     }
 
-    /** {@inheritDoc} */
+    /**
+     * Get the function launched by this launcher.
+     *
+     * @return a {@link LambdaFunction} object.
+     */
+    public LambdaFunction getFunction() {
+        return function;
+    }
+
+    LambdaCloud getCloud() {
+        return cloud;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Whether a given agent was already launched is up to its {@link LambdaComputer}.
+     */
     @Override
     public boolean isLaunchSupported() {
-        return !launched;
+        return true;
     }
 
     /** {@inheritDoc} */
     @Override
     public void launch(@Nonnull SlaveComputer computer, @Nonnull TaskListener listener) {
-        this.launched = false;
         if (!(computer instanceof LambdaComputer)) {
             LOGGER.error("[AWS Lambda Cloud]: Not launching {} since it is not the correct type ({})", computer,
             LambdaComputer.class.getName());
             return;
         }
+        LambdaComputer lambdaComputer = (LambdaComputer) computer;
+        lambdaComputer.setLaunched(false);
 
         Node node = computer.getNode();
         if (node == null) {
@@ -76,9 +109,9 @@ public class LambdaComputerLauncher extends JNLPLauncher {
 
         LOGGER.debug("[AWS Lambda Cloud]: Is computer accepting tasks ? {}", computer.isAcceptingTasks());
         LOGGER.debug("[AWS Lambda Cloud]: Is node accepting tasks ? {}", node.isAcceptingTasks());
-        LOGGER.debug("[AWS Lambda Cloud]: already launched ? {}", launched);
+        LOGGER.debug("[AWS Lambda Cloud]: already launched ? {}", lambdaComputer.isLaunched());
 
-        if (launched) {
+        if (lambdaComputer.isLaunched()) {
             LOGGER.info("[{}]: Agent has already been launched, activating", node.getNodeName());
             computer.setAcceptingTasks(true);
             return;
@@ -93,7 +126,11 @@ public class LambdaComputerLauncher extends JNLPLauncher {
             .withInvocationType(InvocationType.Event);
 
         try {
-            InvokeResult result = cloud.getClient().invoke(request);
+            long invokeStart = System.currentTimeMillis();
+            InvokeResult result = invoke(lambdaComputer, request);
+            long invoked = System.currentTimeMillis();
+            LambdaAgentTracker.of(cloud.name).invoked(node.getNodeName(), invoked);
+            lambdaComputer.setInvoked(invokeStart);
             LOGGER.debug("[AWS Lambda Cloud]: Launcher - Invocation status: {}", result.getStatusCode());
             // status codes
             // 200 : successful synchronous invocation
@@ -102,7 +139,7 @@ public class LambdaComputerLauncher extends JNLPLauncher {
             if (result.getFunctionError() != null) {
                 throw new RuntimeException("[AWS Lambda Cloud] : Invoke lambda failed ! " + this.getPayloadAsString(result));
             }
-            long timeout = System.currentTimeMillis() + Duration.ofSeconds(cloud.getAgentTimeout()).toMillis();
+            long timeout = invokeStart + Duration.ofSeconds(cloud.getAgentTimeout(function)).toMillis();
             // now wait for agent to be online
             while (System.currentTimeMillis() < timeout) {
                 SlaveComputer agentComputer = ((Slave) node).getComputer();
@@ -121,21 +158,29 @@ public class LambdaComputerLauncher extends JNLPLauncher {
             }
 
             if (!agentComputer.isOnline()) {
+                // censored at the deadline, so that repeated timeouts raise the adaptive timeout
+                cloud.getLaunchLatency(function).add(timeout - invokeStart);
+                LambdaAgentTracker.of(cloud.name).timedOut(node.getNodeName(), timeout - invokeStart);
                 throw new IllegalStateException("Node is not connected");
             }
 
-            LOGGER.info("[{}]: Node connected", node.getNodeName());
-            computer.setAcceptingTasks(true);
-            launched = true;
-            try {
-                // We need to persist the "launched" setting...
-                node.save();
-            } catch (IOException e) {
-                LOGGER.warn("Could not save() agent: " + e.getMessage(), e);
+            long now = System.currentTimeMillis();
+            long connectMs = now - invoked;
+            LambdaAgentTracker.of(cloud.name).connected(node.getNodeName(), now, now - invokeStart);
+            cloud.getLaunchLatency(function).add(now - invokeStart);
+            LambdaConnectStatistics stats = LambdaConnectStatistics.record(cloud.name, cloud.getConnectionMode(),
+                connectMs);
+            LOGGER.info("[{}]: Node connected (invoke: {}ms, connect: {}ms) - {}", node.getNodeName(),
+                invoked - invokeStart, connectMs, stats);
+            if (function.isPreloadClasses()) {
+                preload(node, agentComputer);
             }
+            computer.setAcceptingTasks(true);
+            lambdaComputer.setLaunched(true);
         } catch (Exception e) {
             LOGGER.error("[AWS Lambda Cloud]: Exception while starting : {}", e.getMessage(), e);
             listener.fatalError("Exception while starting : %s", e.getMessage());
+            LambdaAgentTracker.of(cloud.name).failed(node.getNodeName());
 
             if (node instanceof LambdaNode) {
                 try {
@@ -160,15 +205,78 @@ public class LambdaComputerLauncher extends JNLPLauncher {
         }
     }
 
+    /**
+     * Invokes the function in the preferred region, spilling over to the next
+     * regions while invocations are throttled.
+     */
+    private InvokeResult invoke(@Nonnull LambdaComputer computer, @Nonnull InvokeRequest request) {
+        LambdaRegionRouter router = LambdaRegionRouter.of(cloud.name);
+        Map<String, Integer> regions = cloud.getRegions(function);
+        TooManyRequestsException throttled = null;
+        for (String region : router.rank(regions, function.isWeightedRegions(), System.currentTimeMillis())) {
+            AWSLambda client = cloud.getClient(region);
+            if (client == null) {
+                continue;
+            }
+            long start = System.currentTimeMillis();
+            try {
+                InvokeResult result = client.invoke(request);
+                router.invoked(region, System.currentTimeMillis() - start);
+                computer.setRegion(region);
+                return result;
+            } catch (TooManyRequestsException e) {
+                LOGGER.info("[AWS Lambda Cloud]: [{}]: Invocation throttled in {}: {}", computer.getName(), region,
+                    e.getMessage());
+                router.throttled(region, System.currentTimeMillis());
+                throttled = e;
+            }
+        }
+        if (throttled != null) {
+            throw throttled;
+        }
+        throw new IllegalStateException("No AWS Lambda client available in " + regions.keySet());
+    }
+
+    /**
+     * Pushes the preload bundle of the node label before the agent accepts tasks,
+     * so that the first build step finds the jars in the agent cache. The agent
+     * waits at most {@link #PRELOAD_TIMEOUT}: a slower push carries on meanwhile.
+     * Failures are not fatal: classes are then loaded on demand.
+     */
+    private void preload(@Nonnull Node node, @Nonnull SlaveComputer agentComputer) throws InterruptedException {
+        final VirtualChannel channel = agentComputer.getChannel();
+        if (!(channel instanceof Channel)) {
+            return;
+        }
+        final LambdaPreloadBundle bundle = LambdaPreloadBundle.forLabel(node.getLabelString());
+        String version = bundle.getVersion();
+        long start = System.currentTimeMillis();
+        Future<Integer> push = Computer.threadPoolForRemoting.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException, InterruptedException {
+                return bundle.push((Channel) channel);
+            }
+        });
+        try {
+            int fetched = push.get(PRELOAD_TIMEOUT, TimeUnit.MILLISECONDS);
+            LOGGER.info("[{}]: Preload bundle {} pushed in {}ms ({} class loader(s) fetched jars)",
+                node.getNodeName(), version, System.currentTimeMillis() - start, fetched);
+        } catch (TimeoutException e) {
+            LOGGER.warn("[{}]: Preload bundle {} still pushing after {}ms, accepting tasks meanwhile",
+                node.getNodeName(), version, PRELOAD_TIMEOUT);
+        } catch (ExecutionException e) {
+            LOGGER.warn("[{}]: Failed to push preload bundle {}: {}", node.getNodeName(), version,
+                e.getCause().getMessage());
+        }
+    }
+
     private String buildPayload(@Nonnull SlaveComputer computer) {
         String displayName = "";
         Node node = computer.getNode();
         if(node != null) {
             displayName = node.getDisplayName();
         }
-        // TODO: use an object and JSON serialization
-        String payload = String.format("{\"url\": \"%s\", \"node_secret\": \"%s\", \"node_name\": \"%s\"}", cloud.getJenkinsUrl(), computer.getJnlpMac(), displayName);
-        return payload;
+        return function.getPayloadTemplate(cloud).render(computer.getJnlpMac(), displayName);
     }
 
     private String getPayloadAsString(InvokeResult result) {
@@ -0,0 +1,127 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Connect-phase latency of Lambda agents, per cloud and {@link LambdaConnectionMode}.
+ *
+ * The connect phase starts when the invocation has been accepted by AWS Lambda
+ * and ends when the agent channel is online.
+ */
+public final class LambdaConnectStatistics {
+
+    private static final ConcurrentMap<String, LambdaConnectStatistics> STATISTICS =
+        new ConcurrentHashMap<String, LambdaConnectStatistics>();
+
+    private final String cloudName;
+
+    private final LambdaConnectionMode mode;
+
+    private long count;
+
+    private long totalMs;
+
+    private long minMs = Long.MAX_VALUE;
+
+    private long maxMs;
+
+    private long lastMs;
+
+    private final LambdaLatencySketch sketch = new LambdaLatencySketch();
+
+    private LambdaConnectStatistics(String cloudName, LambdaConnectionMode mode) {
+        this.cloudName = cloudName;
+        this.mode = mode;
+    }
+
+    /**
+     * Get the statistics of the agents of a cloud connecting in a mode.
+     *
+     * @param cloudName the name of the cloud.
+     * @param mode the connection mode.
+     * @return a {@link LambdaConnectStatistics} object.
+     */
+    @Nonnull
+    public static LambdaConnectStatistics get(@Nonnull String cloudName, @Nonnull LambdaConnectionMode mode) {
+        String key = cloudName + "/" + mode.name();
+        LambdaConnectStatistics stats = STATISTICS.get(key);
+        if (stats == null) {
+            LambdaConnectStatistics created = new LambdaConnectStatistics(cloudName, mode);
+            stats = STATISTICS.putIfAbsent(key, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Records the connect-phase duration of an agent.
+     *
+     * @param cloudName the name of the cloud of the agent.
+     * @param mode the connection mode used by the agent.
+     * @param connectMs the connect-phase duration in milliseconds.
+     * @return the updated statistics.
+     */
+    @Nonnull
+    public static LambdaConnectStatistics record(@Nonnull String cloudName, @Nonnull LambdaConnectionMode mode,
+                                                 long connectMs) {
+        LambdaConnectStatistics stats = get(cloudName, mode);
+        stats.add(connectMs);
+        return stats;
+    }
+
+    private synchronized void add(long connectMs) {
+        count++;
+        totalMs += connectMs;
+        minMs = Math.min(minMs, connectMs);
+        maxMs = Math.max(maxMs, connectMs);
+        lastMs = connectMs;
+        sketch.add(connectMs);
+    }
+
+    @Nonnull
+    public String getCloudName() {
+        return cloudName;
+    }
+
+    @Nonnull
+    public LambdaConnectionMode getMode() {
+        return mode;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMeanMs() {
+        return count == 0 ? 0 : totalMs / count;
+    }
+
+    public synchronized long getMinMs() {
+        return count == 0 ? 0 : minMs;
+    }
+
+    public synchronized long getMaxMs() {
+        return maxMs;
+    }
+
+    public synchronized long getLastMs() {
+        return lastMs;
+    }
+
+    public long getQuantileMs(double quantile) {
+        return sketch.getQuantile(quantile);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d connection(s), last %dms, mean %dms, min %dms, max %dms, p50 %dms, p99 %dms",
+            mode.getPayloadValue(), count, lastMs, getMeanMs(), getMinMs(), maxMs, getQuantileMs(0.5),
+            getQuantileMs(0.99));
+    }
+}
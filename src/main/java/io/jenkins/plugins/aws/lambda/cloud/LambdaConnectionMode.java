@@ -0,0 +1,60 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * How Lambda agents connect back to Jenkins.
+ *
+ * The mode is sent as <code>connection_mode</code> in the invocation payload so
+ * agents can open their channel without the JNLP discovery round trip when the
+ * endpoint is already known.
+ */
+public enum LambdaConnectionMode {
+
+    /**
+     * Classic inbound TCP agent: discovers the agent port from the Jenkins URL first.
+     */
+    JNLP("jnlp", "Inbound TCP (JNLP discovery)"),
+
+    /**
+     * Remoting over a WebSocket on the Jenkins URL, no TCP agent port involved.
+     */
+    WEBSOCKET("websocket", "WebSocket"),
+
+    /**
+     * Inbound TCP agent connecting straight to a pre-resolved host:port.
+     */
+    DIRECT("direct", "Direct TCP");
+
+    private final String payloadValue;
+
+    private final String displayName;
+
+    LambdaConnectionMode(String payloadValue, String displayName) {
+        this.payloadValue = payloadValue;
+        this.displayName = displayName;
+    }
+
+    @Nonnull
+    public String getPayloadValue() {
+        return payloadValue;
+    }
+
+    @Nonnull
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    @Nonnull
+    public static LambdaConnectionMode fromName(@CheckForNull String name) {
+        if (name != null) {
+            for (LambdaConnectionMode mode : values()) {
+                if (mode.name().equals(name)) {
+                    return mode;
+                }
+            }
+        }
+        return JNLP;
+    }
+}
@@ -0,0 +1,330 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.handlers.RequestHandler2;
+
+import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
+import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Credentials of the AWS clients of the plugin, one shared provider per
+ * Jenkins credentials id.
+ *
+ * The AWS SDK asks its credentials provider for credentials on every request,
+ * and Jenkins AWS credentials with an IAM role answer with a new STS
+ * <code>AssumeRole</code> session each time. This provider resolves such a
+ * session once and keeps it, then refreshes it in the background before it
+ * expires, so that invocations and listings never wait on STS after the first
+ * one. Saving the Jenkins credentials refreshes every provider, and the
+ * clients keep using the previous session until the new one is resolved; a
+ * request rejected for an expired token makes the next one resolve a new
+ * session.
+ *
+ * Nothing else is cached: Jenkins credentials without role are plain keys,
+ * and without Jenkins credentials the default AWS credentials chain is asked
+ * on each request, as it refreshes instance profile and container
+ * credentials itself.
+ */
+class LambdaCredentialsProvider implements AWSCredentialsProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaCredentialsProvider.class);
+
+    /**
+     * Lifetime of the STS sessions of the AWS credentials plugin.
+     */
+    static final long SESSION_LIFETIME = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Age at which credentials are refreshed, leaving time to retry before the
+     * session expires.
+     */
+    static final long REFRESH_AGE = TimeUnit.MINUTES.toMillis(45);
+
+    /**
+     * Delay before retrying a failed refresh.
+     */
+    static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ConcurrentMap<String, LambdaCredentialsProvider> PROVIDERS =
+        new ConcurrentHashMap<String, LambdaCredentialsProvider>();
+
+    @Nonnull
+    private final String credentialsId;
+
+    @CheckForNull
+    private volatile AWSCredentials credentials;
+
+    /**
+     * When the credentials were resolved.
+     */
+    private volatile long resolved;
+
+    /**
+     * When the next background refresh is due.
+     */
+    private volatile long refreshAt;
+
+    private volatile long lastUsed;
+
+    /**
+     * Whether the credentials are not an <code>AssumeRole</code> session,
+     * and are resolved on each request.
+     */
+    private volatile boolean direct;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    LambdaCredentialsProvider(@Nonnull String credentialsId) {
+        this.credentialsId = credentialsId;
+    }
+
+    /**
+     * Get the provider of a credentials id.
+     *
+     * @param credentialsId the Jenkins credentials id, blank for the default AWS credentials.
+     * @return the shared {@link LambdaCredentialsProvider}.
+     */
+    @Nonnull
+    static LambdaCredentialsProvider of(@CheckForNull String credentialsId) {
+        String id = StringUtils.defaultString(credentialsId);
+        LambdaCredentialsProvider provider = PROVIDERS.get(id);
+        if (provider == null) {
+            provider = new LambdaCredentialsProvider(id);
+            LambdaCredentialsProvider existing = PROVIDERS.putIfAbsent(id, provider);
+            if (existing != null) {
+                provider = existing;
+            }
+        }
+        return provider;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public AWSCredentials getCredentials() {
+        return getCredentials(System.currentTimeMillis());
+    }
+
+    AWSCredentials getCredentials(long now) {
+        lastUsed = now;
+        if (direct) {
+            return resolveDirect();
+        }
+        AWSCredentials current = credentials;
+        if (current == null || now - resolved >= SESSION_LIFETIME) {
+            // first use, a session left to expire while nobody used it, or an expired token
+            synchronized (this) {
+                current = credentials;
+                if (current == null || now - resolved >= SESSION_LIFETIME) {
+                    current = load(now);
+                }
+            }
+        } else if (now >= refreshAt) {
+            refreshLater();
+        }
+        return current;
+    }
+
+    /**
+     * Resolves the credentials now.
+     */
+    @Override
+    public synchronized void refresh() {
+        load(System.currentTimeMillis());
+    }
+
+    /**
+     * Resolves the credentials, keeping and scheduling the refresh of an
+     * <code>AssumeRole</code> session only.
+     */
+    private AWSCredentials load(long now) {
+        AWSCredentials loaded = resolve();
+        if (!(loaded instanceof AWSSessionCredentials)) {
+            credentials = null;
+            direct = true;
+            LOGGER.debug("[AWS Lambda Cloud]: Credentials {} are not a session, not cached", credentialsId);
+            return loaded != null ? loaded : getDefaultProvider().getCredentials();
+        }
+        credentials = loaded;
+        resolved = now;
+        refreshAt = now + REFRESH_AGE;
+        scheduleRefresh(now);
+        LOGGER.debug("[AWS Lambda Cloud]: Resolved credentials {}", credentialsId);
+        return loaded;
+    }
+
+    private AWSCredentials resolveDirect() {
+        AWSCredentials jenkinsCredentials = resolve();
+        return jenkinsCredentials != null ? jenkinsCredentials : getDefaultProvider().getCredentials();
+    }
+
+    /**
+     * Resolves the Jenkins credentials of the id.
+     *
+     * @return the resolved {@link AWSCredentials}, null without Jenkins credentials.
+     */
+    @CheckForNull
+    AWSCredentials resolve() {
+        AmazonWebServicesCredentials jenkinsCredentials = null;
+        if (!credentialsId.isEmpty()) {
+            jenkinsCredentials = AWSCredentialsHelper.getCredentials(credentialsId, Jenkins.getActiveInstance());
+        }
+        return jenkinsCredentials != null ? jenkinsCredentials.getCredentials() : null;
+    }
+
+    /**
+     * Get the provider used without Jenkins credentials.
+     *
+     * @return the default AWS credentials chain.
+     */
+    @Nonnull
+    AWSCredentialsProvider getDefaultProvider() {
+        return DefaultAWSCredentialsProviderChain.getInstance();
+    }
+
+    /**
+     * Drops the cached session after AWS rejected it, so that the next
+     * request resolves a new one.
+     */
+    void expire() {
+        if (credentials != null) {
+            LOGGER.info("[AWS Lambda Cloud]: Session of credentials {} expired early, resolving a new one",
+                credentialsId);
+            resolved = 0;
+        }
+    }
+
+    /**
+     * Refreshes the credentials in the background, unless a refresh is
+     * already on its way.
+     */
+    void refreshLater() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        Timer.get().submit(() -> {
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                LOGGER.warn("[AWS Lambda Cloud]: Cannot refresh credentials {}, retrying in {}s: {}", credentialsId,
+                    TimeUnit.MILLISECONDS.toSeconds(RETRY_DELAY), e.getMessage());
+                refreshAt = System.currentTimeMillis() + RETRY_DELAY;
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Refreshes a session before it expires. The refresh is skipped when the
+     * credentials were resolved again since, or when nobody used them: their
+     * next use resolves them again.
+     *
+     * @param loaded when the session was resolved.
+     */
+    private void scheduleRefresh(final long loaded) {
+        Timer.get().schedule(() -> {
+            if (resolved == loaded && lastUsed > loaded) {
+                refreshLater();
+            }
+        }, REFRESH_AGE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refreshes the credentials of every provider in use.
+     */
+    static void invalidateAll() {
+        for (LambdaCredentialsProvider provider : PROVIDERS.values()) {
+            provider.invalidate();
+        }
+    }
+
+    /**
+     * Refreshes the credentials if in use, and looks again for a role.
+     */
+    void invalidate() {
+        direct = false;
+        if (credentials != null) {
+            refreshLater();
+        }
+    }
+
+    /**
+     * Get a handler expiring the cached session of a credentials id when AWS
+     * rejects its token.
+     *
+     * @param credentialsId the Jenkins credentials id, blank for the default AWS credentials.
+     * @return a {@link RequestHandler2} object.
+     */
+    @Nonnull
+    static RequestHandler2 expiryHandler(@CheckForNull String credentialsId) {
+        return new ExpiredTokenHandler(of(credentialsId));
+    }
+
+    /**
+     * Tells whether AWS rejected a request for an expired session token.
+     */
+    static boolean isExpiredToken(@CheckForNull Exception e) {
+        if (!(e instanceof AmazonServiceException)) {
+            return false;
+        }
+        String code = ((AmazonServiceException) e).getErrorCode();
+        return "ExpiredToken".equals(code) || "ExpiredTokenException".equals(code);
+    }
+
+    private static class ExpiredTokenHandler extends RequestHandler2 {
+
+        private final LambdaCredentialsProvider provider;
+
+        ExpiredTokenHandler(LambdaCredentialsProvider provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public void afterError(Request<?> request, Response<?> response, Exception e) {
+            if (isExpiredToken(e)) {
+                provider.expire();
+            }
+        }
+    }
+
+    /**
+     * Refreshes the credentials when the Jenkins credentials are saved.
+     */
+    @Extension
+    public static class CredentialsListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider) {
+                invalidateAll();
+            }
+        }
+    }
+}
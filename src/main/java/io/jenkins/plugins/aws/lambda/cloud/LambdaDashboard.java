@@ -0,0 +1,141 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.model.ModelObject;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import jenkins.model.Jenkins;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Live view of a {@link LambdaCloud}, at <code>/cloud/NAME/dashboard/</code>.
+ *
+ * The state is read from the counters the cloud maintains anyway (agent
+ * tracker, allocator, region router, function statistics) and only assembled
+ * when requested, so that nobody watching costs nothing. It is served as JSON
+ * by <code>state</code>, which the page polls: a request holds no thread of the
+ * container between two refreshes, however many pages are open.
+ */
+public class LambdaDashboard implements ModelObject {
+
+    private final LambdaCloud cloud;
+
+    LambdaDashboard(@Nonnull LambdaCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    @Nonnull
+    public LambdaCloud getCloud() {
+        return cloud;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getDisplayName() {
+        return "AWS Lambda Cloud " + cloud.name;
+    }
+
+    /**
+     * Get the current state of the cloud.
+     *
+     * @return a {@link JSONObject} object.
+     */
+    @Nonnull
+    public JSONObject getState() {
+        long now = System.currentTimeMillis();
+        LambdaAgentTracker tracker = LambdaAgentTracker.of(cloud.name);
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of(cloud.name);
+        LambdaRegionRouter router = LambdaRegionRouter.of(cloud.name);
+
+        JSONObject state = new JSONObject();
+        state.put("cloud", cloud.name);
+        state.put("time", now);
+
+        JSONObject phases = new JSONObject();
+        for (Map.Entry<LambdaAgentTracker.Phase, Integer> entry : tracker.getPhaseCounts().entrySet()) {
+            phases.put(entry.getKey().name(), entry.getValue());
+        }
+        state.put("phases", phases);
+
+        JSONObject concurrency = new JSONObject();
+        concurrency.put("inFlight", allocator.getTotalInFlight());
+        concurrency.put("reserved", allocator.getReserved());
+        concurrency.put("limit", cloud.getMaxConcurrentExecutions());
+        state.put("concurrency", concurrency);
+        state.put("orphans", tracker.getOrphans());
+        state.put("leaks", tracker.getLeaks());
+
+        JSONArray functions = new JSONArray();
+        JSONObject regions = new JSONObject();
+        for (LambdaFunction function : cloud.getFunctions()) {
+            LambdaFunctionState functionState = LambdaFunctionState.of(cloud, function);
+            LambdaLatencySketch latency = functionState.getLaunchLatency();
+            JSONObject f = new JSONObject();
+            f.put("function", function.getFunctionName());
+            f.put("label", function.getLabel());
+            f.put("inFlight", allocator.getInFlight(function.getFunctionName()));
+            f.put("minConcurrency", function.getMinConcurrency());
+            f.put("maxConcurrency", function.getMaxConcurrency());
+            f.put("launches", latency.getCount());
+            f.put("launchP50", latency.getQuantile(0.5));
+            f.put("launchP99", latency.getQuantile(0.99));
+            f.put("agentTimeout", cloud.getAgentTimeout(function));
+            f.put("healthy", functionState.isHealthy());
+            f.put("healthError", functionState.getHealthError());
+            if (function.getKeepWarm() != null) {
+                f.put("keepWarmHitRatio", functionState.getKeepWarmStatistics().getHitRatio());
+            }
+            functions.add(f);
+            for (String region : cloud.getRegions(function).keySet()) {
+                if (!regions.containsKey(region)) {
+                    JSONObject r = new JSONObject();
+                    r.put("inFlight", router.getInFlight(region));
+                    r.put("throttled", router.isThrottled(region, now));
+                    r.put("throttles", router.getThrottles(region));
+                    r.put("invokeLatency", router.getLatencyMs(region));
+                    regions.put(region, r);
+                }
+            }
+        }
+        state.put("functions", functions);
+        state.put("regions", regions);
+
+        JSONObject connect = new JSONObject();
+        LambdaConnectStatistics stats = LambdaConnectStatistics.get(cloud.name, cloud.getConnectionMode());
+        connect.put("mode", stats.getMode().name());
+        connect.put("count", stats.getCount());
+        connect.put("p50", stats.getQuantileMs(0.5));
+        connect.put("p99", stats.getQuantileMs(0.99));
+        state.put("connect", connect);
+
+        JSONArray failures = new JSONArray();
+        for (LambdaAgentTracker.Failure failure : tracker.getRecentFailures()) {
+            JSONObject f = new JSONObject();
+            f.put("node", failure.getNodeName());
+            f.put("function", failure.getFunction());
+            f.put("outcome", failure.getOutcome().name());
+            f.put("time", failure.getTime());
+            failures.add(f);
+        }
+        state.put("failures", failures);
+        return state;
+    }
+
+    /**
+     * Serves the current state as JSON.
+     */
+    public void doState(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getActiveInstance().checkPermission(Jenkins.ADMINISTER);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.getWriter().write(getState().toString());
+    }
+}
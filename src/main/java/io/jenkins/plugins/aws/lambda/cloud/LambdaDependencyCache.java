@@ -0,0 +1,205 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+
+import java.io.Serializable;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jenkins.security.HMACConfidentialKey;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Dependency cache settings of a {@link LambdaCloud}.
+ *
+ * Agents are told where to fetch build dependencies from: either a sidecar
+ * repository manager, or the cache built in the controller, see
+ * {@link LambdaDependencyCacheAction}. Each mirror maps a repository name to
+ * its upstream URL; agents get one URL per repository in their payload, to
+ * put in their Maven settings, <code>.npmrc</code> or <code>pip.conf</code>.
+ */
+public class LambdaDependencyCache extends AbstractDescribableImpl<LambdaDependencyCache> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String DEFAULT_MIRRORS = "maven https://repo.maven.apache.org/maven2\n"
+        + "npm https://registry.npmjs.org\n"
+        + "pypi https://pypi.org/simple\n"
+        + "pypi-files https://files.pythonhosted.org";
+
+    private static final int DEFAULT_MAX_SIZE = 2048;
+
+    private static final HMACConfidentialKey TOKEN = new HMACConfidentialKey(LambdaDependencyCache.class, "token", 32);
+
+    /**
+     * URL of a sidecar repository manager, blank for the cache of the controller.
+     */
+    @CheckForNull
+    private String url;
+
+    /**
+     * One <code>name url</code> per line.
+     */
+    @CheckForNull
+    private String mirrors;
+
+    /**
+     * Disk space of the cache of the controller, in MB.
+     */
+    private int maxSize;
+
+    private transient volatile Map<String, String> mirrorMap;
+
+    @DataBoundConstructor
+    public LambdaDependencyCache() {
+    }
+
+    @CheckForNull
+    public String getUrl() {
+        return url;
+    }
+
+    @DataBoundSetter
+    public void setUrl(String url) {
+        this.url = StringUtils.trimToNull(url);
+    }
+
+    @Nonnull
+    public String getMirrors() {
+        return mirrors != null ? mirrors : DEFAULT_MIRRORS;
+    }
+
+    @DataBoundSetter
+    public void setMirrors(String mirrors) {
+        this.mirrors = StringUtils.trimToNull(mirrors);
+        this.mirrorMap = null;
+    }
+
+    public int getMaxSize() {
+        return maxSize <= 0 ? DEFAULT_MAX_SIZE : maxSize;
+    }
+
+    @DataBoundSetter
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the upstream URL of each repository, without trailing slash.
+     *
+     * @return the upstream URLs by repository name.
+     */
+    @Nonnull
+    Map<String, String> getMirrorMap() {
+        Map<String, String> map = mirrorMap;
+        if (map == null) {
+            map = Collections.unmodifiableMap(parseMirrors(getMirrors()));
+            mirrorMap = map;
+        }
+        return map;
+    }
+
+    static Map<String, String> parseMirrors(@Nonnull String mirrors) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (String line : StringUtils.split(mirrors, "\r\n")) {
+            String[] fields = StringUtils.split(line.trim());
+            if (fields.length == 2 && fields[0].matches("[A-Za-z0-9._-]+")) {
+                map.put(fields[0], StringUtils.removeEnd(fields[1], "/"));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Get the URL agents of a cloud fetch dependencies from.
+     *
+     * @param cloud the cloud.
+     * @return the URL of the sidecar or of the cache of the controller, with a trailing slash.
+     */
+    @Nonnull
+    String getBaseUrl(@Nonnull LambdaCloud cloud) {
+        if (url != null) {
+            return url.endsWith("/") ? url : url + "/";
+        }
+        String jenkinsUrl = cloud.getJenkinsUrl();
+        return (jenkinsUrl.endsWith("/") ? jenkinsUrl : jenkinsUrl + "/") + LambdaDependencyCacheAction.URL_NAME + "/"
+            + Util.rawEncode(cloud.name) + "/" + getToken(cloud.name) + "/";
+    }
+
+    /**
+     * Get the URL of each repository for the agents of a cloud.
+     *
+     * @param cloud the cloud.
+     * @return the repository URLs by name.
+     */
+    @Nonnull
+    Map<String, String> getMirrorUrls(@Nonnull LambdaCloud cloud) {
+        String base = getBaseUrl(cloud);
+        Map<String, String> urls = new LinkedHashMap<String, String>();
+        for (String name : getMirrorMap().keySet()) {
+            urls.put(name, base + name + "/");
+        }
+        return urls;
+    }
+
+    /**
+     * Get the secret part of the cache URL of a cloud, which lets agents in
+     * without Jenkins credentials.
+     *
+     * @param cloudName the name of the cloud.
+     * @return the token.
+     */
+    @Nonnull
+    static String getToken(@Nonnull String cloudName) {
+        return TOKEN.mac(cloudName);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<LambdaDependencyCache> {
+
+        @Override
+        public String getDisplayName() {
+            return "Dependency Cache";
+        }
+
+        public String getDefaultMirrors() {
+            return DEFAULT_MIRRORS;
+        }
+
+        public FormValidation doCheckUrl(@QueryParameter String value) {
+            if (StringUtils.isBlank(value)) {
+                return FormValidation.ok();
+            }
+            try {
+                new URL(value.trim());
+                return FormValidation.ok();
+            } catch (MalformedURLException e) {
+                return FormValidation.error("Malformed URL: " + e.getMessage());
+            }
+        }
+
+        public FormValidation doCheckMirrors(@QueryParameter String value) {
+            for (String line : StringUtils.split(StringUtils.defaultString(value), "\r\n")) {
+                if (StringUtils.isNotBlank(line) && parseMirrors(line).isEmpty()) {
+                    return FormValidation.error("Expected one repository per line, e.g. "
+                        + "maven https://repo.maven.apache.org/maven2, not: " + line.trim());
+                }
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.Extension;
+import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.model.UnprotectedRootAction;
+import hudson.slaves.Cloud;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dependency cache of the controller, at
+ * <code>/lambda-dependency-cache/CLOUD/TOKEN/REPOSITORY/PATH</code>.
+ *
+ * Artifacts are fetched from the upstream of their repository once, then
+ * served from <code>JENKINS_HOME/aws-lambda-cloud/dependency-cache</code>.
+ * Indexes, metadata and snapshots are streamed through, with the URLs of the
+ * upstreams rewritten to the cache, so that clients following them stay on
+ * the cache.
+ * Agents hold no Jenkins credentials: the secret token of the cloud in the
+ * URL is what lets them in.
+ */
+@Extension
+public class LambdaDependencyCacheAction implements UnprotectedRootAction {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaDependencyCacheAction.class);
+
+    static final String URL_NAME = "lambda-dependency-cache";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+
+    private final ConcurrentMap<String, LambdaDependencyCacheStore> stores =
+        new ConcurrentHashMap<String, LambdaDependencyCacheStore>();
+
+    /** {@inheritDoc} */
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    public void doDynamic(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        String[] parts = StringUtils.removeStart(req.getRestOfPath(), "/").split("/", 4);
+        if (parts.length < 4) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        LambdaCloud cloud = getCloud(parts[0]);
+        LambdaDependencyCache cache = cloud != null ? cloud.getDependencyCache() : null;
+        if (cache == null || cache.getUrl() != null || !MessageDigest.isEqual(
+            LambdaDependencyCache.getToken(cloud.name).getBytes(StandardCharsets.US_ASCII),
+            parts[1].getBytes(StandardCharsets.US_ASCII))) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String repository = parts[2];
+        String path = parts[3];
+        String upstream = cache.getMirrorMap().get(repository);
+        if (upstream == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        // indexes may end with a slash, e.g. pip simple pages
+        String checked = StringUtils.removeEnd(path, "/");
+        if (!checked.isEmpty() && !LambdaDependencyCacheStore.isSafe(checked)) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        if (!"GET".equals(req.getMethod()) && !"HEAD".equals(req.getMethod())) {
+            rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        String query = req.getQueryString();
+        URL url = new URL(upstream + "/" + path + (query != null ? "?" + query : ""));
+        if (query == null && LambdaDependencyCacheStore.isArtifact(path)) {
+            serveArtifact(req, rsp, store(cloud, cache), repository + "/" + path, url);
+        } else {
+            passThrough(req, rsp, url, cache, cache.getBaseUrl(cloud));
+        }
+    }
+
+    @CheckForNull
+    private static LambdaCloud getCloud(String encodedName) {
+        for (Cloud c : Jenkins.getActiveInstance().clouds) {
+            if (c instanceof LambdaCloud && (Util.rawEncode(c.name).equals(encodedName) || c.name.equals(encodedName))) {
+                return (LambdaCloud) c;
+            }
+        }
+        return null;
+    }
+
+    private LambdaDependencyCacheStore store(LambdaCloud cloud, LambdaDependencyCache cache) {
+        LambdaDependencyCacheStore store = stores.get(cloud.name);
+        if (store == null) {
+            File root = new File(new File(new File(Jenkins.getActiveInstance().getRootDir(), "aws-lambda-cloud"),
+                "dependency-cache"), Util.getDigestOf(cloud.name));
+            store = new LambdaDependencyCacheStore(root, 0);
+            LambdaDependencyCacheStore existing = stores.putIfAbsent(cloud.name, store);
+            if (existing != null) {
+                store = existing;
+            }
+        }
+        store.setMaxBytes(cache.getMaxSize() * 1024L * 1024L);
+        return store;
+    }
+
+    private static void serveArtifact(StaplerRequest req, StaplerResponse rsp, LambdaDependencyCacheStore store,
+                                      String path, URL url) throws IOException, ServletException {
+        File file = store.get(path);
+        if (file == null) {
+            HttpURLConnection connection = open(url, req);
+            try {
+                int status = connection.getResponseCode();
+                if (status != HttpServletResponse.SC_OK) {
+                    rsp.sendError(status);
+                    return;
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    file = store.put(path, in);
+                }
+                LOGGER.debug("[AWS Lambda Cloud]: Cached dependency {}", path);
+            } finally {
+                connection.disconnect();
+            }
+        }
+        rsp.serveFile(req, file.toURI().toURL());
+    }
+
+    /**
+     * Streams a document from its upstream, rewriting text on the fly.
+     */
+    private static void passThrough(StaplerRequest req, StaplerResponse rsp, URL url, LambdaDependencyCache cache,
+                                    String baseUrl) throws IOException {
+        HttpURLConnection connection = open(url, req);
+        try {
+            int status = connection.getResponseCode();
+            String contentType = connection.getContentType();
+            boolean text = contentType != null && isText(contentType);
+            rsp.setStatus(status);
+            if (contentType != null) {
+                rsp.setContentType(contentType);
+            }
+            long length = connection.getContentLengthLong();
+            if (!text && length >= 0) {
+                // a rewritten document has another length
+                rsp.setHeader("Content-Length", Long.toString(length));
+            }
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (in == null) {
+                return;
+            }
+            try {
+                if ("HEAD".equals(req.getMethod())) {
+                    return;
+                }
+                if (text) {
+                    Writer out = new OutputStreamWriter(rsp.getOutputStream(), StandardCharsets.UTF_8);
+                    rewrite(new InputStreamReader(in, StandardCharsets.UTF_8), out, cache.getMirrorMap(), baseUrl);
+                    out.flush();
+                } else {
+                    IOUtils.copyLarge(in, rsp.getOutputStream());
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection open(URL url, StaplerRequest req) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) ProxyConfiguration.open(url);
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setInstanceFollowRedirects(true);
+        String accept = req.getHeader("Accept");
+        if (accept != null) {
+            connection.setRequestProperty("Accept", accept);
+        }
+        return connection;
+    }
+
+    private static boolean isText(String contentType) {
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.contains("json") || type.contains("xml");
+    }
+
+    /**
+     * Rewrites the URLs of the upstreams in a document to their repositories
+     * in the cache, the longest upstream first.
+     *
+     * @param text the document.
+     * @param mirrors the upstream URLs by repository name.
+     * @param baseUrl the URL of the cache, with a trailing slash.
+     * @return the rewritten document.
+     */
+    @Nonnull
+    static String rewrite(@Nonnull String text, @Nonnull Map<String, String> mirrors, @Nonnull String baseUrl) {
+        StringWriter out = new StringWriter(text.length());
+        try {
+            rewrite(new StringReader(text), out, mirrors, baseUrl);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Rewrites the URLs of the upstreams in a stream, the longest upstream
+     * first. Only the length of the longest upstream is held back between
+     * reads, so documents of any size go through a bounded buffer.
+     *
+     * @param in the document.
+     * @param out the rewritten document.
+     * @param mirrors the upstream URLs by repository name.
+     * @param baseUrl the URL of the cache, with a trailing slash.
+     * @throws IOException if the document cannot be read or written.
+     */
+    static void rewrite(@Nonnull Reader in, @Nonnull Writer out, @Nonnull Map<String, String> mirrors,
+                        @Nonnull String baseUrl) throws IOException {
+        List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>(mirrors.entrySet());
+        Collections.sort(entries, (a, b) -> Integer.compare(b.getValue().length(), a.getValue().length()));
+        String[] upstreams = new String[entries.size()];
+        String[] repositories = new String[entries.size()];
+        for (int i = 0; i < upstreams.length; i++) {
+            upstreams[i] = entries.get(i).getValue();
+            repositories[i] = baseUrl + entries.get(i).getKey();
+        }
+        int longest = upstreams.length > 0 ? upstreams[0].length() : 0;
+        char[] chunk = new char[BUFFER_SIZE];
+        StringBuilder pending = new StringBuilder(BUFFER_SIZE + longest);
+        boolean eof = false;
+        while (!eof) {
+            int read = in.read(chunk);
+            if (read < 0) {
+                eof = true;
+            } else {
+                pending.append(chunk, 0, read);
+            }
+            // every upstream fits before this position, later ones wait for the next read
+            int end = eof || longest == 0 ? pending.length() : pending.length() - longest + 1;
+            int written = 0;
+            int i = 0;
+            while (i < end) {
+                int match = match(pending, i, upstreams);
+                if (match < 0) {
+                    i++;
+                    continue;
+                }
+                out.append(pending, written, i).write(repositories[match]);
+                i += upstreams[match].length();
+                written = i;
+            }
+            out.append(pending, written, Math.max(written, i));
+            pending.delete(0, Math.max(written, i));
+        }
+    }
+
+    private static int match(CharSequence text, int offset, String[] upstreams) {
+        for (int k = 0; k < upstreams.length; k++) {
+            String upstream = upstreams[k];
+            if (text.length() - offset < upstream.length()) {
+                continue;
+            }
+            int j = 0;
+            while (j < upstream.length() && text.charAt(offset + j) == upstream.charAt(j)) {
+                j++;
+            }
+            if (j == upstream.length()) {
+                return k;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,198 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Files of the dependency cache of a cloud, under a size limit: the least
+ * recently used files are deleted first.
+ *
+ * The index is rebuilt from the files on first use, ordered by their last
+ * modification, which is updated on every hit.
+ */
+final class LambdaDependencyCacheStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaDependencyCacheStore.class);
+
+    private static final String TMP = ".tmp";
+
+    @Nonnull
+    private final File root;
+
+    private volatile long maxBytes;
+
+    /**
+     * Sizes of the cached files by path, least recently used first.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(256, 0.75f, true);
+
+    private long totalBytes;
+
+    private boolean loaded;
+
+    LambdaDependencyCacheStore(@Nonnull File root, long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+    }
+
+    void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized long getTotalBytes() {
+        load();
+        return totalBytes;
+    }
+
+    /**
+     * Whether a request path may be mapped to a file of the cache: relative,
+     * without empty, <code>.</code> nor <code>..</code> segments.
+     */
+    static boolean isSafe(@Nonnull String path) {
+        if (path.isEmpty() || path.startsWith("/") || path.indexOf('\\') >= 0 || path.indexOf('\0') >= 0) {
+            return false;
+        }
+        for (String segment : path.split("/", -1)) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..") || segment.equals(TMP)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a path denotes an artifact, which never changes once published,
+     * rather than an index, a metadata document or a Maven snapshot, which
+     * is republished under the same path.
+     */
+    static boolean isArtifact(@Nonnull String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return name.lastIndexOf('.') > 0 && !name.startsWith("maven-metadata") && !name.endsWith(".html")
+            && !name.endsWith(".json") && !path.contains("-SNAPSHOT");
+    }
+
+    /**
+     * Get a cached file.
+     *
+     * @param path the path of the file, see {@link #isSafe(String)}.
+     * @return the file, null on a miss.
+     */
+    @CheckForNull
+    synchronized File get(@Nonnull String path) {
+        load();
+        if (entries.get(path) == null) {
+            return null;
+        }
+        File file = new File(root, path);
+        if (!file.isFile()) {
+            totalBytes -= entries.remove(path);
+            return null;
+        }
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            LOGGER.debug("[AWS Lambda Cloud]: Cannot touch cached dependency {}", path);
+        }
+        return file;
+    }
+
+    /**
+     * Stores a file, then evicts the least recently used files over the limit.
+     *
+     * @param path the path of the file, see {@link #isSafe(String)}.
+     * @param in the content.
+     * @return the stored file.
+     * @throws IOException if the file cannot be written.
+     */
+    @Nonnull
+    File put(@Nonnull String path, @Nonnull InputStream in) throws IOException {
+        File tmpDir = new File(root, TMP);
+        Files.createDirectories(tmpDir.toPath());
+        Path tmp = Files.createTempFile(tmpDir.toPath(), "download", null);
+        try {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            File file = new File(root, path);
+            Files.createDirectories(file.getParentFile().toPath());
+            long size = Files.size(tmp);
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                load();
+                Long previous = entries.put(path, size);
+                totalBytes += size - (previous != null ? previous : 0);
+                evict(path);
+            }
+            return file;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void evict(String kept) {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(kept)) {
+                continue;
+            }
+            File file = new File(root, eldest.getKey());
+            if (file.delete() || !file.exists()) {
+                totalBytes -= eldest.getValue();
+                it.remove();
+                LOGGER.debug("[AWS Lambda Cloud]: Evicted cached dependency {}", eldest.getKey());
+            }
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!root.isDirectory()) {
+            return;
+        }
+        final List<Object[]> files = new ArrayList<Object[]>();
+        final Path rootPath = root.toPath();
+        try {
+            Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return dir.getFileName().toString().equals(TMP) ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String path = rootPath.relativize(file).toString().replace(File.separatorChar, '/');
+                    files.add(new Object[] {path, attrs.size(), attrs.lastModifiedTime().toMillis()});
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("[AWS Lambda Cloud]: Cannot index the dependency cache {}: {}", root, e.getMessage());
+        }
+        Collections.sort(files, (a, b) -> Long.compare((Long) a[2], (Long) b[2]));
+        for (Object[] file : files) {
+            entries.put((String) file[0], (Long) file[1]);
+            totalBytes += (Long) file[1];
+        }
+        evict(null);
+    }
+}
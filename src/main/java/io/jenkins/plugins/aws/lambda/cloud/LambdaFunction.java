@@ -9,9 +9,11 @@ import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.model.Label;
 import hudson.model.labels.LabelAtom;
+import hudson.remoting.Launcher;
 import hudson.util.ListBoxModel;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +25,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -51,6 +54,89 @@ public class LambdaFunction extends AbstractDescribableImpl<LambdaFunction> impl
     @CheckForNull
     private final String label;
 
+    /**
+     * Number of executors of the agents of this function.
+     */
+    private int executors;
+
+    /**
+     * White-space separated list of other regions the function is deployed in,
+     * each optionally followed by <code>:weight</code>.
+     */
+    @CheckForNull
+    private String replicaRegions;
+
+    /**
+     * Balance invocations across regions by weight instead of spilling over in order.
+     */
+    private boolean weightedRegions;
+
+    /**
+     * Share of the cloud concurrency this function gets when it is constrained.
+     */
+    private int weight;
+
+    /**
+     * Agents of this function served before any fair sharing, when it has demand.
+     */
+    private int minConcurrency;
+
+    /**
+     * Maximum number of agents of this function in flight, 0 for unlimited.
+     */
+    private int maxConcurrency;
+
+    /**
+     * Memory size of the function in MB, which orders the functions of a label
+     * from the lightest to the heaviest, 0 when not set.
+     */
+    private int memorySize;
+
+    /**
+     * Path of a Class Data Sharing archive available in the function image.
+     */
+    @CheckForNull
+    private String cdsArchive;
+
+    /**
+     * Stop JIT compilation at C1, trading peak performance for a faster startup.
+     */
+    private boolean quickStartJit;
+
+    /**
+     * Maximum heap size of the agent JVM, e.g. <code>512m</code>.
+     */
+    @CheckForNull
+    private String maxHeapSize;
+
+    /**
+     * White-space separated list of additional agent JVM options.
+     */
+    @CheckForNull
+    private String jvmOptions;
+
+    /**
+     * Remoting work directory of the agent.
+     */
+    @CheckForNull
+    private String workDir;
+
+    /**
+     * Push the jars of the classes commonly used on this label when agents connect.
+     */
+    private boolean preloadClasses;
+
+    @CheckForNull
+    private LambdaKeepWarm keepWarm;
+
+    private transient volatile PayloadTemplate payloadTemplate;
+
+    private transient volatile Set<LabelAtom> labelSet;
+
+    private transient volatile LambdaComputerLauncher launcher;
+
+    private transient volatile Regions regions;
+
     /**
      *
      * @param functionName   the name of the AWS Lambda function to build from.
@@ -76,7 +162,257 @@ public class LambdaFunction extends AbstractDescribableImpl<LambdaFunction> impl
     }
 
     public Set<LabelAtom> getLabelSet() {
-        return Label.parse(label);
+        Set<LabelAtom> set = labelSet;
+        if (set == null) {
+            set = Collections.unmodifiableSet(Label.parse(label));
+            labelSet = set;
+        }
+        return set;
+    }
+
+    /**
+     * Get the launcher of the agents of this function, shared by all of them.
+     *
+     * @param cloud the cloud launching this function.
+     * @return a {@link LambdaComputerLauncher} object.
+     */
+    @Nonnull
+    LambdaComputerLauncher getLauncher(@Nonnull LambdaCloud cloud) {
+        LambdaComputerLauncher l = launcher;
+        if (l == null || l.getCloud() != cloud) {
+            l = new LambdaComputerLauncher(cloud, this);
+            launcher = l;
+        }
+        return l;
+    }
+
+    /**
+     * Get the regions this function can be invoked in, parsed once.
+     *
+     * @param cloudRegion the region of the cloud.
+     * @return the regions and their weights, see {@link LambdaRegionRouter#parseRegions(String, String)}.
+     */
+    @Nonnull
+    Map<String, Integer> getRegions(@Nonnull String cloudRegion) {
+        Regions r = regions;
+        if (r == null || !r.cloudRegion.equals(cloudRegion)) {
+            r = new Regions(cloudRegion,
+                Collections.unmodifiableMap(LambdaRegionRouter.parseRegions(cloudRegion, replicaRegions)));
+            regions = r;
+        }
+        return r.weights;
+    }
+
+    /**
+     * Getter for the field <code>executors</code>.
+     *
+     * @return the number of executors of an agent, at least 1.
+     */
+    public int getExecutors() {
+        return executors <= 0 ? 1 : executors;
+    }
+
+    @DataBoundSetter
+    public void setExecutors(int executors) {
+        this.executors = executors;
+    }
+
+    @CheckForNull
+    public String getReplicaRegions() {
+        return replicaRegions;
+    }
+
+    @DataBoundSetter
+    public void setReplicaRegions(String replicaRegions) {
+        this.replicaRegions = StringUtils.trimToNull(replicaRegions);
+        this.regions = null;
+    }
+
+    public boolean isWeightedRegions() {
+        return weightedRegions;
+    }
+
+    @DataBoundSetter
+    public void setWeightedRegions(boolean weightedRegions) {
+        this.weightedRegions = weightedRegions;
+    }
+
+    /**
+     * Getter for the field <code>weight</code>.
+     *
+     * @return the fair share weight, at least 1.
+     */
+    public int getWeight() {
+        return weight <= 0 ? 1 : weight;
+    }
+
+    @DataBoundSetter
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    public int getMinConcurrency() {
+        return Math.max(0, minConcurrency);
+    }
+
+    @DataBoundSetter
+    public void setMinConcurrency(int minConcurrency) {
+        this.minConcurrency = minConcurrency;
+    }
+
+    public int getMaxConcurrency() {
+        return Math.max(0, maxConcurrency);
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public int getMemorySize() {
+        return Math.max(0, memorySize);
+    }
+
+    @DataBoundSetter
+    public void setMemorySize(int memorySize) {
+        this.memorySize = memorySize;
+    }
+
+    @CheckForNull
+    public String getCdsArchive() {
+        return cdsArchive;
+    }
+
+    @DataBoundSetter
+    public void setCdsArchive(String cdsArchive) {
+        this.cdsArchive = StringUtils.trimToNull(cdsArchive);
+        this.payloadTemplate = null;
+    }
+
+    public boolean isQuickStartJit() {
+        return quickStartJit;
+    }
+
+    @DataBoundSetter
+    public void setQuickStartJit(boolean quickStartJit) {
+        this.quickStartJit = quickStartJit;
+        this.payloadTemplate = null;
+    }
+
+    @CheckForNull
+    public String getMaxHeapSize() {
+        return maxHeapSize;
+    }
+
+    @DataBoundSetter
+    public void setMaxHeapSize(String maxHeapSize) {
+        this.maxHeapSize = StringUtils.trimToNull(maxHeapSize);
+        this.payloadTemplate = null;
+    }
+
+    @CheckForNull
+    public String getJvmOptions() {
+        return jvmOptions;
+    }
+
+    @DataBoundSetter
+    public void setJvmOptions(String jvmOptions) {
+        this.jvmOptions = StringUtils.trimToNull(jvmOptions);
+        this.payloadTemplate = null;
+    }
+
+    @CheckForNull
+    public String getWorkDir() {
+        return workDir;
+    }
+
+    @DataBoundSetter
+    public void setWorkDir(String workDir) {
+        this.workDir = StringUtils.trimToNull(workDir);
+        this.payloadTemplate = null;
+    }
+
+    public boolean isPreloadClasses() {
+        return preloadClasses;
+    }
+
+    @DataBoundSetter
+    public void setPreloadClasses(boolean preloadClasses) {
+        this.preloadClasses = preloadClasses;
+    }
+
+    @CheckForNull
+    public LambdaKeepWarm getKeepWarm() {
+        return keepWarm;
+    }
+
+    @DataBoundSetter
+    public void setKeepWarm(LambdaKeepWarm keepWarm) {
+        this.keepWarm = keepWarm;
+    }
+
+    /**
+     * Get the pre-rendered invocation payload of this function, rebuilt only when
+     * the Jenkins URL changes or for another cloud. The other settings of a cloud
+     * only change with its configuration, which creates new clouds and functions.
+     *
+     * @param cloud the cloud launching this function.
+     * @return a {@link LambdaAgentPayload.Template} object.
+     */
+    @Nonnull
+    LambdaAgentPayload.Template getPayloadTemplate(@Nonnull LambdaCloud cloud) {
+        PayloadTemplate t = payloadTemplate;
+        String jenkinsUrl = cloud.getJenkinsUrl();
+        if (t == null || t.cloud != cloud || !t.jenkinsUrl.equals(jenkinsUrl)) {
+            t = new PayloadTemplate(cloud, jenkinsUrl, withFunctionOptions(cloud.newPayload()).toTemplate());
+            payloadTemplate = t;
+        }
+        return t.template;
+    }
+
+    @Nonnull
+    LambdaAgentPayload withFunctionOptions(@Nonnull LambdaAgentPayload payload) {
+        if (cdsArchive != null) {
+            payload.withJvmOption("-Xshare:auto").withJvmOption("-XX:SharedArchiveFile=" + cdsArchive);
+        }
+        if (quickStartJit) {
+            payload.withJvmOption("-XX:TieredStopAtLevel=1");
+        }
+        if (maxHeapSize != null) {
+            payload.withJvmOption("-Xmx" + maxHeapSize);
+        }
+        if (jvmOptions != null) {
+            for (String option : StringUtils.split(jvmOptions)) {
+                payload.withJvmOption(option);
+            }
+        }
+        return payload
+            .withWorkDir(workDir)
+            .withRemoting(Launcher.VERSION, LambdaAgentPayload.getRemotingJarChecksum());
+    }
+
+    private static final class Regions {
+
+        private final String cloudRegion;
+        private final Map<String, Integer> weights;
+
+        Regions(String cloudRegion, Map<String, Integer> weights) {
+            this.cloudRegion = cloudRegion;
+            this.weights = weights;
+        }
+    }
+
+    private static final class PayloadTemplate {
+
+        private final LambdaCloud cloud;
+        private final String jenkinsUrl;
+        private final LambdaAgentPayload.Template template;
+
+        PayloadTemplate(LambdaCloud cloud, String jenkinsUrl, LambdaAgentPayload.Template template) {
+            this.cloud = cloud;
+            this.jenkinsUrl = jenkinsUrl;
+            this.template = template;
+        }
     }
 
     @Extension
@@ -99,7 +435,7 @@ public class LambdaFunction extends AbstractDescribableImpl<LambdaFunction> impl
                 final List<String> functions = new ArrayList<String>();
                 String lastToken = null;
                 do {
-                    ListFunctionsResult result = LambdaClient.buildClient(credentialsId, region)
+                    ListFunctionsResult result = LambdaClient.getClient(credentialsId, region)
                         .listFunctions(new ListFunctionsRequest().withMarker(lastToken));
                     //functions.addAll(result.getFunctions().stream().map(f -> f.getFunctionArn()).collect(Collectors.toList()));
                     functions.addAll(result.getFunctions().stream().map(f -> f.getFunctionName()).collect(Collectors.toList()));
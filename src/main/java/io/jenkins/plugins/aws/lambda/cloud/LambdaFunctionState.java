@@ -0,0 +1,182 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runtime state of a function of a cloud: what the plugin observed about it.
+ *
+ * Clouds and functions are re-created each time the configuration is saved, so
+ * this state is kept apart, keyed by cloud name and function name.
+ */
+public final class LambdaFunctionState {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaFunctionState.class);
+
+    private static final ConcurrentMap<String, LambdaFunctionState> STATES =
+        new ConcurrentHashMap<String, LambdaFunctionState>();
+
+    private final String cloudName;
+
+    private final String functionName;
+
+    private final LambdaLatencySketch launchLatency = new LambdaLatencySketch();
+
+    private final LambdaKeepWarmStatistics keepWarmStatistics = new LambdaKeepWarmStatistics();
+
+    private volatile long lastDemand;
+
+    private volatile long lastKeepWarm;
+
+    private volatile boolean healthy = true;
+
+    @CheckForNull
+    private volatile String healthError;
+
+    private volatile int probeFailures;
+
+    private volatile long lastProbe;
+
+    private LambdaFunctionState(String cloudName, String functionName) {
+        this.cloudName = cloudName;
+        this.functionName = functionName;
+    }
+
+    /**
+     * Get the state of a function of a cloud.
+     *
+     * @param cloud a {@link LambdaCloud} object.
+     * @param function a {@link LambdaFunction} of the cloud.
+     * @return a {@link LambdaFunctionState} object.
+     */
+    @Nonnull
+    public static LambdaFunctionState of(@Nonnull LambdaCloud cloud, @Nonnull LambdaFunction function) {
+        String key = cloud.name + "/" + function.getFunctionName();
+        LambdaFunctionState state = STATES.get(key);
+        if (state == null) {
+            LambdaFunctionState created = new LambdaFunctionState(cloud.name, function.getFunctionName());
+            state = STATES.putIfAbsent(key, created);
+            if (state == null) {
+                state = created;
+                state.load(LambdaHistoryStore.get());
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Seeds the statistics with the launches of previous runs.
+     */
+    private void load(@CheckForNull LambdaHistoryStore history) {
+        if (history == null) {
+            return;
+        }
+        int[] launches = history.takeLaunches(cloudName, functionName);
+        for (int launchMs : launches) {
+            launchLatency.add(launchMs);
+        }
+        LOGGER.debug("[AWS Lambda Cloud]: Loaded {} launch(es) of {}/{} from history", launches.length, cloudName,
+            functionName);
+    }
+
+    @Nonnull
+    public String getCloudName() {
+        return cloudName;
+    }
+
+    @Nonnull
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    /**
+     * Get the launch latencies (invocation to agent online) of the function.
+     *
+     * @return a {@link LambdaLatencySketch} object.
+     */
+    @Nonnull
+    public LambdaLatencySketch getLaunchLatency() {
+        return launchLatency;
+    }
+
+    @Nonnull
+    public LambdaKeepWarmStatistics getKeepWarmStatistics() {
+        return keepWarmStatistics;
+    }
+
+    /**
+     * Get the last time agents were requested for the function.
+     *
+     * @return a time in milliseconds, 0 if never.
+     */
+    public long getLastDemand() {
+        return lastDemand;
+    }
+
+    void demanded(long time) {
+        lastDemand = time;
+    }
+
+    public long getLastKeepWarm() {
+        return lastKeepWarm;
+    }
+
+    void keptWarm(long time) {
+        lastKeepWarm = time;
+    }
+
+    /**
+     * Whether the function can be invoked, as far as the health probes know.
+     * Functions never probed are considered healthy.
+     *
+     * @return a boolean.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Get the error of the last failed probe while the function is unhealthy.
+     *
+     * @return a message, null if the function is healthy.
+     */
+    @CheckForNull
+    public String getHealthError() {
+        return healthy ? null : healthError;
+    }
+
+    public long getLastProbe() {
+        return lastProbe;
+    }
+
+    /**
+     * Records the outcome of a health probe.
+     *
+     * @param time the time of the probe.
+     * @param error the error of the probe, null if it succeeded.
+     * @param fatal whether the error cannot be transient, e.g. a missing function.
+     * @param threshold the number of consecutive transient errors making the function unhealthy.
+     * @return true if the health of the function changed.
+     */
+    synchronized boolean probed(long time, @CheckForNull String error, boolean fatal, int threshold) {
+        lastProbe = time;
+        boolean wasHealthy = healthy;
+        if (error == null) {
+            probeFailures = 0;
+            healthy = true;
+        } else {
+            probeFailures++;
+            healthError = error;
+            if (fatal || probeFailures >= threshold) {
+                healthy = false;
+            }
+        }
+        return wasHealthy != healthy;
+    }
+}
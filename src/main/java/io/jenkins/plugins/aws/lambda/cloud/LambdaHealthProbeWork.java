@@ -0,0 +1,158 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.model.GetFunctionConfigurationRequest;
+import com.amazonaws.services.lambda.model.InvocationType;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.ResourceNotFoundException;
+import com.amazonaws.services.lambda.model.TooManyRequestsException;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+
+import jenkins.model.Jenkins;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Probes every function of every {@link LambdaCloud} with a <code>DryRun</code>
+ * invocation, which checks that the function exists and that the credentials
+ * may invoke it, without running it.
+ *
+ * A function failing its probes in all of its regions is fenced: its cloud no
+ * longer offers to provision its labels, so that builds go to other clouds
+ * right away instead of cycling through failing launches. A missing function
+ * or a denied invocation fences at once, other errors after a few consecutive
+ * probes. The next successful probe lifts the fence.
+ *
+ * The timeout of each healthy function is read along, when the credentials
+ * allow it, so that orphaned invocations hold their concurrency for no longer
+ * than they can run, see {@link LambdaAgentTracker}.
+ */
+@Extension
+public class LambdaHealthProbeWork extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaHealthProbeWork.class);
+
+    /**
+     * Consecutive transient probe errors after which a function is fenced.
+     */
+    static final int FAILURE_THRESHOLD = 3;
+
+    public LambdaHealthProbeWork() {
+        super("AWS Lambda Cloud health probes");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void execute(TaskListener listener) throws InterruptedException {
+        for (Cloud c : Jenkins.getActiveInstance().clouds) {
+            if (!(c instanceof LambdaCloud)) {
+                continue;
+            }
+            LambdaCloud cloud = (LambdaCloud) c;
+            for (LambdaFunction function : cloud.getFunctions()) {
+                probe(cloud, function);
+            }
+        }
+    }
+
+    /**
+     * Probes a function in its regions, stopping at the first healthy one.
+     *
+     * @param cloud the cloud of the function.
+     * @param function the function.
+     */
+    static void probe(LambdaCloud cloud, LambdaFunction function) {
+        String error = null;
+        boolean fatal = true;
+        for (String region : cloud.getRegions(function).keySet()) {
+            AWSLambda client = cloud.getClient(region);
+            Probe probe = probe(client, function.getFunctionName());
+            if (probe.error == null) {
+                error = null;
+                if (client != null) {
+                    readTimeout(cloud, client, function);
+                }
+                break;
+            }
+            error = region + ": " + probe.error;
+            // a function is only fenced at once if every region fails for good
+            fatal &= probe.fatal;
+        }
+        LambdaFunctionState state = LambdaFunctionState.of(cloud, function);
+        if (state.probed(System.currentTimeMillis(), error, fatal, FAILURE_THRESHOLD)) {
+            if (state.isHealthy()) {
+                LOGGER.info("[AWS Lambda Cloud]: [{}]: Function {} is healthy again", cloud.name,
+                    function.getFunctionName());
+            } else {
+                LOGGER.warn("[AWS Lambda Cloud]: [{}]: Function {} is unhealthy, not provisioning label '{}' until it "
+                    + "recovers: {}", cloud.name, function.getFunctionName(), function.getLabel(), error);
+            }
+        }
+    }
+
+    private static void readTimeout(LambdaCloud cloud, AWSLambda client, LambdaFunction function) {
+        try {
+            Integer timeout = client.getFunctionConfiguration(new GetFunctionConfigurationRequest()
+                .withFunctionName(function.getFunctionName())).getTimeout();
+            if (timeout != null) {
+                LambdaAgentTracker.of(cloud.name).setFunctionTimeout(function.getFunctionName(),
+                    TimeUnit.SECONDS.toMillis(timeout));
+            }
+        } catch (SdkClientException e) {
+            // lambda:GetFunctionConfiguration is optional, orphans then last the AWS Lambda time limit
+            LOGGER.debug("[AWS Lambda Cloud]: [{}]: Cannot read the timeout of {}: {}", cloud.name,
+                function.getFunctionName(), e.getMessage());
+        }
+    }
+
+    private static Probe probe(@CheckForNull AWSLambda client, String functionName) {
+        if (client == null) {
+            return new Probe("no AWS Lambda client", false);
+        }
+        try {
+            client.invoke(new InvokeRequest()
+                .withFunctionName(functionName)
+                .withInvocationType(InvocationType.DryRun));
+            return new Probe(null, false);
+        } catch (TooManyRequestsException e) {
+            // throttled, but the function exists and may be invoked
+            return new Probe(null, false);
+        } catch (ResourceNotFoundException e) {
+            return new Probe(e.getErrorMessage(), true);
+        } catch (AmazonServiceException e) {
+            // denied, unknown or expired credentials
+            boolean fatal = e.getStatusCode() == 401 || e.getStatusCode() == 403;
+            return new Probe(e.getErrorCode() + ": " + e.getErrorMessage(), fatal);
+        } catch (SdkClientException e) {
+            return new Probe(e.getMessage(), false);
+        }
+    }
+
+    private static final class Probe {
+
+        final String error;
+        final boolean fatal;
+
+        Probe(String error, boolean fatal) {
+            this.error = error;
+            this.fatal = fatal;
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jenkins.model.Jenkins;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only history of the agent lifecycles, one fixed-size record per agent,
+ * kept in a memory-mapped ring file under <code>JENKINS_HOME/aws-lambda-cloud</code>.
+ *
+ * The file size is bounded: once full, the oldest records are overwritten.
+ * Reading the whole history is a sequential scan of the mapped file, without
+ * any parsing, so statistics survive restarts at almost no cost.
+ *
+ * <pre>
+ * header  : magic (int), record size (int), capacity (int), reserved (int), count (long)
+ * record  : cloud, function (long, 64-bit FNV-1a hash of the UTF-8 name),
+ *           label (length-prefixed UTF-8, truncated),
+ *           planned (long), invoked, connected, removed, launch (int, ms), outcome (byte)
+ * </pre>
+ *
+ * Cloud and function names are stored as hashes: cloud names go up to 127
+ * characters and function ARNs beyond 140, and a truncated name would never
+ * match again. The label is informative only and may be truncated.
+ */
+public final class LambdaHistoryStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaHistoryStore.class);
+
+    private static final int MAGIC = 0x4c484332; // LHC2
+
+    private static final int HEADER_SIZE = 24;
+
+    private static final int COUNT_OFFSET = 16;
+
+    private static final int LABEL_SIZE = 64;
+
+    static final int RECORD_SIZE = 112;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Number of records kept, about 7MB worth.
+     */
+    static final int DEFAULT_CAPACITY = Integer.getInteger(
+        LambdaHistoryStore.class.getName() + ".capacity", 65536);
+
+    private static volatile LambdaHistoryStore instance;
+
+    private static volatile boolean unavailable;
+
+    /**
+     * How an agent lifecycle ended.
+     */
+    public enum Outcome {
+        /** The agent connected and ran. */
+        COMPLETED,
+        /** The agent did not connect in time. */
+        TIMED_OUT,
+        /** The invocation or the node creation failed. */
+        FAILED,
+        /** The node was removed while its invocation was running. */
+        ABORTED
+    }
+
+    private final File file;
+
+    private final int capacity;
+
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Launch latencies of the records found when the store was first indexed,
+     * by {@link #key(long, long)}, until taken.
+     */
+    @CheckForNull
+    private Map<String, LaunchList> launches;
+
+    LambdaHistoryStore(@Nonnull File file, int capacity) throws IOException {
+        this.file = file;
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            boolean fresh = raf.length() != size;
+            if (!fresh) {
+                raf.seek(0);
+                fresh = raf.readInt() != MAGIC || raf.readInt() != RECORD_SIZE || raf.readInt() != capacity;
+            }
+            if (fresh) {
+                if (raf.length() > 0) {
+                    LOGGER.info("[AWS Lambda Cloud]: Resetting history {}, its layout changed", file);
+                }
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+            // the mapping outlives the channel
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (fresh) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, RECORD_SIZE);
+                buffer.putInt(8, capacity);
+                buffer.putLong(COUNT_OFFSET, 0);
+            }
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get the history store of this Jenkins instance.
+     *
+     * @return the store, or null if Jenkins is not running or the file cannot be mapped.
+     */
+    @CheckForNull
+    public static LambdaHistoryStore get() {
+        LambdaHistoryStore store = instance;
+        if (store != null || unavailable) {
+            return store;
+        }
+        synchronized (LambdaHistoryStore.class) {
+            if (instance == null && !unavailable) {
+                try {
+                    File dir = new File(Jenkins.getActiveInstance().getRootDir(), "aws-lambda-cloud");
+                    if (!dir.isDirectory() && !dir.mkdirs()) {
+                        throw new IOException("Cannot create " + dir);
+                    }
+                    instance = new LambdaHistoryStore(new File(dir, "history.dat"), DEFAULT_CAPACITY);
+                } catch (IOException | IllegalStateException e) {
+                    LOGGER.warn("[AWS Lambda Cloud]: Provisioning history unavailable: {}", e.getMessage());
+                    unavailable = true;
+                }
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Indexes the history once Jenkins is loaded, rather than at the first
+     * provisioning.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void index() {
+        LambdaHistoryStore store = get();
+        if (store != null) {
+            store.indexLaunches();
+        }
+    }
+
+    @Nonnull
+    public File getFile() {
+        return file;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of records ever appended, including overwritten ones.
+     *
+     * @return a long.
+     */
+    public synchronized long getCount() {
+        return buffer.getLong(COUNT_OFFSET);
+    }
+
+    /**
+     * Appends a record, overwriting the oldest one when the store is full.
+     *
+     * @param record the record.
+     */
+    public synchronized void append(@Nonnull Record record) {
+        long count = buffer.getLong(COUNT_OFFSET);
+        ByteBuffer slot = slot(count % capacity);
+        slot.putLong(record.cloudHash);
+        slot.putLong(record.functionHash);
+        putString(slot, record.label, LABEL_SIZE);
+        slot.putLong(record.planned);
+        slot.putInt(record.invokedMs);
+        slot.putInt(record.connectedMs);
+        slot.putInt(record.removedMs);
+        slot.putInt(record.launchMs);
+        slot.put((byte) record.outcome.ordinal());
+        // published once complete
+        buffer.putLong(COUNT_OFFSET, count + 1);
+    }
+
+    /**
+     * Streams the records, oldest first. Records appended while reading are not
+     * returned; a reader slower than a full turn of the ring may see records
+     * overwritten under its feet.
+     *
+     * @return the records.
+     */
+    @Nonnull
+    public Iterable<Record> read() {
+        final long end = getCount();
+        final long start = Math.max(0, end - capacity);
+        return () -> new Iterator<Record>() {
+            private long next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return readRecord(next++ % capacity);
+            }
+        };
+    }
+
+    /**
+     * Takes the launch latencies recorded for a function of a cloud before the
+     * store was indexed, that is by previous runs: completed and timed out
+     * launches, oldest first. The whole history is scanned once, at the first
+     * call; the latencies of a function are returned once, then dropped.
+     *
+     * @param cloud the name of the cloud.
+     * @param function the name of the function.
+     * @return latencies in milliseconds, maybe empty.
+     */
+    @Nonnull
+    public int[] takeLaunches(@Nonnull String cloud, @Nonnull String function) {
+        LaunchList list;
+        synchronized (this) {
+            list = indexLaunches().remove(key(hash(cloud), hash(function)));
+        }
+        return list == null ? new int[0] : list.toArray();
+    }
+
+    private synchronized Map<String, LaunchList> indexLaunches() {
+        if (launches == null) {
+            Map<String, LaunchList> index = new HashMap<String, LaunchList>();
+            for (Record record : read()) {
+                if (record.getLaunchMs() > 0 && (record.getOutcome() == Outcome.COMPLETED
+                    || record.getOutcome() == Outcome.TIMED_OUT)) {
+                    String key = key(record.cloudHash, record.functionHash);
+                    LaunchList list = index.get(key);
+                    if (list == null) {
+                        list = new LaunchList();
+                        index.put(key, list);
+                    }
+                    list.add(record.getLaunchMs());
+                }
+            }
+            launches = index;
+            LOGGER.debug("[AWS Lambda Cloud]: Indexed launches of {} function(s) from history", index.size());
+        }
+        return launches;
+    }
+
+    private static String key(long cloudHash, long functionHash) {
+        return Long.toHexString(cloudHash) + "/" + Long.toHexString(functionHash);
+    }
+
+    /**
+     * Get the hash a name is stored as.
+     *
+     * @param name a cloud or function name.
+     * @return the 64-bit FNV-1a hash of its UTF-8 bytes.
+     */
+    static long hash(@Nonnull String name) {
+        long hash = FNV_OFFSET;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private Record readRecord(long index) {
+        ByteBuffer slot;
+        synchronized (this) {
+            slot = slot(index);
+        }
+        long cloudHash = slot.getLong();
+        long functionHash = slot.getLong();
+        String label = getString(slot, LABEL_SIZE);
+        long planned = slot.getLong();
+        int invokedMs = slot.getInt();
+        int connectedMs = slot.getInt();
+        int removedMs = slot.getInt();
+        int launchMs = slot.getInt();
+        int outcome = slot.get();
+        Outcome[] outcomes = Outcome.values();
+        return new Record(cloudHash, functionHash, label, planned, invokedMs, connectedMs, removedMs, launchMs,
+            outcome >= 0 && outcome < outcomes.length ? outcomes[outcome] : Outcome.FAILED);
+    }
+
+    private ByteBuffer slot(long index) {
+        ByteBuffer slot = buffer.duplicate();
+        int position = (int) (HEADER_SIZE + index * RECORD_SIZE);
+        slot.limit(position + RECORD_SIZE);
+        slot.position(position);
+        return slot;
+    }
+
+    private static void putString(ByteBuffer slot, String value, int size) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, size - 1);
+        slot.put((byte) length);
+        slot.put(bytes, 0, length);
+        slot.position(slot.position() + size - 1 - length);
+    }
+
+    private static String getString(ByteBuffer slot, int size) {
+        int length = Math.min(slot.get() & 0xff, size - 1);
+        byte[] bytes = new byte[length];
+        slot.get(bytes);
+        slot.position(slot.position() + size - 1 - length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Growable list of latencies, without boxing.
+     */
+    private static final class LaunchList {
+
+        private int[] values = new int[8];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * Lifecycle of one agent. Timings are in milliseconds from its planning,
+     * 0 when the phase was not reached. The cloud and the function are only
+     * known by their hashes once stored.
+     */
+    public static final class Record {
+
+        final long cloudHash;
+        final long functionHash;
+        final String label;
+        final long planned;
+        final int invokedMs;
+        final int connectedMs;
+        final int removedMs;
+        final int launchMs;
+        final Outcome outcome;
+
+        Record(String cloud, String function, String label, long planned, int invokedMs, int connectedMs,
+               int removedMs, int launchMs, Outcome outcome) {
+            this(hash(cloud), hash(function), label, planned, invokedMs, connectedMs, removedMs, launchMs,
+                outcome);
+        }
+
+        private Record(long cloudHash, long functionHash, String label, long planned, int invokedMs,
+                       int connectedMs, int removedMs, int launchMs, Outcome outcome) {
+            this.cloudHash = cloudHash;
+            this.functionHash = functionHash;
+            this.label = label;
+            this.planned = planned;
+            this.invokedMs = invokedMs;
+            this.connectedMs = connectedMs;
+            this.removedMs = removedMs;
+            this.launchMs = launchMs;
+            this.outcome = outcome;
+        }
+
+        /**
+         * Tells whether this record is about a function of a cloud.
+         *
+         * @param cloud the name of the cloud.
+         * @param function the name of the function.
+         * @return true if both names hash as recorded.
+         */
+        public boolean isOf(@Nonnull String cloud, @Nonnull String function) {
+            return cloudHash == hash(cloud) && functionHash == hash(function);
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getPlanned() {
+            return planned;
+        }
+
+        public int getInvokedMs() {
+            return invokedMs;
+        }
+
+        public int getConnectedMs() {
+            return connectedMs;
+        }
+
+        public int getRemovedMs() {
+            return removedMs;
+        }
+
+        /**
+         * Get the launch latency, invocation to agent online, censored at the
+         * agent timeout for timed out launches.
+         *
+         * @return a time in milliseconds, 0 if unknown.
+         */
+        public int getLaunchMs() {
+            return launchMs;
+        }
+
+        @Nonnull
+        public Outcome getOutcome() {
+            return outcome;
+        }
+    }
+}
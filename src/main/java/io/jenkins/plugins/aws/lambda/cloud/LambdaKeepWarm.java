@@ -0,0 +1,165 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+
+import java.io.Serializable;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Keep-warm settings of a {@link LambdaFunction}.
+ *
+ * Lightweight <code>{"warmup": true}</code> invocations are sent at a fixed
+ * interval so that a number of execution environments of the function stay
+ * initialized, see {@link LambdaKeepWarmWork}.
+ */
+public class LambdaKeepWarm extends AbstractDescribableImpl<LambdaKeepWarm> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern HOURS_PATTERN = Pattern.compile("(\\d{1,2}):(\\d{2})\\s*-\\s*(\\d{1,2}):(\\d{2})");
+
+    private static final int DEFAULT_CONCURRENCY = 1;
+
+    private static final int DEFAULT_INTERVAL = 5;
+
+    /**
+     * Number of execution environments to keep warm.
+     */
+    private int concurrency;
+
+    /**
+     * Minutes between two keep-warm rounds.
+     */
+    private int interval;
+
+    /**
+     * Daily time range, e.g. <code>08:00-19:00</code>, blank for all day.
+     */
+    @CheckForNull
+    private String activeHours;
+
+    private boolean weekdaysOnly;
+
+    /**
+     * Only keep warm if agents were requested in the last minutes, 0 to always keep warm.
+     */
+    private int demandWindow;
+
+    @DataBoundConstructor
+    public LambdaKeepWarm() {
+    }
+
+    public int getConcurrency() {
+        return concurrency <= 0 ? DEFAULT_CONCURRENCY : concurrency;
+    }
+
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public int getInterval() {
+        return interval <= 0 ? DEFAULT_INTERVAL : interval;
+    }
+
+    @DataBoundSetter
+    public void setInterval(int interval) {
+        this.interval = interval;
+    }
+
+    @CheckForNull
+    public String getActiveHours() {
+        return activeHours;
+    }
+
+    @DataBoundSetter
+    public void setActiveHours(String activeHours) {
+        this.activeHours = StringUtils.trimToNull(activeHours);
+    }
+
+    public boolean isWeekdaysOnly() {
+        return weekdaysOnly;
+    }
+
+    @DataBoundSetter
+    public void setWeekdaysOnly(boolean weekdaysOnly) {
+        this.weekdaysOnly = weekdaysOnly;
+    }
+
+    public int getDemandWindow() {
+        return demandWindow;
+    }
+
+    @DataBoundSetter
+    public void setDemandWindow(int demandWindow) {
+        this.demandWindow = demandWindow;
+    }
+
+    /**
+     * Whether a keep-warm round is due.
+     *
+     * @param state the runtime state of the function.
+     * @param now the current time.
+     * @return true if the function should be kept warm now.
+     */
+    boolean isDue(LambdaFunctionState state, Calendar now) {
+        long time = now.getTimeInMillis();
+        if (time - state.getLastKeepWarm() < TimeUnit.MINUTES.toMillis(getInterval())) {
+            return false;
+        }
+        if (demandWindow > 0 && time - state.getLastDemand() > TimeUnit.MINUTES.toMillis(demandWindow)) {
+            return false;
+        }
+        int day = now.get(Calendar.DAY_OF_WEEK);
+        if (weekdaysOnly && (day == Calendar.SATURDAY || day == Calendar.SUNDAY)) {
+            return false;
+        }
+        return isWithinActiveHours(activeHours, now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE));
+    }
+
+    static boolean isWithinActiveHours(@CheckForNull String activeHours, int minuteOfDay) {
+        if (activeHours == null) {
+            return true;
+        }
+        Matcher m = HOURS_PATTERN.matcher(activeHours);
+        if (!m.matches()) {
+            return true;
+        }
+        int from = Integer.parseInt(m.group(1)) * 60 + Integer.parseInt(m.group(2));
+        int to = Integer.parseInt(m.group(3)) * 60 + Integer.parseInt(m.group(4));
+        if (from <= to) {
+            return minuteOfDay >= from && minuteOfDay < to;
+        }
+        // range over midnight
+        return minuteOfDay >= from || minuteOfDay < to;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<LambdaKeepWarm> {
+
+        @Override
+        public String getDisplayName() {
+            return "Keep Warm";
+        }
+
+        public FormValidation doCheckActiveHours(@QueryParameter String value) {
+            if (StringUtils.isBlank(value) || HOURS_PATTERN.matcher(value.trim()).matches()) {
+                return FormValidation.ok();
+            }
+            return FormValidation.error("Expected a time range such as 08:00-19:00");
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+/**
+ * Outcomes of the keep-warm invocations of a function.
+ *
+ * A hit is an invocation served by an already initialized execution
+ * environment, a miss is one that went through a cold start. Invocations
+ * without a log tail cannot tell and count as unknown. The billed duration
+ * is the cost side of the tradeoff.
+ */
+public final class LambdaKeepWarmStatistics {
+
+    private long hits;
+
+    private long misses;
+
+    private long unknown;
+
+    private long errors;
+
+    private long billedMs;
+
+    synchronized void hit(long billedMs) {
+        hits++;
+        this.billedMs += billedMs;
+    }
+
+    synchronized void miss(long billedMs) {
+        misses++;
+        this.billedMs += billedMs;
+    }
+
+    synchronized void unknown() {
+        unknown++;
+    }
+
+    synchronized void error() {
+        errors++;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getUnknown() {
+        return unknown;
+    }
+
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    public synchronized long getBilledMs() {
+        return billedMs;
+    }
+
+    /**
+     * Get the share of the keep-warm invocations that found a warm environment.
+     *
+     * @return a ratio between 0 and 1.
+     */
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hit(s), %d miss(es), %d unknown, %d error(s), hit ratio %.2f, %dms billed", hits,
+            misses, unknown, errors, getHitRatio(), billedMs);
+    }
+}
@@ -0,0 +1,173 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.model.InvocationType;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.amazonaws.services.lambda.model.LogType;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+
+import jenkins.model.Jenkins;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the keep-warm invocations of the functions configured with a
+ * {@link LambdaKeepWarm}.
+ *
+ * Invocations of a round are synchronous and concurrent, so that each of them
+ * occupies its own execution environment. They count against the concurrency
+ * of the cloud, and only take the slots no label is waiting for, see
+ * {@link LambdaCapacityAllocator#warm(int, int, long)}. The <code>REPORT</code>
+ * line of the invocation log tells whether the environment had to be initialized.
+ */
+@Extension
+public class LambdaKeepWarmWork extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaKeepWarmWork.class);
+
+    static final String WARMUP_PAYLOAD = "{\"warmup\": true}";
+
+    private static final Pattern BILLED_DURATION = Pattern.compile("Billed Duration: (\\d+) ms");
+
+    private static final String INIT_DURATION = "Init Duration:";
+
+    private static final long INVOCATION_TIMEOUT_SECONDS = 60;
+
+    public LambdaKeepWarmWork() {
+        super("AWS Lambda Cloud keep-warm");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void execute(TaskListener listener) throws InterruptedException {
+        Calendar now = Calendar.getInstance();
+        for (Cloud c : Jenkins.getActiveInstance().clouds) {
+            if (!(c instanceof LambdaCloud)) {
+                continue;
+            }
+            LambdaCloud cloud = (LambdaCloud) c;
+            for (LambdaFunction function : cloud.getFunctions()) {
+                LambdaKeepWarm keepWarm = function.getKeepWarm();
+                if (keepWarm == null) {
+                    continue;
+                }
+                LambdaFunctionState state = LambdaFunctionState.of(cloud, function);
+                if (keepWarm.isDue(state, now)) {
+                    state.keptWarm(now.getTimeInMillis());
+                    keepWarm(cloud, function, keepWarm.getConcurrency(), state.getKeepWarmStatistics(),
+                        now.getTimeInMillis());
+                }
+            }
+        }
+    }
+
+    private void keepWarm(LambdaCloud cloud, LambdaFunction function, int concurrency,
+                          LambdaKeepWarmStatistics statistics, long now) throws InterruptedException {
+        final AWSLambda client = cloud.getClient();
+        if (client == null) {
+            return;
+        }
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of(cloud.name);
+        int granted = allocator.warm(concurrency, cloud.getMaxConcurrentExecutions(), now);
+        if (granted < concurrency) {
+            LOGGER.info("[AWS Lambda Cloud]: Keeping {} of {} environment(s) of {} warm, the concurrency of cloud {} "
+                + "is in use", granted, concurrency, function.getFunctionName(), cloud.name);
+        }
+        if (granted == 0) {
+            return;
+        }
+        final InvokeRequest request = new InvokeRequest()
+            .withFunctionName(function.getFunctionName())
+            .withPayload(WARMUP_PAYLOAD)
+            .withLogType(LogType.Tail)
+            .withInvocationType(InvocationType.RequestResponse);
+        List<Future<InvokeResult>> invocations = new ArrayList<Future<InvokeResult>>(granted);
+        try {
+            for (int i = 0; i < granted; i++) {
+                invocations.add(Computer.threadPoolForRemoting.submit(new Callable<InvokeResult>() {
+                    @Override
+                    public InvokeResult call() {
+                        return client.invoke(request);
+                    }
+                }));
+            }
+            for (Future<InvokeResult> invocation : invocations) {
+                try {
+                    record(invocation.get(INVOCATION_TIMEOUT_SECONDS, TimeUnit.SECONDS), statistics);
+                } catch (ExecutionException | TimeoutException e) {
+                    LOGGER.warn("[AWS Lambda Cloud]: Keep-warm invocation of {} failed: {}",
+                        function.getFunctionName(), e.getMessage());
+                    statistics.error();
+                }
+            }
+        } finally {
+            // invocations timed out may still run, but no longer than the next round
+            allocator.warmed(granted);
+        }
+        LOGGER.info("[AWS Lambda Cloud]: Kept {} environment(s) of {} warm - {}", granted,
+            function.getFunctionName(), statistics);
+    }
+
+    static void record(InvokeResult result, LambdaKeepWarmStatistics statistics) {
+        if (result.getFunctionError() != null) {
+            statistics.error();
+            return;
+        }
+        String log = decodeLog(result.getLogResult());
+        if (log == null) {
+            // without a log tail there is no init duration to tell a cold start apart
+            statistics.unknown();
+            return;
+        }
+        long billedMs = 0;
+        Matcher m = BILLED_DURATION.matcher(log);
+        if (m.find()) {
+            billedMs = Long.parseLong(m.group(1));
+        }
+        if (log.contains(INIT_DURATION)) {
+            statistics.miss(billedMs);
+        } else {
+            statistics.hit(billedMs);
+        }
+    }
+
+    @CheckForNull
+    private static String decodeLog(@CheckForNull String logResult) {
+        if (logResult == null) {
+            return null;
+        }
+        try {
+            return new String(Base64.getDecoder().decode(logResult), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.ExtensionListListener;
+import hudson.XmlFile;
+import hudson.model.Label;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.slaves.Cloud;
+import hudson.slaves.CloudProvisioningListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Which clouds {@link LambdaCloudProvisionerStrategy} consults for a label,
+ * and which provisioning listeners it notifies, computed once and kept until
+ * the clouds change.
+ *
+ * Labels no Lambda function serves map to no cloud, so that the strategy
+ * passes them on to the other strategies without walking the clouds. The
+ * health of the functions is not part of the index: the clouds it returns are
+ * still asked whether they can provision. Neither are the nodes: only the
+ * labels of the functions matter, so agents coming and going, Lambda ones
+ * included, keep the index.
+ */
+final class LambdaLabelIndex {
+
+    static final Cloud[] NONE = new Cloud[0];
+
+    private static final LambdaLabelIndex INSTANCE = new LambdaLabelIndex();
+
+    /**
+     * Clouds by label name, replaced as a whole on invalidation so that an
+     * entry computed from the previous configuration can never outlive it.
+     */
+    private volatile ConcurrentHashMap<String, Cloud[]> clouds = new ConcurrentHashMap<String, Cloud[]>();
+
+    /**
+     * The clouds the entries were computed from, each followed by its functions
+     * when it is a Lambda cloud. Clouds and functions can be replaced without
+     * saving, e.g. by a reload or a script, so every lookup compares them by
+     * identity first.
+     */
+    @CheckForNull
+    private volatile Object[] source;
+
+    private volatile CloudProvisioningListener[] listeners;
+
+    private boolean listening;
+
+    static LambdaLabelIndex get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the clouds to consult for a label, in the order of the configuration.
+     *
+     * @param label the label.
+     * @param all the configured clouds.
+     * @return every cloud when a Lambda function serves the label, none otherwise.
+     */
+    @Nonnull
+    Cloud[] getClouds(@CheckForNull Label label, @Nonnull List<Cloud> all) {
+        if (label == null) {
+            // a Lambda function always has a label
+            return NONE;
+        }
+        if (!isCurrent(source, all)) {
+            invalidate();
+            source = version(all);
+        }
+        ConcurrentHashMap<String, Cloud[]> index = clouds;
+        Cloud[] result = index.get(label.getName());
+        if (result == null) {
+            result = resolve(label, all);
+            index.put(label.getName(), result);
+        }
+        return result;
+    }
+
+    private static boolean isCurrent(@CheckForNull Object[] known, List<Cloud> all) {
+        try {
+            if (known == null || known.length != 2 * all.size()) {
+                return false;
+            }
+            for (int i = 0; i < all.size(); i++) {
+                Cloud cloud = all.get(i);
+                if (known[2 * i] != cloud || known[2 * i + 1] != functionsOf(cloud)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IndexOutOfBoundsException e) {
+            // a cloud was removed meanwhile
+            return false;
+        }
+    }
+
+    private static Object[] version(List<Cloud> all) {
+        List<Object> version = new ArrayList<Object>();
+        for (Cloud cloud : all) {
+            version.add(cloud);
+            version.add(functionsOf(cloud));
+        }
+        return version.toArray();
+    }
+
+    @CheckForNull
+    private static List<LambdaFunction> functionsOf(Cloud cloud) {
+        return cloud instanceof LambdaCloud ? ((LambdaCloud) cloud).getFunctions() : null;
+    }
+
+    private static Cloud[] resolve(Label label, List<Cloud> all) {
+        List<Cloud> result = new ArrayList<Cloud>(all);
+        for (Cloud cloud : result) {
+            if (cloud instanceof LambdaCloud && ((LambdaCloud) cloud).hasFunction(label)) {
+                return result.toArray(new Cloud[result.size()]);
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Get the provisioning listeners.
+     *
+     * @return the registered {@link CloudProvisioningListener}s.
+     */
+    @Nonnull
+    CloudProvisioningListener[] getListeners() {
+        CloudProvisioningListener[] result = listeners;
+        if (result == null) {
+            result = loadListeners();
+        }
+        return result;
+    }
+
+    private synchronized CloudProvisioningListener[] loadListeners() {
+        ExtensionList<CloudProvisioningListener> all = CloudProvisioningListener.all();
+        if (!listening) {
+            all.addListener(new ExtensionListListener() {
+                @Override
+                public void onChange() {
+                    invalidateListeners();
+                }
+            });
+            listening = true;
+        }
+        CloudProvisioningListener[] result = all.toArray(new CloudProvisioningListener[all.size()]);
+        listeners = result;
+        return result;
+    }
+
+    private synchronized void invalidateListeners() {
+        listeners = null;
+    }
+
+    /**
+     * Drops the clouds of every label, to be computed again on next use.
+     */
+    void invalidate() {
+        clouds = new ConcurrentHashMap<String, Cloud[]>();
+    }
+
+    /**
+     * Invalidates the index when the clouds are saved, which also covers
+     * functions edited in place.
+     */
+    @Extension
+    public static class ConfigurationListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Jenkins) {
+                get().invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+/**
+ * Streaming quantile sketch of latencies in milliseconds.
+ *
+ * Values are counted in logarithmic buckets so that any quantile is returned
+ * within {@link #RELATIVE_ACCURACY} of the true value, in constant memory. Once
+ * {@link #MAX_COUNT} values have been recorded all counts are halved, so the
+ * sketch follows latency changes instead of averaging over its whole life.
+ */
+public final class LambdaLatencySketch {
+
+    static final double RELATIVE_ACCURACY = 0.02;
+
+    static final long MAX_COUNT = 10000;
+
+    /**
+     * One hour, larger values are counted in the last bucket.
+     */
+    private static final long MAX_VALUE_MS = 3600000;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private static final int BUCKETS = bucketOf(MAX_VALUE_MS) + 1;
+
+    private final long[] counts = new long[BUCKETS];
+
+    private long count;
+
+    /**
+     * Records a latency.
+     *
+     * @param valueMs the latency in milliseconds.
+     */
+    public synchronized void add(long valueMs) {
+        counts[bucketOf(valueMs)]++;
+        if (++count >= MAX_COUNT) {
+            count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] /= 2;
+                count += counts[i];
+            }
+        }
+    }
+
+    /**
+     * Get the number of latencies currently accounted for.
+     *
+     * @return a long.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Get an estimate of a quantile.
+     *
+     * @param quantile the quantile, between 0 and 1.
+     * @return the estimated latency in milliseconds, 0 if the sketch is empty.
+     */
+    public synchronized long getQuantile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.max(0, Math.min(1, quantile)) * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank)) {
+                return valueOf(i);
+            }
+        }
+        return valueOf(BUCKETS - 1);
+    }
+
+    private static int bucketOf(long valueMs) {
+        if (valueMs <= 1) {
+            return 0;
+        }
+        return (int) Math.ceil(Math.log(Math.min(valueMs, MAX_VALUE_MS)) / LOG_GAMMA);
+    }
+
+    private static long valueOf(int bucket) {
+        // middle of the bucket, in the relative sense
+        return Math.round(2 * Math.pow(GAMMA, bucket) / (GAMMA + 1));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return String.format("p50 %dms, p90 %dms, p99 %dms over %d", getQuantile(0.5), getQuantile(0.9),
+            getQuantile(0.99), getCount());
+    }
+}
@@ -4,7 +4,6 @@ import hudson.model.Descriptor;
 import hudson.model.TaskListener;
 import hudson.slaves.AbstractCloudComputer;
 import hudson.slaves.AbstractCloudSlave;
-import hudson.slaves.CloudRetentionStrategy;
 import hudson.slaves.ComputerLauncher;
 
 import java.io.IOException;
@@ -35,20 +34,22 @@ class LambdaNode extends AbstractCloudSlave {
      * {@link LambdaComputer}.
      *
      * @param cloud    a {@link LambdaCloud} object.
-     * @param name     the label of the agent.
+     * @param label    the label of the agent.
      * @param name     the name of the agent.
+     * @param numExecutors the number of executors of the agent.
      * @param launcher a {@link hudson.slaves.ComputerLauncher} object.
      * @throws hudson.model.Descriptor.FormException if any.
      * @throws java.io.IOException                   if any.
      */
-    public LambdaNode(@Nonnull LambdaCloud cloud, @Nonnull String label, @Nonnull String name, @Nonnull ComputerLauncher launcher)
+    public LambdaNode(@Nonnull LambdaCloud cloud, @Nonnull String label, @Nonnull String name, int numExecutors,
+                      @Nonnull ComputerLauncher launcher)
         throws Descriptor.FormException, IOException {
         // TODO : review
         // - mode : Mode.NORMAL, Mode.EXCLUSIVE
         // - timeout
         // https://javadoc.jenkins.io/hudson/slaves/CloudSlaveRetentionStrategy.html
-        super(name, "AWS Lambda Agent", "/tmp", 1, Mode.NORMAL, label, launcher,
-            new CloudRetentionStrategy(cloud.getAgentTimeout() / 60), Collections.emptyList());
+        super(name, "AWS Lambda Agent", "/tmp", numExecutors, Mode.NORMAL, label, launcher,
+            cloud.getRetentionStrategy(), Collections.emptyList());
         this.cloud = cloud;
     }
 
@@ -0,0 +1,150 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import jenkins.model.Jenkins;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the nodes planned by one {@link LambdaCloud#provision} call in a
+ * single batch, on a single pooled thread.
+ *
+ * The nodes are created first, then added to the node list of Jenkins with one
+ * {@link Jenkins#setNodes(List)} call under the queue lock: the computer list
+ * and the labels are updated once for the whole burst, and no queue maintenance
+ * sees half of it. Each planned node then completes on its own, failing alone
+ * when its node cannot be created. {@link hudson.slaves.NodeProvisioner} adding
+ * a completed node again is a no-op, as it is already registered.
+ */
+final class LambdaNodeRegistration implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaNodeRegistration.class);
+
+    private final LambdaCloud cloud;
+
+    private final List<Pending> pending = new ArrayList<Pending>();
+
+    LambdaNodeRegistration(@Nonnull LambdaCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Adds a node to the batch.
+     *
+     * @param function the function of the agent.
+     * @param nodeName the name of the node.
+     * @param label the label of the agent.
+     * @return the future of the node, for its {@link hudson.slaves.NodeProvisioner.PlannedNode}.
+     */
+    @Nonnull
+    Future<Node> add(@Nonnull LambdaFunction function, @Nonnull String nodeName, @Nonnull String label) {
+        Pending node = new Pending(function, nodeName, label);
+        pending.add(node);
+        return node.future;
+    }
+
+    /**
+     * Registers the nodes of the batch in the background.
+     */
+    void submit() {
+        if (!pending.isEmpty()) {
+            Computer.threadPoolForRemoting.submit(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            register();
+        } catch (RuntimeException e) {
+            for (Pending node : pending) {
+                if (!node.future.isDone()) {
+                    failed(node, e);
+                }
+            }
+        }
+    }
+
+    private void register() {
+        final List<Pending> created = new ArrayList<Pending>();
+        for (Pending node : pending) {
+            try {
+                node.node = new LambdaNode(cloud, node.label, node.nodeName, node.function.getExecutors(),
+                    node.function.getLauncher(cloud));
+                created.add(node);
+            } catch (Exception e) {
+                failed(node, e);
+            }
+        }
+        if (created.isEmpty()) {
+            return;
+        }
+        final Jenkins jenkins = Jenkins.getActiveInstance();
+        final IOException[] saveFailure = new IOException[1];
+        // nodes added or removed meanwhile also take the queue lock, so none is lost
+        Queue.withLock(new Runnable() {
+            @Override
+            public void run() {
+                List<Node> nodes = new ArrayList<Node>(jenkins.getNodes());
+                for (Pending node : created) {
+                    nodes.add(node.node);
+                }
+                try {
+                    jenkins.setNodes(nodes);
+                } catch (IOException e) {
+                    saveFailure[0] = e;
+                }
+            }
+        });
+        if (saveFailure[0] != null) {
+            LOGGER.warn("[AWS Lambda Cloud]: Failed to save the node list after registering {} agent(s)",
+                created.size(), saveFailure[0]);
+        }
+        int registered = 0;
+        for (Pending node : created) {
+            if (jenkins.getNode(node.nodeName) == node.node) {
+                node.future.complete(node.node);
+                registered++;
+            } else {
+                failed(node, saveFailure[0] != null ? saveFailure[0]
+                    : new IllegalStateException("Node " + node.nodeName + " was not registered"));
+            }
+        }
+        LOGGER.debug("[AWS Lambda Cloud]: Registered {} of {} agent(s) in one batch", registered, pending.size());
+    }
+
+    private void failed(Pending node, Exception e) {
+        // the node never made it, give its slot back
+        LOGGER.warn("[AWS Lambda Cloud]: Failed to register agent {}", node.nodeName, e);
+        LambdaAgentTracker.of(cloud.name).removed(node.nodeName);
+        LambdaCapacityAllocator.of(cloud.name).release(node.function.getFunctionName());
+        node.future.completeExceptionally(e);
+    }
+
+    private static final class Pending {
+
+        final LambdaFunction function;
+        final String nodeName;
+        final String label;
+        final CompletableFuture<Node> future = new CompletableFuture<Node>();
+        LambdaNode node;
+
+        Pending(LambdaFunction function, String nodeName, String label) {
+            this.function = function;
+            this.nodeName = nodeName;
+            this.label = label;
+        }
+    }
+}
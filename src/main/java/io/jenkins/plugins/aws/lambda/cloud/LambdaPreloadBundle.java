@@ -0,0 +1,243 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Project;
+import hudson.model.Queue;
+import hudson.remoting.Channel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jenkins.model.Jenkins;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Versioned set of classes commonly used by the builds of a label.
+ *
+ * Freshly started Lambda agents have an empty remoting jar cache, so the first
+ * build step loads its classes one round trip at a time. Pushing the jars holding
+ * these classes right after the agent connects lets the agent load them locally.
+ *
+ * The bundle is learned from the tasks completed on the label, on top of a few
+ * seed classes used by almost every build. Its version is a digest of its
+ * classes, logged with each push, so that agents can be told apart by the
+ * bundle they got.
+ */
+public final class LambdaPreloadBundle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaPreloadBundle.class);
+
+    /**
+     * Classes used agent side by most builds, preloaded when available.
+     */
+    private static final String[] SEED_CLASSES = {
+        "org.jenkinsci.plugins.durabletask.BourneShellScript",
+        "org.jenkinsci.plugins.gitclient.CliGitAPIImpl",
+    };
+
+    /**
+     * Share of the recorded builds a class must be used by to enter the bundle.
+     */
+    private static final double MIN_USAGE_RATIO = 0.2;
+
+    private static final int MAX_TRACKED_CLASSES = 256;
+
+    private static final ConcurrentMap<String, LambdaPreloadBundle> BUNDLES =
+        new ConcurrentHashMap<String, LambdaPreloadBundle>();
+
+    private final String label;
+
+    private final Map<String, Integer> usages = new HashMap<String, Integer>();
+
+    private int builds;
+
+    private List<String> classNames;
+
+    private String version;
+
+    private LambdaPreloadBundle(String label) {
+        this.label = label;
+        rebuild();
+    }
+
+    /**
+     * Get the bundle of a label.
+     *
+     * @param label the label string of the Lambda agents.
+     * @return a {@link LambdaPreloadBundle} object.
+     */
+    @Nonnull
+    public static LambdaPreloadBundle forLabel(@Nonnull String label) {
+        LambdaPreloadBundle bundle = BUNDLES.get(label);
+        if (bundle == null) {
+            LambdaPreloadBundle created = new LambdaPreloadBundle(label);
+            bundle = BUNDLES.putIfAbsent(label, created);
+            if (bundle == null) {
+                bundle = created;
+            }
+        }
+        return bundle;
+    }
+
+    @Nonnull
+    public String getLabel() {
+        return label;
+    }
+
+    @Nonnull
+    public synchronized List<String> getClassNames() {
+        return classNames;
+    }
+
+    /**
+     * Get the version of the bundle, which changes with its classes.
+     *
+     * @return a short digest of the class names.
+     */
+    @Nonnull
+    public synchronized String getVersion() {
+        return version;
+    }
+
+    /**
+     * Records the classes used by a task completed on the label.
+     *
+     * @param task the completed task.
+     */
+    public void record(@Nonnull Queue.Task task) {
+        Set<String> used = new LinkedHashSet<String>();
+        used.add(task.getClass().getName());
+        if (task instanceof AbstractProject) {
+            AbstractProject<?, ?> project = (AbstractProject<?, ?>) task;
+            addClassesOf(used, Collections.singleton(project.getScm()));
+            addClassesOf(used, project.getPublishersList());
+            if (project instanceof Project) {
+                addClassesOf(used, ((Project<?, ?>) project).getBuilders());
+                addClassesOf(used, ((Project<?, ?>) project).getBuildWrappersList());
+            }
+        }
+        record(used);
+    }
+
+    synchronized void record(@Nonnull Collection<String> used) {
+        builds++;
+        for (String className : used) {
+            Integer count = usages.get(className);
+            if (count != null) {
+                usages.put(className, count + 1);
+            } else if (usages.size() < MAX_TRACKED_CLASSES) {
+                usages.put(className, 1);
+            }
+        }
+        rebuild();
+    }
+
+    private void rebuild() {
+        Set<String> names = new TreeSet<String>();
+        Collections.addAll(names, SEED_CLASSES);
+        for (Map.Entry<String, Integer> usage : usages.entrySet()) {
+            if (usage.getValue() >= builds * MIN_USAGE_RATIO) {
+                names.add(usage.getKey());
+            }
+        }
+        List<String> rebuilt = Collections.unmodifiableList(new ArrayList<String>(names));
+        if (!rebuilt.equals(classNames)) {
+            classNames = rebuilt;
+            version = Util.getDigestOf(Util.join(rebuilt, "\n")).substring(0, 8);
+            LOGGER.debug("[AWS Lambda Cloud]: Preload bundle {} of label {} now has {} classes", version, label,
+                rebuilt.size());
+        }
+    }
+
+    /**
+     * Pushes the jars of this bundle to an agent. Jars already in the agent cache
+     * are not transferred again.
+     *
+     * @param channel the channel of the agent.
+     * @return the number of class loaders for which the agent had jars to fetch.
+     * @throws IOException if the transfer failed.
+     * @throws InterruptedException if interrupted.
+     */
+    public int push(@Nonnull Channel channel) throws IOException, InterruptedException {
+        Map<ClassLoader, List<Class<?>>> byLoader = group(getClassNames(),
+            Jenkins.getActiveInstance().getPluginManager().uberClassLoader, Jenkins.class.getClassLoader());
+        int fetched = 0;
+        for (Map.Entry<ClassLoader, List<Class<?>>> entry : byLoader.entrySet()) {
+            List<Class<?>> classes = entry.getValue();
+            if (channel.preloadJar(entry.getKey(), classes.toArray(new Class[classes.size()]))) {
+                fetched++;
+            }
+        }
+        return fetched;
+    }
+
+    /**
+     * Groups classes by class loader, as remote class loaders are per local class
+     * loader. Classes of the core class loader and of its parents are left out.
+     *
+     * @param classNames the names of the classes.
+     * @param from the class loader loading the classes.
+     * @param core the class loader of Jenkins core.
+     * @return the classes by plugin class loader.
+     */
+    @Nonnull
+    static Map<ClassLoader, List<Class<?>>> group(@Nonnull Collection<String> classNames, @Nonnull ClassLoader from,
+                                                   @CheckForNull ClassLoader core) {
+        Map<ClassLoader, List<Class<?>>> byLoader = new LinkedHashMap<ClassLoader, List<Class<?>>>();
+        for (String className : classNames) {
+            try {
+                Class<?> c = from.loadClass(className);
+                ClassLoader loader = c.getClassLoader();
+                if (isCoreOrParent(loader, core)) {
+                    continue;
+                }
+                List<Class<?>> classes = byLoader.get(loader);
+                if (classes == null) {
+                    classes = new ArrayList<Class<?>>();
+                    byLoader.put(loader, classes);
+                }
+                classes.add(c);
+            } catch (ClassNotFoundException | LinkageError e) {
+                LOGGER.debug("[AWS Lambda Cloud]: Not preloading {}: {}", className, e.toString());
+            }
+        }
+        return byLoader;
+    }
+
+    private static boolean isCoreOrParent(@CheckForNull ClassLoader loader, @CheckForNull ClassLoader core) {
+        if (loader == null) {
+            return true;
+        }
+        for (ClassLoader l = core; l != null; l = l.getParent()) {
+            if (l == loader) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addClassesOf(Set<String> used, Iterable<?> describables) {
+        for (Object describable : describables) {
+            if (describable != null) {
+                used.add(describable.getClass().getName());
+            }
+        }
+    }
+}
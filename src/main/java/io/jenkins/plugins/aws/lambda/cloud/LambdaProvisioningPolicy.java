@@ -0,0 +1,352 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.Extension;
+import hudson.ExtensionPoint;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+
+import java.io.Serializable;
+
+import javax.annotation.Nonnull;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Decides how many agents a {@link LambdaCloud} starts for a label, and when.
+ *
+ * A policy sees a read-only {@link Snapshot} of the label and of the cloud and
+ * returns the number of agents it wants. The cloud then applies its hard
+ * limits: throttled regions, quotas and fair share of the
+ * {@link LambdaCapacityAllocator}. Policies are selected per cloud; plugins
+ * may contribute their own by extending this class with a {@link Descriptor}.
+ */
+public abstract class LambdaProvisioningPolicy extends AbstractDescribableImpl<LambdaProvisioningPolicy>
+    implements ExtensionPoint, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Plans the agents to start for a label.
+     *
+     * @param snapshot the state of the label and of the cloud.
+     * @return the number of agents wanted, 0 for none.
+     */
+    public abstract int plan(@Nonnull Snapshot snapshot);
+
+    /**
+     * Whether the executors of the agents slower to connect than the p99
+     * launch latency of their function count as missing rather than on their
+     * way. The provisioning strategy then adds them to the excess workload,
+     * up to the queue length, and consults the cloud even when the agents on
+     * their way cover the queue.
+     *
+     * @return false by default.
+     */
+    public boolean isReplacingStragglers() {
+        return false;
+    }
+
+    /**
+     * Get the number of agents covering a number of executors.
+     */
+    static int agentsFor(int executors, int executorsPerAgent) {
+        return executors <= 0 ? 0 : (executors + executorsPerAgent - 1) / executorsPerAgent;
+    }
+
+    /**
+     * Read-only state of a label and of its cloud at a provisioning decision.
+     */
+    public static final class Snapshot {
+
+        private final String label;
+        private final LambdaFunction function;
+        private final int excessWorkload;
+        private final int queueLength;
+        private final int queuePosition;
+        private final int inFlight;
+        private final int totalInFlight;
+        private final int launching;
+        private final int stragglers;
+        private final int maxConcurrentExecutions;
+        private final long launchLatencyP50;
+        private final long launchLatencyP99;
+        private final long sinceLastProvision;
+        private final long now;
+
+        Snapshot(String label, LambdaFunction function, int excessWorkload, int queueLength, int queuePosition,
+                 int inFlight, int totalInFlight, int launching, int stragglers, int maxConcurrentExecutions,
+                 long launchLatencyP50, long launchLatencyP99, long sinceLastProvision, long now) {
+            this.label = label;
+            this.function = function;
+            this.excessWorkload = excessWorkload;
+            this.queueLength = queueLength;
+            this.queuePosition = queuePosition;
+            this.inFlight = inFlight;
+            this.totalInFlight = totalInFlight;
+            this.launching = launching;
+            this.stragglers = stragglers;
+            this.maxConcurrentExecutions = maxConcurrentExecutions;
+            this.launchLatencyP50 = launchLatencyP50;
+            this.launchLatencyP99 = launchLatencyP99;
+            this.sinceLastProvision = sinceLastProvision;
+            this.now = now;
+        }
+
+        @Nonnull
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Get the function the agents would run on.
+         *
+         * @return a {@link LambdaFunction} object, not to be modified.
+         */
+        @Nonnull
+        public LambdaFunction getFunction() {
+            return function;
+        }
+
+        public int getExecutorsPerAgent() {
+            return function.getExecutors();
+        }
+
+        /**
+         * Get the number of executors missing for the label: queued items not
+         * covered by idle executors nor by executors on their way, the
+         * executors of stragglers included when the policy replaces them.
+         */
+        public int getExcessWorkload() {
+            return excessWorkload;
+        }
+
+        /**
+         * Get the number of buildable items of the label.
+         */
+        public int getQueueLength() {
+            return queueLength;
+        }
+
+        /**
+         * Get the position of the first buildable item of the label in the queue.
+         */
+        public int getQueuePosition() {
+            return queuePosition;
+        }
+
+        /**
+         * Get the agents of the function planned, launching or connected, whatever
+         * the label they were started for: quotas are per function.
+         */
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * Get the agents of the cloud planned, launching or connected.
+         */
+        public int getTotalInFlight() {
+            return totalInFlight;
+        }
+
+        /**
+         * Get the agents of the function planned or invoked, not connected yet.
+         */
+        public int getLaunching() {
+            return launching;
+        }
+
+        /**
+         * Get the launching agents of the label older than the p99 launch
+         * latency of the function, 0 while the latency is unknown.
+         */
+        public int getStragglers() {
+            return stragglers;
+        }
+
+        /**
+         * Get the agents of the function connected.
+         */
+        public int getConnected() {
+            return Math.max(0, inFlight - launching);
+        }
+
+        /**
+         * Get the maximum number of agents of the cloud in flight, 0 for unlimited.
+         */
+        public int getMaxConcurrentExecutions() {
+            return maxConcurrentExecutions;
+        }
+
+        /**
+         * Get the median launch latency of the function in ms, 0 while unknown.
+         */
+        public long getLaunchLatencyP50() {
+            return launchLatencyP50;
+        }
+
+        /**
+         * Get the p99 launch latency of the function in ms, 0 while unknown.
+         */
+        public long getLaunchLatencyP99() {
+            return launchLatencyP99;
+        }
+
+        /**
+         * Get the time in ms since the cloud last started agents.
+         */
+        public long getSinceLastProvision() {
+            return sinceLastProvision;
+        }
+
+        public long getNow() {
+            return now;
+        }
+    }
+
+    /**
+     * The default: the missing executors, at most once every 500ms so that
+     * review requests arriving together do not double-provision.
+     */
+    public static class Conservative extends LambdaProvisioningPolicy {
+
+        private static final long serialVersionUID = 1L;
+
+        static final long COOLDOWN = 500;
+
+        @DataBoundConstructor
+        public Conservative() {
+        }
+
+        @Override
+        public int plan(@Nonnull Snapshot snapshot) {
+            if (snapshot.getSinceLastProvision() < COOLDOWN) {
+                return 0;
+            }
+            return agentsFor(snapshot.getExcessWorkload(), snapshot.getExecutorsPerAgent());
+        }
+
+        @Extension(ordinal = 100)
+        public static class DescriptorImpl extends Descriptor<LambdaProvisioningPolicy> {
+
+            @Override
+            public String getDisplayName() {
+                return "Conservative";
+            }
+        }
+    }
+
+    /**
+     * The missing executors on every review, without cooldown, plus a second
+     * chance for each agent slower to connect than the p99 launch latency of
+     * its function: the executors of a straggler no longer count as on their
+     * way, see {@link #isReplacingStragglers()}.
+     */
+    public static class Aggressive extends LambdaProvisioningPolicy {
+
+        private static final long serialVersionUID = 1L;
+
+        @DataBoundConstructor
+        public Aggressive() {
+        }
+
+        @Override
+        public int plan(@Nonnull Snapshot snapshot) {
+            // the executors of the stragglers are part of the excess workload
+            return agentsFor(snapshot.getExcessWorkload(), snapshot.getExecutorsPerAgent());
+        }
+
+        @Override
+        public boolean isReplacingStragglers() {
+            return true;
+        }
+
+        @Extension(ordinal = 90)
+        public static class DescriptorImpl extends Descriptor<LambdaProvisioningPolicy> {
+
+            @Override
+            public String getDisplayName() {
+                return "Aggressive";
+            }
+        }
+    }
+
+    /**
+     * The missing executors plus some headroom on every review, so that the
+     * builds arriving while agents launch find them ready, at most a number of
+     * agents per review. The headroom is only taken while builds are missing
+     * executors, and the agents it starts count as on their way at the next
+     * review, so it does not add up.
+     */
+    public static class BurstAbsorbing extends LambdaProvisioningPolicy {
+
+        private static final long serialVersionUID = 1L;
+
+        static final int DEFAULT_HEADROOM = 25;
+
+        static final int DEFAULT_MAX_BURST = 50;
+
+        /**
+         * Percentage of the missing executors started on top of them.
+         */
+        private int headroom = DEFAULT_HEADROOM;
+
+        /**
+         * Agents started per review, 0 for unlimited.
+         */
+        private int maxBurst = DEFAULT_MAX_BURST;
+
+        @DataBoundConstructor
+        public BurstAbsorbing() {
+        }
+
+        public int getHeadroom() {
+            return Math.max(0, headroom);
+        }
+
+        @DataBoundSetter
+        public void setHeadroom(int headroom) {
+            this.headroom = headroom;
+        }
+
+        public int getMaxBurst() {
+            return Math.max(0, maxBurst);
+        }
+
+        @DataBoundSetter
+        public void setMaxBurst(int maxBurst) {
+            this.maxBurst = maxBurst;
+        }
+
+        @Override
+        public int plan(@Nonnull Snapshot snapshot) {
+            int missing = snapshot.getExcessWorkload();
+            if (missing <= 0) {
+                return 0;
+            }
+            int agents = agentsFor((int) Math.ceil(missing * (100 + getHeadroom()) / 100.0),
+                snapshot.getExecutorsPerAgent());
+            return getMaxBurst() > 0 ? Math.min(agents, getMaxBurst()) : agents;
+        }
+
+        @Extension(ordinal = 80)
+        public static class DescriptorImpl extends Descriptor<LambdaProvisioningPolicy> {
+
+            @Override
+            public String getDisplayName() {
+                return "Burst Absorbing";
+            }
+
+            public FormValidation doCheckHeadroom(@QueryParameter int value) {
+                return value < 0 ? FormValidation.error("Expected a percentage of 0 or more") : FormValidation.ok();
+            }
+
+            public FormValidation doCheckMaxBurst(@QueryParameter int value) {
+                return value < 0 ? FormValidation.error("Expected 0, for unlimited, or more") : FormValidation.ok();
+            }
+        }
+    }
+}
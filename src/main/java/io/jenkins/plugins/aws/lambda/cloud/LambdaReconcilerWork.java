@@ -0,0 +1,187 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import hudson.slaves.OfflineCause;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.model.Jenkins;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reconciles the agents tracked by each {@link LambdaCloud} with the nodes
+ * actually registered in Jenkins.
+ *
+ * Nodes can go away without their cloud noticing (launch timeouts, restarts,
+ * failed additions), and nodes can show up that their cloud does not know
+ * about. Either way the in-flight counters of the {@link LambdaCapacityAllocator}
+ * and of the {@link LambdaRegionRouter} drift, and the cloud slowly loses usable
+ * capacity. Every minute this work:
+ * <ul>
+ * <li>forgets planned agents whose node never got added,</li>
+ * <li>disconnects and removes Lambda nodes unknown to their cloud,</li>
+ * <li>resets the in-flight counters to the actual agents, reserving the
+ * concurrency of orphaned invocations which may still run,</li>
+ * <li>reports the corrected drift as leaks.</li>
+ * </ul>
+ */
+@Extension
+public class LambdaReconcilerWork extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaReconcilerWork.class);
+
+    /**
+     * How long a planned agent may wait for its node to be added.
+     */
+    static final long PLANNED_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    public LambdaReconcilerWork() {
+        super("AWS Lambda Cloud reconciler");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void execute(TaskListener listener) throws InterruptedException {
+        Jenkins jenkins = Jenkins.getActiveInstance();
+        for (Cloud c : jenkins.clouds) {
+            if (c instanceof LambdaCloud) {
+                reconcile(jenkins, (LambdaCloud) c, System.currentTimeMillis());
+            }
+        }
+    }
+
+    private void reconcile(Jenkins jenkins, LambdaCloud cloud, long now) {
+        LambdaAgentTracker tracker = LambdaAgentTracker.of(cloud.name);
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of(cloud.name);
+        List<LambdaNode> unknown = new ArrayList<LambdaNode>();
+        int orphans;
+        int drift;
+        // provisioning grants slots and tracks their agents under the lock of the
+        // allocator, so that no granted slot is seen without its agent
+        synchronized (allocator) {
+            // the agents are read before the nodes: an agent planned in between
+            // then still counts as planned, instead of as removed behind our back
+            Map<LambdaAgentTracker.Agent, LambdaAgentTracker.Phase> agents = snapshot(tracker);
+            Map<String, LambdaNode> nodes = new HashMap<String, LambdaNode>();
+            for (Node n : jenkins.getNodes()) {
+                if (n instanceof LambdaNode && ((LambdaNode) n).getCloud() != null
+                    && cloud.name.equals(((LambdaNode) n).getCloud().name)) {
+                    nodes.put(n.getNodeName(), (LambdaNode) n);
+                }
+            }
+            Map<String, Integer> functions = reconcileAgents(cloud.name, tracker, agents, nodes.keySet(), now);
+
+            Map<String, Integer> regions = new HashMap<String, Integer>();
+            for (LambdaNode node : nodes.values()) {
+                Computer computer = node.toComputer();
+                if (!tracker.isLive(node.getNodeName())) {
+                    unknown.add(node);
+                    continue;
+                }
+                if (computer instanceof LambdaComputer && ((LambdaComputer) computer).getRegion() != null) {
+                    increment(regions, ((LambdaComputer) computer).getRegion());
+                }
+            }
+
+            orphans = tracker.expireOrphans(now);
+            drift = allocator.reconcile(functions, orphans) + LambdaRegionRouter.of(cloud.name).reconcile(regions);
+        }
+        // removing nodes takes the queue lock, which provisioning holds before the allocator
+        for (LambdaNode node : unknown) {
+            removeUnknown(jenkins, cloud, node, node.toComputer());
+        }
+        if (drift > 0) {
+            tracker.leaked(drift);
+            LOGGER.warn("[AWS Lambda Cloud]: [{}]: Corrected {} leaked in-flight slot(s) ({} orphaned invocation(s), "
+                + "{} leak(s) so far)", cloud.name, drift, orphans, tracker.getLeaks());
+        }
+    }
+
+    /**
+     * Get the tracked agents of a cloud with their phase at this time.
+     *
+     * @param tracker the tracker of the cloud.
+     * @return the phase of each agent.
+     */
+    static Map<LambdaAgentTracker.Agent, LambdaAgentTracker.Phase> snapshot(LambdaAgentTracker tracker) {
+        Map<LambdaAgentTracker.Agent, LambdaAgentTracker.Phase> agents =
+            new LinkedHashMap<LambdaAgentTracker.Agent, LambdaAgentTracker.Phase>();
+        for (LambdaAgentTracker.Agent agent : tracker.getAgents()) {
+            agents.put(agent, agent.phase);
+        }
+        return agents;
+    }
+
+    /**
+     * Drops the tracked agents whose node went away, then counts the others.
+     *
+     * @param cloudName the name of the cloud.
+     * @param tracker the tracker of the cloud.
+     * @param agents the tracked agents, taken before the nodes, see {@link #snapshot(LambdaAgentTracker)}.
+     * @param nodes the names of the Lambda nodes of the cloud.
+     * @param now the current time.
+     * @return the number of agents in flight per function.
+     */
+    static Map<String, Integer> reconcileAgents(String cloudName, LambdaAgentTracker tracker,
+                                                Map<LambdaAgentTracker.Agent, LambdaAgentTracker.Phase> agents,
+                                                Set<String> nodes, long now) {
+        Map<String, Integer> functions = new HashMap<String, Integer>();
+        for (Map.Entry<LambdaAgentTracker.Agent, LambdaAgentTracker.Phase> entry : agents.entrySet()) {
+            LambdaAgentTracker.Agent agent = entry.getKey();
+            if (!nodes.contains(agent.nodeName)) {
+                if (entry.getValue() != LambdaAgentTracker.Phase.PLANNED) {
+                    // removed behind our back
+                    tracker.removed(agent.nodeName);
+                    continue;
+                }
+                if (now - agent.planned > PLANNED_TTL) {
+                    LOGGER.warn("[AWS Lambda Cloud]: [{}]: Planned agent {} never got its node, forgetting it",
+                        cloudName, agent.nodeName);
+                    tracker.forget(agent.nodeName);
+                    continue;
+                }
+            }
+            increment(functions, agent.function);
+        }
+        return functions;
+    }
+
+    private static void removeUnknown(Jenkins jenkins, LambdaCloud cloud, LambdaNode node, Computer computer) {
+        LOGGER.warn("[AWS Lambda Cloud]: [{}]: Removing Lambda agent {} unknown to its cloud", cloud.name,
+            node.getNodeName());
+        if (computer != null && computer.getChannel() != null) {
+            computer.disconnect(new OfflineCause.ByCLI("Unknown AWS Lambda agent"));
+        }
+        try {
+            jenkins.removeNode(node);
+        } catch (IOException e) {
+            LOGGER.warn("[AWS Lambda Cloud]: [{}]: Failed to remove {}: {}", cloud.name, node.getNodeName(),
+                e.getMessage());
+        }
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+}
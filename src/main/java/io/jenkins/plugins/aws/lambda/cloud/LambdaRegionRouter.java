@@ -0,0 +1,255 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Picks the region a function is invoked in, among the cloud region and the
+ * replica regions of the function.
+ *
+ * Each region keeps its in-flight agent count, whether it recently throttled
+ * invocations and its average invoke latency. Ordered functions use the first
+ * region that is not throttling; weighted functions use the region with the
+ * lowest in-flight count relatively to its weight, penalized by its latency.
+ */
+public final class LambdaRegionRouter {
+
+    /**
+     * How long a region is avoided after a throttled invocation.
+     */
+    static final long THROTTLE_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+
+    private static final ConcurrentMap<String, LambdaRegionRouter> ROUTERS =
+        new ConcurrentHashMap<String, LambdaRegionRouter>();
+
+    private final ConcurrentMap<String, RegionState> regions = new ConcurrentHashMap<String, RegionState>();
+
+    private LambdaRegionRouter() {
+    }
+
+    /**
+     * Get the router of a cloud.
+     *
+     * @param cloudName the name of the cloud.
+     * @return a {@link LambdaRegionRouter} object.
+     */
+    @Nonnull
+    public static LambdaRegionRouter of(@Nonnull String cloudName) {
+        LambdaRegionRouter router = ROUTERS.get(cloudName);
+        if (router == null) {
+            LambdaRegionRouter created = new LambdaRegionRouter();
+            router = ROUTERS.putIfAbsent(cloudName, created);
+            if (router == null) {
+                router = created;
+            }
+        }
+        return router;
+    }
+
+    /**
+     * Parses the regions of a function: the cloud region first, then its replicas
+     * written as <code>region</code> or <code>region:weight</code>.
+     *
+     * @param cloudRegion the region of the cloud.
+     * @param replicas the white-space separated replica regions of the function.
+     * @return the regions and their weights, in order.
+     */
+    @Nonnull
+    static Map<String, Integer> parseRegions(@Nonnull String cloudRegion, @CheckForNull String replicas) {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        weights.put(cloudRegion, 1);
+        if (replicas != null) {
+            for (String replica : StringUtils.split(replicas)) {
+                String region = StringUtils.substringBefore(replica, ":");
+                int weight = 1;
+                String w = StringUtils.substringAfter(replica, ":");
+                if (StringUtils.isNumeric(w) && !w.isEmpty()) {
+                    weight = Math.max(1, Integer.parseInt(w));
+                }
+                if (!region.isEmpty()) {
+                    // re-putting the cloud region only changes its weight, it stays first
+                    weights.put(region, weight);
+                }
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Orders the regions of a function by preference for its next invocation.
+     *
+     * @param regionWeights the regions of the function, see {@link #parseRegions(String, String)}.
+     * @param weighted whether to balance by weight instead of using the first available region.
+     * @param now the current time.
+     * @return the regions, most preferred first, throttled ones last.
+     */
+    @Nonnull
+    public List<String> rank(@Nonnull final Map<String, Integer> regionWeights, boolean weighted, final long now) {
+        List<String> available = new ArrayList<String>();
+        List<String> throttled = new ArrayList<String>();
+        for (String region : regionWeights.keySet()) {
+            (state(region).isThrottled(now) ? throttled : available).add(region);
+        }
+        if (weighted) {
+            Collections.sort(available, (a, b) -> Double.compare(
+                state(a).score(regionWeights.get(a)), state(b).score(regionWeights.get(b))));
+        }
+        // the throttled region recovering first comes first
+        Collections.sort(throttled, (a, b) -> Long.compare(state(a).throttledUntil, state(b).throttledUntil));
+        available.addAll(throttled);
+        return available;
+    }
+
+    /**
+     * Whether all the given regions are throttling, in which case new agents
+     * would only queue up behind the throttles.
+     *
+     * @param regions regions of a function.
+     * @param now the current time.
+     * @return true if no region is available.
+     */
+    public boolean isSaturated(@Nonnull Collection<String> regions, long now) {
+        for (String region : regions) {
+            if (!state(region).isThrottled(now)) {
+                return false;
+            }
+        }
+        return !regions.isEmpty();
+    }
+
+    /**
+     * Records a successful invocation.
+     *
+     * @param region the region of the invocation.
+     * @param latencyMs the invoke call duration.
+     */
+    public void invoked(@Nonnull String region, long latencyMs) {
+        state(region).invoked(latencyMs);
+    }
+
+    /**
+     * Records a throttled invocation.
+     *
+     * @param region the region of the invocation.
+     * @param now the current time.
+     */
+    public void throttled(@Nonnull String region, long now) {
+        RegionState state = state(region);
+        state.throttledUntil = now + THROTTLE_BACKOFF;
+        state.throttles.incrementAndGet();
+    }
+
+    /**
+     * Records the end of an agent invoked in a region.
+     *
+     * @param region the region of the invocation.
+     */
+    public void released(@Nonnull String region) {
+        state(region).released();
+    }
+
+    /**
+     * Replaces the in-flight counters by the actual agents of the cloud.
+     *
+     * @param actual the actual agents in flight per region.
+     * @return the total drift that was corrected.
+     */
+    public int reconcile(@Nonnull Map<String, Integer> actual) {
+        int drift = 0;
+        for (Map.Entry<String, RegionState> entry : regions.entrySet()) {
+            Integer count = actual.get(entry.getKey());
+            drift += entry.getValue().reset(count == null ? 0 : count);
+        }
+        for (Map.Entry<String, Integer> entry : actual.entrySet()) {
+            if (!regions.containsKey(entry.getKey())) {
+                drift += state(entry.getKey()).reset(entry.getValue());
+            }
+        }
+        return drift;
+    }
+
+    public int getInFlight(@Nonnull String region) {
+        return state(region).inFlight;
+    }
+
+    public boolean isThrottled(@Nonnull String region, long now) {
+        return state(region).isThrottled(now);
+    }
+
+    /**
+     * Get the number of throttled invocations in a region.
+     *
+     * @param region a region.
+     * @return a long.
+     */
+    public long getThrottles(@Nonnull String region) {
+        return state(region).throttles.get();
+    }
+
+    public long getLatencyMs(@Nonnull String region) {
+        return (long) state(region).latencyMs;
+    }
+
+    private RegionState state(String region) {
+        RegionState state = regions.get(region);
+        if (state == null) {
+            state = new RegionState();
+            RegionState existing = regions.putIfAbsent(region, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+        return state;
+    }
+
+    private static final class RegionState {
+
+        private volatile int inFlight;
+
+        private volatile double latencyMs;
+
+        private volatile long throttledUntil;
+
+        private final AtomicLong throttles = new AtomicLong();
+
+        boolean isThrottled(long now) {
+            return now < throttledUntil;
+        }
+
+        synchronized void invoked(long latency) {
+            inFlight++;
+            // exponentially weighted, recent invocations count most
+            latencyMs = latencyMs == 0 ? latency : 0.8 * latencyMs + 0.2 * latency;
+        }
+
+        synchronized void released() {
+            if (inFlight > 0) {
+                inFlight--;
+            }
+        }
+
+        synchronized int reset(int actual) {
+            int drift = Math.abs(inFlight - actual);
+            inFlight = actual;
+            return drift;
+        }
+
+        double score(int weight) {
+            // one second of invoke latency weighs as much as one agent in flight
+            return (inFlight + 1 + latencyMs / 1000) / weight;
+        }
+    }
+}
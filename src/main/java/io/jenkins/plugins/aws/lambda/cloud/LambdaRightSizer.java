@@ -0,0 +1,459 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Routes each job to the variant of its label that suits it, when several
+ * functions of different memory sizes serve the same label.
+ *
+ * The variants of a label are ordered by memory size, hence by CPU share. A
+ * job goes to the smallest variant that fits its observed peak memory with
+ * some headroom, and that runs it within its duration target: its duration on
+ * the default variant, the first one of the label, plus a tolerance, capped
+ * below the AWS Lambda time limit. Variants a job never ran on are tried from
+ * the smallest up, except those no larger than a variant already too slow
+ * for it. A job whose agent is lost while running counts as too slow for that
+ * variant, which covers functions running out of memory.
+ *
+ * Job profiles are kept in memory for the most recent jobs only.
+ */
+public final class LambdaRightSizer {
+
+    /**
+     * Memory kept above the observed peak of a job.
+     */
+    static final double MEMORY_HEADROOM = 1.25;
+
+    /**
+     * How much slower than on the default variant a job may run.
+     */
+    static final double DURATION_TOLERANCE = 0.2;
+
+    /**
+     * Longest duration targeted for a job, below the AWS Lambda time limit.
+     */
+    static final long MAX_DURATION = TimeUnit.MINUTES.toMillis(12);
+
+    /**
+     * Time after which a job may run on a variant smaller than its own rather
+     * than keep waiting.
+     */
+    static final long MAX_WAIT = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAX_PROFILES = 10000;
+
+    private static final Map<String, Profile> PROFILES = new LinkedHashMap<String, Profile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Profile> eldest) {
+            return size() > MAX_PROFILES;
+        }
+    };
+
+    private LambdaRightSizer() {
+    }
+
+    /**
+     * Get the key of the profile of a task: the job it belongs to.
+     *
+     * @param task a queued or running task.
+     * @return the URL of the job.
+     */
+    @Nonnull
+    static String key(@Nonnull Queue.Task task) {
+        return task.getOwnerTask().getUrl();
+    }
+
+    /**
+     * Get the profile of a job.
+     *
+     * @param key the key of the job.
+     * @return the {@link Profile}, null when the job never ran on a variant.
+     */
+    @CheckForNull
+    static Profile getProfile(@Nonnull String key) {
+        synchronized (PROFILES) {
+            return PROFILES.get(key);
+        }
+    }
+
+    @Nonnull
+    private static Profile profile(@Nonnull String key) {
+        synchronized (PROFILES) {
+            Profile profile = PROFILES.get(key);
+            if (profile == null) {
+                profile = new Profile();
+                PROFILES.put(key, profile);
+            }
+            return profile;
+        }
+    }
+
+    /**
+     * Records a run of a job on a function.
+     *
+     * @param key the key of the job.
+     * @param function the function name.
+     * @param durationMs the duration of the run.
+     * @param peakMemoryMb the peak memory of the agent during the run, 0 if unknown.
+     */
+    static void completed(@Nonnull String key, @Nonnull String function, long durationMs, long peakMemoryMb) {
+        profile(key).completed(function, durationMs, peakMemoryMb);
+    }
+
+    /**
+     * Records a run of a job lost with its agent.
+     *
+     * @param key the key of the job.
+     * @param function the function name.
+     */
+    static void lost(@Nonnull String key, @Nonnull String function) {
+        profile(key).completed(function, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * Whether functions form variants of one another: there are several, and
+     * all have a memory size.
+     */
+    static boolean isLadder(@Nonnull List<LambdaFunction> functions) {
+        if (functions.size() < 2) {
+            return false;
+        }
+        for (LambdaFunction function : functions) {
+            if (function.getMemorySize() <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Selects the variant of a job.
+     *
+     * @param ladder the variants of the label, the default one first.
+     * @param profile the profile of the job, null if it has none.
+     * @return the selected variant.
+     */
+    @Nonnull
+    static LambdaFunction select(@Nonnull List<LambdaFunction> ladder, @CheckForNull Profile profile) {
+        LambdaFunction fallback = ladder.get(0);
+        if (profile == null || !isLadder(ladder)) {
+            return fallback;
+        }
+        synchronized (profile) {
+            Long baseline = profile.durations.get(fallback.getFunctionName());
+            if (baseline == null || baseline == Long.MAX_VALUE) {
+                baseline = profile.fastest();
+            }
+            if (baseline == null) {
+                return fallback;
+            }
+            long target = Math.min((long) (baseline * (1 + DURATION_TOLERANCE)), MAX_DURATION);
+            long required = (long) Math.ceil(profile.peakMemoryMb * MEMORY_HEADROOM);
+
+            List<LambdaFunction> sorted = new ArrayList<LambdaFunction>(ladder);
+            Collections.sort(sorted, (a, b) -> Integer.compare(a.getMemorySize(), b.getMemorySize()));
+            int tooSlow = 0;
+            for (LambdaFunction function : sorted) {
+                Long duration = profile.durations.get(function.getFunctionName());
+                if (duration != null && duration > target) {
+                    tooSlow = Math.max(tooSlow, function.getMemorySize());
+                }
+            }
+            for (LambdaFunction function : sorted) {
+                if (function.getMemorySize() < required) {
+                    continue;
+                }
+                Long duration = profile.durations.get(function.getFunctionName());
+                if (duration != null ? duration <= target : function.getMemorySize() > tooSlow) {
+                    return function;
+                }
+            }
+            return sorted.get(sorted.size() - 1);
+        }
+    }
+
+    /**
+     * Splits the workload of a label over its variants, following the jobs of
+     * the newest buildable items of the label.
+     *
+     * @param ladder the variants of the label, the default one first.
+     * @param tasks the tasks of the buildable items of the label, in queue order.
+     * @param excessWorkload the number of executors missing for the label.
+     * @return the workload of each variant, in ladder order, without zeros.
+     */
+    @Nonnull
+    static Map<LambdaFunction, Integer> split(@Nonnull List<LambdaFunction> ladder, @Nonnull List<String> tasks,
+                                              int excessWorkload) {
+        Map<LambdaFunction, Integer> workloads = new HashMap<LambdaFunction, Integer>();
+        int assigned = 0;
+        for (int i = Math.max(0, tasks.size() - excessWorkload); i < tasks.size(); i++) {
+            LambdaFunction variant = select(ladder, getProfile(tasks.get(i)));
+            Integer workload = workloads.get(variant);
+            workloads.put(variant, workload == null ? 1 : workload + 1);
+            assigned++;
+        }
+        if (assigned < excessWorkload) {
+            Integer workload = workloads.get(ladder.get(0));
+            workloads.put(ladder.get(0), (workload == null ? 0 : workload) + excessWorkload - assigned);
+        }
+        Map<LambdaFunction, Integer> result = new LinkedHashMap<LambdaFunction, Integer>();
+        for (LambdaFunction function : ladder) {
+            Integer workload = workloads.get(function);
+            if (workload != null) {
+                result.put(function, workload);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * What a job is known to need.
+     */
+    static final class Profile {
+
+        /**
+         * Smoothed duration of the runs on each function, by function name.
+         */
+        private final Map<String, Long> durations = new HashMap<String, Long>();
+
+        /**
+         * Peak memory of the runs, following rises at once and falls slowly.
+         */
+        private long peakMemoryMb;
+
+        synchronized void completed(String function, long durationMs, long peakMb) {
+            Long previous = durations.get(function);
+            if (previous == null || previous == Long.MAX_VALUE || durationMs == Long.MAX_VALUE) {
+                durations.put(function, durationMs);
+            } else {
+                durations.put(function, (previous * 7 + durationMs * 3) / 10);
+            }
+            if (peakMb > 0) {
+                peakMemoryMb = Math.max(peakMb, (peakMemoryMb + peakMb) / 2);
+            }
+        }
+
+        synchronized Long fastest() {
+            Long fastest = null;
+            for (long duration : durations.values()) {
+                if (duration != Long.MAX_VALUE && (fastest == null || duration < fastest)) {
+                    fastest = duration;
+                }
+            }
+            return fastest;
+        }
+
+        synchronized long getPeakMemoryMb() {
+            return peakMemoryMb;
+        }
+
+        @CheckForNull
+        synchronized Long getDuration(String function) {
+            return durations.get(function);
+        }
+    }
+
+    /**
+     * Watches the peak memory used in the execution environment of an agent
+     * while a task runs, the agent JVM and the processes of the build together.
+     *
+     * AWS Lambda reports the maximum memory used by an invocation only once it
+     * ends and exposes no memory control group, while the high-water mark of the
+     * agent JVM misses the processes it forks. So the first call starts sampling
+     * the memory used by the whole environment, total minus available in
+     * <code>/proc/meminfo</code>. A call made when an executor starts a task
+     * resets the peak of that executor, and the call made when the task completes
+     * returns the highest sample since, so that a task does not inherit the peak
+     * of the tasks the agent ran before. Peaks shorter than {@link #SAMPLE_PERIOD}
+     * may be missed, the page cache reclaimable only in part counts as used, and
+     * tasks running side by side on several executors see each other's memory,
+     * which errs on the side of larger variants. 0 is returned when the
+     * environment does not tell.
+     */
+    static final class PeakMemory extends MasterToSlaveCallable<Long, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        static final long SAMPLE_PERIOD = 250;
+
+        private static final Path MEMINFO = Paths.get("/proc/meminfo");
+
+        /**
+         * Peak since the start of the task of each executor.
+         */
+        private static final ConcurrentMap<Integer, AtomicLong> PEAKS = new ConcurrentHashMap<Integer, AtomicLong>();
+
+        private static Thread sampler;
+
+        private final int executor;
+
+        private final boolean start;
+
+        /**
+         * Constructor for PeakMemory.
+         *
+         * @param executor the number of the executor running the task.
+         * @param start true when the task starts, false when it completed.
+         */
+        PeakMemory(int executor, boolean start) {
+            this.executor = executor;
+            this.start = start;
+        }
+
+        @Override
+        public Long call() throws IOException {
+            watch();
+            long usedMb = sample();
+            if (start) {
+                start(executor, usedMb);
+                return usedMb;
+            }
+            return read(executor);
+        }
+
+        private static synchronized void watch() {
+            if (sampler != null || !Files.isReadable(MEMINFO)) {
+                return;
+            }
+            sampler = new Thread("AWS Lambda Cloud memory sampler") {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            sample();
+                            Thread.sleep(SAMPLE_PERIOD);
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        // the agent goes away, or cannot tell
+                    }
+                }
+            };
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+
+        private static long sample() throws IOException {
+            if (!Files.isReadable(MEMINFO)) {
+                return 0;
+            }
+            long usedMb = usedMb(Files.readAllLines(MEMINFO, StandardCharsets.US_ASCII));
+            record(usedMb);
+            return usedMb;
+        }
+
+        /**
+         * Resets the peak of an executor starting a task.
+         */
+        static void start(int executor, long usedMb) {
+            PEAKS.put(executor, new AtomicLong(usedMb));
+        }
+
+        /**
+         * Raises the peak of every task running to a sample.
+         */
+        static void record(long usedMb) {
+            for (AtomicLong peak : PEAKS.values()) {
+                long known;
+                do {
+                    known = peak.get();
+                } while (usedMb > known && !peak.compareAndSet(known, usedMb));
+            }
+        }
+
+        /**
+         * Get the peak of the task an executor completed, and stop tracking it.
+         *
+         * @return a size in MB, 0 if the start of the task was not seen.
+         */
+        static long read(int executor) {
+            AtomicLong peak = PEAKS.remove(executor);
+            return peak != null ? peak.get() : 0;
+        }
+
+        /**
+         * Get the memory used out of the lines of <code>/proc/meminfo</code>.
+         *
+         * @return a size in MB, 0 if unknown.
+         */
+        static long usedMb(@Nonnull List<String> meminfo) {
+            long total = -1;
+            long available = -1;
+            for (String line : meminfo) {
+                if (line.startsWith("MemTotal:")) {
+                    total = kb(line.substring("MemTotal:".length()));
+                } else if (line.startsWith("MemAvailable:")) {
+                    available = kb(line.substring("MemAvailable:".length()));
+                }
+            }
+            return total > 0 && available >= 0 ? Math.max(0, total - available) / 1024 : 0;
+        }
+
+        private static long kb(String value) {
+            try {
+                return Long.parseLong(value.replace("kB", "").trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Keeps jobs off variants smaller than their own, for a while.
+     */
+    @Extension
+    public static class Dispatcher extends QueueTaskDispatcher {
+
+        @Override
+        public CauseOfBlockage canTake(Node node, Queue.BuildableItem item) {
+            if (!(node instanceof LambdaNode)
+                || !(((LambdaNode) node).getLauncher() instanceof LambdaComputerLauncher)
+                || System.currentTimeMillis() - item.buildableStartMilliseconds >= MAX_WAIT) {
+                return null;
+            }
+            LambdaNode lambdaNode = (LambdaNode) node;
+            LambdaFunction function = ((LambdaComputerLauncher) lambdaNode.getLauncher()).getFunction();
+            List<LambdaFunction> ladder = lambdaNode.getCloud().getLadder(
+                Jenkins.getActiveInstance().getLabel(lambdaNode.getLabelString()));
+            if (!isLadder(ladder)) {
+                return null;
+            }
+            final LambdaFunction variant = select(ladder, getProfile(key(item.task)));
+            if (variant.getMemorySize() <= function.getMemorySize()) {
+                return null;
+            }
+            return new CauseOfBlockage() {
+                @Override
+                public String getShortDescription() {
+                    return "Waiting for an AWS Lambda agent of " + variant.getFunctionName() + " ("
+                        + variant.getMemorySize() + " MB)";
+                }
+            };
+        }
+    }
+}
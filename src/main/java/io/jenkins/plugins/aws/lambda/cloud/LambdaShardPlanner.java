@@ -0,0 +1,180 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Splits work items, e.g. test classes or files, into shards of balanced
+ * duration, using their historical timings.
+ *
+ * Items are placed longest first, each on the shard with the least estimated
+ * duration so far. When the longest shard would not fit within the allowed
+ * shard duration, more shards are used, up to one per item and at most
+ * {@link #MAX_SHARDS} unless more were asked for. An item too long on its own
+ * is left alone on its shard: more shards would not shorten it.
+ */
+public final class LambdaShardPlanner {
+
+    /**
+     * Duration of items without timings when no item has any.
+     */
+    static final long DEFAULT_ITEM_MS = 1000;
+
+    /**
+     * Most shards used to fit within the shard duration, each one being an agent.
+     */
+    static final int MAX_SHARDS = 50;
+
+    private final Map<String, Long> timings;
+
+    private final long maxShardMs;
+
+    /**
+     * @param timings the known durations of the items, in milliseconds.
+     * @param maxShardMs the longest a shard may take, 0 for no limit.
+     */
+    public LambdaShardPlanner(@Nonnull Map<String, Long> timings, long maxShardMs) {
+        this.timings = timings;
+        this.maxShardMs = maxShardMs;
+    }
+
+    /**
+     * Parses timings written one item per line as <code>item ms</code> or
+     * <code>item=ms</code>, with optional spaces around the <code>=</code>.
+     * Lines with a <code>=</code> are split on the first one, other lines on
+     * their last blank, so that item names may contain spaces. Malformed
+     * lines are ignored.
+     *
+     * @param text the timings.
+     * @return the durations of the items, in milliseconds.
+     */
+    @Nonnull
+    public static Map<String, Long> parseTimings(@CheckForNull String text) {
+        Map<String, Long> timings = new HashMap<String, Long>();
+        if (text == null) {
+            return timings;
+        }
+        for (String line : StringUtils.split(text, "\r\n")) {
+            String trimmed = line.trim();
+            int separator = trimmed.indexOf('=');
+            if (separator < 0) {
+                separator = StringUtils.lastIndexOfAny(trimmed, new String[] {" ", "\t"});
+            }
+            if (separator <= 0) {
+                continue;
+            }
+            String item = trimmed.substring(0, separator).trim();
+            String value = trimmed.substring(separator + 1).trim();
+            if (!item.isEmpty() && !value.isEmpty() && StringUtils.isNumeric(value)) {
+                timings.put(item, Long.parseLong(value));
+            }
+        }
+        return timings;
+    }
+
+    /**
+     * Get the estimated duration of an item: its timing, or the mean timing of
+     * the known items.
+     */
+    long estimate(@Nonnull String item, long unknownMs) {
+        Long ms = timings.get(item);
+        return ms != null ? ms : unknownMs;
+    }
+
+    /**
+     * Splits items into at least the given number of shards.
+     *
+     * @param items the items.
+     * @param shards the wanted number of shards.
+     * @return the shards, each a list of items; never more shards than items, none without items.
+     */
+    @Nonnull
+    public List<Shard> plan(@Nonnull Collection<String> items, int shards) {
+        if (items.isEmpty()) {
+            return new ArrayList<Shard>();
+        }
+        long unknownMs = DEFAULT_ITEM_MS;
+        if (!timings.isEmpty()) {
+            long total = 0;
+            for (long ms : timings.values()) {
+                total += ms;
+            }
+            unknownMs = Math.max(1, total / timings.size());
+        }
+        final long unknown = unknownMs;
+        List<String> sorted = new ArrayList<String>(items);
+        Collections.sort(sorted, (a, b) -> Long.compare(estimate(b, unknown), estimate(a, unknown)));
+
+        int count = Math.max(1, Math.min(shards, sorted.size()));
+        if (maxShardMs <= 0) {
+            return assign(sorted, count, unknown);
+        }
+        int limit = Math.min(sorted.size(), Math.max(count, MAX_SHARDS));
+        long total = 0;
+        for (String item : sorted) {
+            total += estimate(item, unknown);
+        }
+        // fewer shards cannot fit, start there rather than adding them one at a time
+        count = (int) Math.min(limit, Math.max(count, (total + maxShardMs - 1) / maxShardMs));
+        List<Shard> plan = assign(sorted, count, unknown);
+        while (count < limit && plan.get(0).getEstimatedMs() > maxShardMs && plan.get(0).getItems().size() > 1) {
+            count++;
+            plan = assign(sorted, count, unknown);
+        }
+        return plan;
+    }
+
+    /**
+     * Longest processing time first. Returns the shards, longest first.
+     */
+    private List<Shard> assign(List<String> sorted, int count, long unknown) {
+        PriorityQueue<Shard> shards = new PriorityQueue<Shard>(count,
+            (a, b) -> a.estimatedMs != b.estimatedMs ? Long.compare(a.estimatedMs, b.estimatedMs)
+                : Integer.compare(a.index, b.index));
+        for (int i = 0; i < count; i++) {
+            shards.add(new Shard(i));
+        }
+        for (String item : sorted) {
+            Shard shard = shards.poll();
+            shard.items.add(item);
+            shard.estimatedMs += estimate(item, unknown);
+            shards.add(shard);
+        }
+        List<Shard> plan = new ArrayList<Shard>(shards);
+        Collections.sort(plan, (a, b) -> Long.compare(b.estimatedMs, a.estimatedMs));
+        return plan;
+    }
+
+    /**
+     * A shard of items.
+     */
+    public static final class Shard {
+
+        private final int index;
+        private final List<String> items = new ArrayList<String>();
+        private long estimatedMs;
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        @Nonnull
+        public List<String> getItems() {
+            return items;
+        }
+
+        public long getEstimatedMs() {
+            return estimatedMs;
+        }
+    }
+}
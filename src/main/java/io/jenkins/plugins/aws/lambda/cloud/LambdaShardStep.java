@@ -0,0 +1,228 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import com.google.inject.Inject;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProvisioner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * <code>lambdaShard</code> pipeline step: splits work items into shards of
+ * balanced duration and provisions one Lambda agent per shard in one burst.
+ *
+ * The step returns the shards, a list of lists of items, to be run by the
+ * <code>parallel</code> and <code>node</code> steps:
+ * <pre>
+ * def shards = lambdaShard label: 'lambda', shards: 8, items: tests, timings: readFile('timings.txt')
+ * def branches = [:]
+ * for (int i = 0; i &lt; shards.size(); i++) {
+ *     def items = shards[i]
+ *     branches["shard-${i}"] = { node('lambda') { sh "run-tests ${items.join(' ')}" } }
+ * }
+ * parallel branches
+ * </pre>
+ */
+public class LambdaShardStep extends AbstractStepImpl {
+
+    /**
+     * Default longest shard duration, leaving a minute of the Lambda time limit
+     * for the agent to start and report.
+     */
+    static final int DEFAULT_MAX_SHARD_SECONDS = (int) TimeUnit.MINUTES.toSeconds(14);
+
+    @Nonnull
+    private final String label;
+
+    private final int shards;
+
+    @Nonnull
+    private List<String> items = Collections.emptyList();
+
+    @CheckForNull
+    private String timings;
+
+    private int maxShardSeconds;
+
+    private boolean provision = true;
+
+    @DataBoundConstructor
+    public LambdaShardStep(@Nonnull String label, int shards) {
+        this.label = label;
+        this.shards = shards;
+    }
+
+    @Nonnull
+    public String getLabel() {
+        return label;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    @Nonnull
+    public List<String> getItems() {
+        return items;
+    }
+
+    /**
+     * Setter for the field <code>items</code>.
+     *
+     * @param items the work items to split, e.g. test classes or files.
+     */
+    @DataBoundSetter
+    public void setItems(List<String> items) {
+        this.items = items != null ? new ArrayList<String>(items) : Collections.<String> emptyList();
+    }
+
+    @CheckForNull
+    public String getTimings() {
+        return timings;
+    }
+
+    /**
+     * Setter for the field <code>timings</code>.
+     *
+     * @param timings the durations of the items, one <code>item ms</code> per line.
+     */
+    @DataBoundSetter
+    public void setTimings(String timings) {
+        this.timings = timings;
+    }
+
+    public int getMaxShardSeconds() {
+        return maxShardSeconds <= 0 ? DEFAULT_MAX_SHARD_SECONDS : maxShardSeconds;
+    }
+
+    @DataBoundSetter
+    public void setMaxShardSeconds(int maxShardSeconds) {
+        this.maxShardSeconds = maxShardSeconds;
+    }
+
+    public boolean isProvision() {
+        return provision;
+    }
+
+    @DataBoundSetter
+    public void setProvision(boolean provision) {
+        this.provision = provision;
+    }
+
+    public static class Execution extends AbstractSynchronousNonBlockingStepExecution<List<List<String>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Inject
+        private transient LambdaShardStep step;
+
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        @Override
+        protected List<List<String>> run() throws Exception {
+            if (step.getShards() <= 0) {
+                throw new AbortException("lambdaShard: shards must be positive");
+            }
+            Map<String, Long> timings = LambdaShardPlanner.parseTimings(step.getTimings());
+            LambdaShardPlanner planner = new LambdaShardPlanner(timings,
+                TimeUnit.SECONDS.toMillis(step.getMaxShardSeconds()));
+            List<LambdaShardPlanner.Shard> plan = planner.plan(step.getItems(), step.getShards());
+
+            List<List<String>> result = new ArrayList<List<String>>();
+            for (LambdaShardPlanner.Shard shard : plan) {
+                result.add(new ArrayList<String>(shard.getItems()));
+                if (step.getMaxShardSeconds() > 0
+                    && shard.getEstimatedMs() > TimeUnit.SECONDS.toMillis(step.getMaxShardSeconds())) {
+                    if (shard.getItems().size() == 1) {
+                        listener.getLogger().printf("[AWS Lambda Cloud] Item %s alone is estimated at %ds, it cannot "
+                                + "fit the %ds limit%n", shard.getItems().get(0),
+                            TimeUnit.MILLISECONDS.toSeconds(shard.getEstimatedMs()), step.getMaxShardSeconds());
+                    } else {
+                        listener.getLogger().printf("[AWS Lambda Cloud] Shard %d is estimated at %ds, over the %ds "
+                                + "limit%n", result.size(), TimeUnit.MILLISECONDS.toSeconds(shard.getEstimatedMs()),
+                            step.getMaxShardSeconds());
+                    }
+                }
+            }
+            listener.getLogger().printf("[AWS Lambda Cloud] %d item(s) split into %d shard(s), %d with timings, "
+                    + "longest estimated at %ds%n", step.getItems().size(), result.size(),
+                countTimed(step.getItems(), timings),
+                plan.isEmpty() ? 0 : TimeUnit.MILLISECONDS.toSeconds(plan.get(0).getEstimatedMs()));
+            if (step.isProvision() && !result.isEmpty()) {
+                provision(step.getLabel(), result.size());
+            }
+            return result;
+        }
+
+        private static int countTimed(Collection<String> items, Map<String, Long> timings) {
+            int count = 0;
+            for (String item : items) {
+                if (timings.containsKey(item)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Starts the agents of all shards at once, instead of letting the
+         * NodeProvisioner ramp up as the shards queue up. The agents are
+         * handed over to the provisioner, which counts them as on their way
+         * when the shards queue up.
+         */
+        private void provision(String labelString, int agents) {
+            Jenkins jenkins = Jenkins.getActiveInstance();
+            Label label = jenkins.getLabel(labelString);
+            for (Cloud cloud : jenkins.clouds) {
+                if (cloud instanceof LambdaCloud && cloud.canProvision(label)) {
+                    Collection<NodeProvisioner.PlannedNode> planned = cloud.provision(label, agents);
+                    LambdaCloudProvisionerStrategy.handOff(label, planned);
+                    listener.getLogger().printf("[AWS Lambda Cloud] Provisioning %d agent(s) for label '%s' in %s%n",
+                        planned.size(), labelString, cloud.name);
+                    return;
+                }
+            }
+            listener.getLogger().printf("[AWS Lambda Cloud] No Lambda cloud serves label '%s'%n", labelString);
+        }
+    }
+
+    @Extension(optional = true)
+    public static class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "lambdaShard";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Split work into shards run on AWS Lambda agents";
+        }
+    }
+}
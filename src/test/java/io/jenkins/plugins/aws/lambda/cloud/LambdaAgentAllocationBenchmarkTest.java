@@ -0,0 +1,115 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bytes allocated on the controller per provisioned agent, for the per-agent
+ * work the plugin does besides the Jenkins node itself: launcher and regions
+ * lookup, lifecycle tracking and capacity accounting, compared to the node.
+ * The numbers are reported, not asserted: sharing is checked by identity.
+ */
+public class LambdaAgentAllocationBenchmarkTest {
+
+    private static final int AGENTS = 20000;
+
+    private static final int NODES = 1000;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private static com.sun.management.ThreadMXBean threads() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(sunThreads.isThreadAllocatedMemorySupported());
+        sunThreads.setThreadAllocatedMemoryEnabled(true);
+        return sunThreads;
+    }
+
+    private static long allocated(com.sun.management.ThreadMXBean threads) {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void launcherAndRegionsAreShared() throws Exception {
+        LambdaCloud cloud = new LambdaCloud("flyweight", null, "eu-west-1");
+        LambdaFunction function = new LambdaFunction("func", "lambda");
+        function.setReplicaRegions("eu-central-1:2");
+        assertSame(function.getLauncher(cloud), function.getLauncher(cloud));
+        assertSame(cloud.getRegions(function), cloud.getRegions(function));
+        assertSame(cloud.getRetentionStrategy(), cloud.getRetentionStrategy());
+
+        function.setReplicaRegions("us-east-1");
+        assertTrue(cloud.getRegions(function).containsKey("us-east-1"));
+        LambdaCloud other = new LambdaCloud("flyweight-other", null, "eu-west-1");
+        assertSame(other, function.getLauncher(other).getCloud());
+    }
+
+    @Test
+    public void bytesPerProvisionedAgent() throws Exception {
+        com.sun.management.ThreadMXBean threads = threads();
+        LambdaCloud cloud = new LambdaCloud("allocation", null, "eu-west-1");
+        LambdaFunction function = new LambdaFunction("func", "lambda");
+        function.setReplicaRegions("eu-central-1");
+        String[] names = new String[AGENTS];
+        for (int i = 0; i < AGENTS; i++) {
+            names[i] = "lambda.lambda-" + i;
+        }
+
+        // warm up, then measure
+        provision(cloud, function, names);
+        long before = allocated(threads);
+        provision(cloud, function, names);
+        long perAgent = (allocated(threads) - before) / AGENTS;
+
+        before = allocated(threads);
+        for (String name : names) {
+            function.getLauncher(cloud);
+            cloud.getRegions(function);
+        }
+        long lookups = allocated(threads) - before;
+
+        before = allocated(threads);
+        for (int i = 0; i < AGENTS; i++) {
+            new LambdaComputerLauncher(cloud, function);
+            LambdaRegionRouter.parseRegions(cloud.getRegion(), function.getReplicaRegions());
+        }
+        long perAgentObjects = (allocated(threads) - before) / AGENTS;
+
+        new LambdaNode(cloud, "lambda", "lambda.lambda-warmup", 1, function.getLauncher(cloud));
+        before = allocated(threads);
+        for (int i = 0; i < NODES; i++) {
+            new LambdaNode(cloud, "lambda", names[i], 1, function.getLauncher(cloud));
+        }
+        long perNode = (allocated(threads) - before) / NODES;
+
+        // allocations depend on the JVM and the JIT, they are reported only
+        System.out.println("Per provisioned agent: " + perAgent + " bytes of tracking and accounting, "
+            + lookups / AGENTS + " bytes of shared lookups instead of " + perAgentObjects
+            + " bytes for its own launcher and regions, against " + perNode + " bytes for the node");
+    }
+
+    private static void provision(LambdaCloud cloud, LambdaFunction function, String[] names) {
+        LambdaAgentTracker tracker = LambdaAgentTracker.of(cloud.name);
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of(cloud.name);
+        long now = System.currentTimeMillis();
+        for (String name : names) {
+            allocator.allocate("lambda", function, 1, 0, 0, now);
+            tracker.planned(name, "lambda", function.getFunctionName(), now);
+            function.getLauncher(cloud);
+            cloud.getRegions(function);
+            tracker.invoked(name, now);
+            tracker.connected(name, now, 1000);
+            tracker.removed(name);
+            allocator.release(function.getFunctionName());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import net.sf.json.JSONObject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.*;
+
+public class LambdaAgentPayloadTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void renderEscapesNodeFields() {
+        LambdaAgentPayload.Template template = new LambdaAgentPayload("http://jenkins:8080/").toTemplate();
+        JSONObject json = JSONObject.fromObject(template.render("s\"e\\cret", "label.lambda-abc"));
+        assertEquals("http://jenkins:8080/", json.getString("url"));
+        assertEquals("s\"e\\cret", json.getString("node_secret"));
+        assertEquals("label.lambda-abc", json.getString("node_name"));
+    }
+
+    @Test
+    public void renderKeepsFunctionOptions() {
+        LambdaAgentPayload payload = new LambdaAgentPayload("http://jenkins/")
+            .withJvmOption("-Xmx256m")
+            .withJvmOption(" ")
+            .withWorkDir("/tmp/agent")
+            .withRemoting("4.0", "abc");
+        JSONObject json = JSONObject.fromObject(payload.toTemplate().render("secret", "name"));
+        assertEquals(1, json.getJSONArray("jvm_options").size());
+        assertEquals("-Xmx256m", json.getJSONArray("jvm_options").getString(0));
+        assertEquals("/tmp/agent", json.getString("work_dir"));
+        assertEquals("abc", json.getString("remoting_jar_sha256"));
+    }
+
+    @Test
+    public void templateIsBoundToCloudAndUrl() {
+        LambdaCloud cloud = new LambdaCloud("payload", null, "us-east-1");
+        cloud.setJenkinsUrl("http://a/");
+        LambdaFunction function = new LambdaFunction("build", "build");
+        LambdaAgentPayload.Template template = function.getPayloadTemplate(cloud);
+        assertSame(template, function.getPayloadTemplate(cloud));
+
+        cloud.setJenkinsUrl("http://b/");
+        LambdaAgentPayload.Template moved = function.getPayloadTemplate(cloud);
+        assertNotSame(template, moved);
+        assertEquals("http://b/", JSONObject.fromObject(moved.render("secret", "name")).getString("url"));
+
+        LambdaCloud other = new LambdaCloud("payload", null, "us-east-1");
+        other.setJenkinsUrl("http://b/");
+        other.setConnectionMode(LambdaConnectionMode.WEBSOCKET.name());
+        JSONObject json = JSONObject.fromObject(function.getPayloadTemplate(other).render("secret", "name"));
+        assertEquals("websocket", json.getString("connection_mode"));
+    }
+
+    @Test
+    public void directConnectionOnlyInDirectMode() {
+        JSONObject direct = new LambdaAgentPayload("http://a/")
+            .withConnection(LambdaConnectionMode.DIRECT, "10.0.0.1:50000").toJSON();
+        assertEquals("direct", direct.getString("connection_mode"));
+        assertEquals("10.0.0.1:50000", direct.getString("direct_connection"));
+        JSONObject websocket = new LambdaAgentPayload("http://a/")
+            .withConnection(LambdaConnectionMode.WEBSOCKET, "10.0.0.1:50000").toJSON();
+        assertEquals("websocket", websocket.getString("connection_mode"));
+        assertFalse(websocket.has("direct_connection"));
+    }
+}
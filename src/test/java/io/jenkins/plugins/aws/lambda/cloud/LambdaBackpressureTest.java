@@ -0,0 +1,40 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaBackpressureTest {
+
+    private static final double DELTA = 0.0001;
+
+    @Test
+    public void idleControllerTakesEveryAgent() {
+        assertEquals(1, LambdaBackpressure.factor(10, 5, 0.01, 0.3), DELTA);
+        assertEquals(40, LambdaBackpressure.apply(40, 1));
+    }
+
+    @Test
+    public void highestPressureWins() {
+        // half way between the soft and hard limits of the heap
+        double factor = LambdaBackpressure.factor(10, 5, 0.01, 0.825);
+        assertEquals(0.5, factor, DELTA);
+        // the GC ratio is 60% of the way to its hard limit, the heap and the remoting wait 50%
+        assertEquals(0.4, LambdaBackpressure.factor(2750, 5, 0.2, 0.825), DELTA);
+        assertEquals(0, LambdaBackpressure.factor(10, LambdaBackpressure.HARD_CONNECTING, 0.01, 0.3), DELTA);
+    }
+
+    @Test
+    public void agentsScaleDownToOneUnlessStopped() {
+        assertEquals(20, LambdaBackpressure.apply(40, 0.5));
+        assertEquals(1, LambdaBackpressure.apply(3, 0.1));
+        assertEquals(0, LambdaBackpressure.apply(3, 0));
+        assertEquals(0, LambdaBackpressure.apply(0, 0.5));
+    }
+
+    @Test
+    public void noSampleMeansNoBackpressure() {
+        // the sampler only runs within Jenkins
+        assertEquals(7, LambdaBackpressure.apply(7));
+    }
+}
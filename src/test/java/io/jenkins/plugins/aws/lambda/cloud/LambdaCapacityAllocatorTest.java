@@ -0,0 +1,138 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaCapacityAllocatorTest {
+
+    private static LambdaFunction function(String name, int weight, int min, int max) {
+        LambdaFunction function = new LambdaFunction(name, name);
+        function.setWeight(weight);
+        function.setMinConcurrency(min);
+        function.setMaxConcurrency(max);
+        return function;
+    }
+
+    @Test
+    public void unlimitedGrantsEverything() {
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of("unlimited");
+        assertEquals(500, allocator.allocate("matrix", function("matrix", 1, 0, 0), 500, 0, 0, 0));
+        assertEquals(500, allocator.getTotalInFlight());
+    }
+
+    @Test
+    public void bigLabelDoesNotStarveOthers() {
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of("starvation");
+        LambdaFunction matrix = function("matrix", 1, 0, 0);
+        LambdaFunction quick = function("short", 1, 0, 0);
+        assertEquals(10, allocator.allocate("matrix", matrix, 500, 0, 10, 0));
+        // short jobs are waiting while the matrix holds every slot
+        assertEquals(0, allocator.allocate("short", quick, 3, 1, 10, 0));
+        allocator.release("matrix");
+        // the freed slot goes to the short jobs even though the matrix asks first
+        assertEquals(0, allocator.allocate("matrix", matrix, 490, 0, 10, 0));
+        assertEquals(1, allocator.allocate("short", quick, 3, 1, 10, 0));
+    }
+
+    @Test
+    public void sharesByWeightWhenCapped() {
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of("weights");
+        LambdaFunction heavy = function("heavy", 3, 0, 0);
+        LambdaFunction light = function("light", 1, 0, 0);
+        assertEquals(12, allocator.allocate("filler", function("filler", 1, 0, 0), 12, 0, 12, 0));
+        assertEquals(0, allocator.allocate("heavy", heavy, 100, 0, 12, 0));
+        assertEquals(0, allocator.allocate("light", light, 100, 1, 12, 0));
+        for (int i = 0; i < 12; i++) {
+            allocator.release("filler");
+        }
+        assertEquals(3, allocator.allocate("light", light, 100, 1, 12, 0));
+        assertEquals(9, allocator.allocate("heavy", heavy, 100, 0, 12, 0));
+    }
+
+    @Test
+    public void quotasApply() {
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of("quotas");
+        assertEquals(3, allocator.allocate("capped", function("capped", 1, 0, 3), 10, 0, 0, 0));
+        assertEquals(0, allocator.allocate("capped", function("capped", 1, 0, 3), 10, 0, 0, 0));
+        allocator.release("capped");
+        assertEquals(1, allocator.allocate("capped", function("capped", 1, 0, 3), 10, 0, 0, 0));
+    }
+
+    @Test
+    public void labelsOfAFunctionShareItsQuotas() {
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of("function-quotas");
+        LambdaFunction f = function("build", 1, 0, 3);
+        assertEquals(2, allocator.allocate("linux && large", f, 2, 0, 0, 0));
+        // another label expression served by the same function gets what is left of its quota
+        assertEquals(1, allocator.allocate("linux", f, 5, 1, 0, 0));
+        assertEquals(3, allocator.getInFlight("build"));
+        assertEquals(0, allocator.allocate("linux && large", f, 2, 0, 0, 0));
+        allocator.release("build");
+        assertEquals(1, allocator.allocate("linux", f, 4, 1, 0, 0));
+        assertEquals(3, allocator.getTotalInFlight());
+    }
+
+    @Test
+    public void labelsOfAFunctionCountOnceWhenCapped() {
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of("function-weights");
+        LambdaFunction build = function("build", 1, 0, 0);
+        LambdaFunction deploy = function("deploy", 1, 0, 0);
+        assertEquals(4, allocator.allocate("filler", function("filler", 1, 0, 0), 4, 0, 4, 0));
+        assertEquals(0, allocator.allocate("linux", build, 10, 0, 4, 0));
+        assertEquals(0, allocator.allocate("linux && large", build, 10, 1, 4, 0));
+        assertEquals(0, allocator.allocate("deploy", deploy, 10, 2, 4, 0));
+        for (int i = 0; i < 4; i++) {
+            allocator.release("filler");
+        }
+        // two label expressions of one function do not get twice its share
+        assertEquals(2, allocator.allocate("deploy", deploy, 10, 2, 4, 0));
+        assertEquals(2, allocator.allocate("linux", build, 10, 0, 4, 0));
+        assertEquals(0, allocator.allocate("linux && large", build, 10, 1, 4, 0));
+    }
+
+    @Test
+    public void keepWarmCountsAgainstTheCap() {
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of("keep-warm");
+        LambdaFunction f = function("build", 1, 0, 0);
+        assertEquals(6, allocator.allocate("build", f, 6, 0, 10, 0));
+        assertEquals(4, allocator.warm(5, 10, 0));
+        assertEquals(4, allocator.getWarming());
+        // warm environments hold their slots until the invocations return
+        assertEquals(0, allocator.allocate("build", f, 2, 0, 10, 0));
+        allocator.warmed(4);
+        assertEquals(2, allocator.allocate("build", f, 2, 0, 10, 0));
+        assertEquals(0, allocator.getWarming());
+    }
+
+    @Test
+    public void keepWarmLeavesSlotsToWaitingLabels() {
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of("keep-warm-waiting");
+        LambdaFunction f = function("build", 1, 0, 0);
+        assertEquals(8, allocator.allocate("build", f, 10, 0, 8, 0));
+        allocator.release("build");
+        // the freed slot is wanted by the build
+        assertEquals(0, allocator.warm(1, 8, 0));
+        // unless its demand is gone
+        assertEquals(1, allocator.warm(1, 8, 60000));
+        // unlimited clouds keep every environment warm
+        assertEquals(3, LambdaCapacityAllocator.of("keep-warm-unlimited").warm(3, 0, 0));
+    }
+
+    @Test
+    public void orphanKeepsItsSlotReserved() {
+        LambdaCapacityAllocator allocator = LambdaCapacityAllocator.of("orphaned");
+        LambdaFunction f = function("build", 1, 0, 0);
+        assertEquals(2, allocator.allocate("build", f, 2, 0, 2, 0));
+        allocator.orphaned("build");
+        assertEquals(1, allocator.getInFlight("build"));
+        assertEquals(1, allocator.getReserved());
+        // the orphan still runs: no slot for a new agent
+        assertEquals(0, allocator.allocate("build", f, 1, 0, 2, 0));
+        // until it expires
+        assertEquals(0, allocator.reconcile(Collections.singletonMap("build", 1), 0));
+        assertEquals(1, allocator.allocate("build", f, 1, 0, 2, 0));
+    }
+}
@@ -0,0 +1,40 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaComputerTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void acceptsTasksWhileTheTimeLimitAllows() {
+        long limit = LambdaAgentTracker.ORPHAN_TTL;
+        // 2 minutes in, tasks of 3 minutes: plenty left
+        assertTrue(LambdaComputer.hasTimeFor(2 * MINUTE, 3 * MINUTE, limit));
+        // 10 minutes in, tasks of 4 minutes: just fits with the shutdown
+        assertTrue(LambdaComputer.hasTimeFor(10 * MINUTE, 4 * MINUTE, limit));
+        assertFalse(LambdaComputer.hasTimeFor(10 * MINUTE, 4 * MINUTE + 1, limit));
+    }
+
+    @Test
+    public void shorterFunctionTimeoutsStopEarlier() {
+        LambdaAgentTracker tracker = LambdaAgentTracker.of("computer-test");
+        assertEquals(LambdaAgentTracker.ORPHAN_TTL, tracker.getTimeLimit("build"));
+        tracker.setFunctionTimeout("build", 5 * MINUTE);
+        assertEquals(5 * MINUTE, tracker.getTimeLimit("build"));
+
+        assertTrue(LambdaComputer.hasTimeFor(MINUTE, 2 * MINUTE, tracker.getTimeLimit("build")));
+        assertFalse(LambdaComputer.hasTimeFor(3 * MINUTE, 2 * MINUTE, tracker.getTimeLimit("build")));
+    }
+
+    @Test
+    public void unknownInvocationTimeStopsAccepting() {
+        // an agent launched before a restart has no invocation time
+        assertFalse(LambdaComputer.hasTimeFor(System.currentTimeMillis(), 0, LambdaAgentTracker.ORPHAN_TTL));
+        assertFalse(LambdaComputer.hasTimeFor(-1, 0, LambdaAgentTracker.ORPHAN_TTL));
+    }
+}
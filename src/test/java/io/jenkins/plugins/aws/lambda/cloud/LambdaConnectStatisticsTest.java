@@ -0,0 +1,22 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaConnectStatisticsTest {
+
+    @Test
+    public void cloudsAreCountedApart() {
+        LambdaConnectStatistics.record("connect-a", LambdaConnectionMode.WEBSOCKET, 100);
+        LambdaConnectStatistics.record("connect-a", LambdaConnectionMode.WEBSOCKET, 300);
+        LambdaConnectStatistics.record("connect-b", LambdaConnectionMode.WEBSOCKET, 5000);
+
+        LambdaConnectStatistics a = LambdaConnectStatistics.get("connect-a", LambdaConnectionMode.WEBSOCKET);
+        assertEquals(2, a.getCount());
+        assertEquals(200, a.getMeanMs());
+        assertEquals(300, a.getMaxMs());
+        assertEquals(1, LambdaConnectStatistics.get("connect-b", LambdaConnectionMode.WEBSOCKET).getCount());
+        assertEquals(0, LambdaConnectStatistics.get("connect-a", LambdaConnectionMode.DIRECT).getCount());
+    }
+}
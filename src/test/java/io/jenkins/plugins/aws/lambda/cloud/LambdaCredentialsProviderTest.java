@@ -0,0 +1,161 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.BasicSessionCredentials;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaCredentialsProviderTest {
+
+    /**
+     * Hands out a new session per resolution, like an STS AssumeRole.
+     */
+    private static class CountingProvider extends LambdaCredentialsProvider {
+
+        final AtomicInteger resolutions = new AtomicInteger();
+        final AtomicInteger defaults = new AtomicInteger();
+        final Semaphore resolved = new Semaphore(0);
+        volatile Boolean session;
+
+        CountingProvider(Boolean session) {
+            super("test");
+            this.session = session;
+        }
+
+        @Override
+        AWSCredentials resolve() {
+            if (session == null) {
+                return null;
+            }
+            int n = resolutions.incrementAndGet();
+            resolved.release();
+            return session ? new BasicSessionCredentials("key" + n, "secret", "token" + n)
+                : new BasicAWSCredentials("key" + n, "secret");
+        }
+
+        @Override
+        AWSCredentialsProvider getDefaultProvider() {
+            return new AWSCredentialsProvider() {
+                @Override
+                public AWSCredentials getCredentials() {
+                    return new BasicAWSCredentials("default" + defaults.incrementAndGet(), "secret");
+                }
+
+                @Override
+                public void refresh() {
+                }
+            };
+        }
+    }
+
+    private static AmazonServiceException error(String code) {
+        AmazonServiceException e = new AmazonServiceException("rejected");
+        e.setErrorCode(code);
+        return e;
+    }
+
+    @Test
+    public void resolvesOnce() {
+        CountingProvider provider = new CountingProvider(true);
+        long now = System.currentTimeMillis();
+
+        AWSCredentials first = provider.getCredentials(now);
+        for (int i = 0; i < 1000; i++) {
+            assertSame(first, provider.getCredentials(now + i));
+        }
+        assertEquals(1, provider.resolutions.get());
+    }
+
+    @Test
+    public void refreshesInTheBackgroundBeforeExpiry() throws Exception {
+        CountingProvider provider = new CountingProvider(true);
+        long now = System.currentTimeMillis();
+        AWSCredentials first = provider.getCredentials(now);
+        provider.resolved.acquire();
+
+        // due for refresh: the current session is still served while the next one is resolved
+        long due = now + LambdaCredentialsProvider.REFRESH_AGE;
+        assertSame(first, provider.getCredentials(due));
+        assertTrue(provider.resolved.tryAcquire(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (provider.getCredentials(due) == first && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotSame(first, provider.getCredentials(due));
+        assertEquals(2, provider.resolutions.get());
+    }
+
+    @Test
+    public void expiredSessionIsResolvedAgainOnUse() {
+        CountingProvider provider = new CountingProvider(true);
+        long now = System.currentTimeMillis();
+        AWSCredentials first = provider.getCredentials(now);
+
+        AWSCredentials later = provider.getCredentials(now + LambdaCredentialsProvider.SESSION_LIFETIME);
+        assertNotSame(first, later);
+        assertEquals("token2", ((BasicSessionCredentials) later).getSessionToken());
+    }
+
+    @Test
+    public void keysAreNotCached() {
+        CountingProvider provider = new CountingProvider(false);
+        long now = System.currentTimeMillis();
+        assertEquals("key1", provider.getCredentials(now).getAWSAccessKeyId());
+        assertEquals("key2", provider.getCredentials(now + 1).getAWSAccessKeyId());
+        assertEquals(2, provider.resolutions.get());
+    }
+
+    @Test
+    public void defaultChainIsAskedOnEachRequest() {
+        CountingProvider provider = new CountingProvider(null);
+        long now = System.currentTimeMillis();
+        assertEquals("default1", provider.getCredentials(now).getAWSAccessKeyId());
+        assertEquals("default2", provider.getCredentials(now + 1).getAWSAccessKeyId());
+        assertEquals(0, provider.resolutions.get());
+    }
+
+    @Test
+    public void roleAddedLaterIsCachedOnceSaved() {
+        CountingProvider provider = new CountingProvider(false);
+        long now = System.currentTimeMillis();
+        provider.getCredentials(now);
+
+        provider.session = true;
+        provider.invalidate();
+        AWSCredentials session = provider.getCredentials(now + 1);
+        assertTrue(session instanceof BasicSessionCredentials);
+        assertSame(session, provider.getCredentials(now + 2));
+    }
+
+    @Test
+    public void expiredTokenResolvesANewSession() {
+        CountingProvider provider = new CountingProvider(true);
+        long now = System.currentTimeMillis();
+        AWSCredentials first = provider.getCredentials(now);
+
+        assertFalse(LambdaCredentialsProvider.isExpiredToken(error("Throttling")));
+        assertTrue(LambdaCredentialsProvider.isExpiredToken(error("ExpiredTokenException")));
+        assertSame(first, provider.getCredentials(now + 1));
+
+        provider.expire();
+        AWSCredentials second = provider.getCredentials(now + 2);
+        assertNotSame(first, second);
+        assertEquals("token2", ((BasicSessionCredentials) second).getSessionToken());
+    }
+
+    @Test
+    public void sharedById() {
+        assertSame(LambdaCredentialsProvider.of("shared"), LambdaCredentialsProvider.of("shared"));
+        assertSame(LambdaCredentialsProvider.of(null), LambdaCredentialsProvider.of(""));
+        assertNotSame(LambdaCredentialsProvider.of("shared"), LambdaCredentialsProvider.of("other"));
+    }
+}
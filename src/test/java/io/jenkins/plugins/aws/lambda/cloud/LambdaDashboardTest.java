@@ -0,0 +1,39 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+import java.util.Collections;
+
+import net.sf.json.JSONObject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.*;
+
+public class LambdaDashboardTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void rendersTheDashboard() throws Exception {
+        LambdaCloud cloud = new LambdaCloud("lambda", null, "us-east-1");
+        cloud.setFunctions(Collections.singletonList(new LambdaFunction("build", "build")));
+        j.jenkins.clouds.add(cloud);
+
+        JenkinsRule.WebClient wc = j.createWebClient();
+        // the page polls its state, only its rendering is checked here
+        wc.setJavaScriptEnabled(false);
+        HtmlPage page = wc.goTo("cloud/lambda/dashboard/");
+        assertNotNull(page.getElementById("lambda-agents"));
+        assertNotNull(page.getElementById("lambda-functions"));
+
+        Page state = wc.goTo("cloud/lambda/dashboard/state", "application/json");
+        JSONObject json = JSONObject.fromObject(state.getWebResponse().getContentAsString());
+        assertEquals(1, json.getJSONArray("functions").size());
+        assertTrue(json.has("phases"));
+    }
+}
@@ -0,0 +1,98 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import com.gargoylesoftware.htmlunit.Page;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.*;
+
+public class LambdaDependencyCacheActionTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private File upstream;
+
+    private String base;
+
+    private JenkinsRule.WebClient wc;
+
+    @Before
+    public void setUp() throws Exception {
+        // Jenkins serves its own user content as the upstream repository
+        upstream = new File(j.jenkins.getRootDir(), "userContent");
+        LambdaDependencyCache cache = new LambdaDependencyCache();
+        cache.setMirrors("files " + j.getURL() + "userContent");
+        LambdaCloud cloud = new LambdaCloud("lambda", null, "us-east-1");
+        cloud.setJenkinsUrl(j.getURL().toString());
+        cloud.setDependencyCache(cache);
+        j.jenkins.clouds.add(cloud);
+        base = cache.getBaseUrl(cloud);
+
+        wc = j.createWebClient();
+        wc.setThrowExceptionOnFailingStatusCode(false);
+    }
+
+    private Page get(String url) throws Exception {
+        return wc.getPage(url);
+    }
+
+    private void publish(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(upstream, path), content, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void rejectsAWrongToken() throws Exception {
+        publish("org/foo/1.0/foo-1.0.jar", "foo");
+        assertEquals(200, get(base + "files/org/foo/1.0/foo-1.0.jar").getWebResponse().getStatusCode());
+        String forged = base.replace(LambdaDependencyCache.getToken("lambda"), StringUtils.repeat("0", 64));
+        assertEquals(404, get(forged + "files/org/foo/1.0/foo-1.0.jar").getWebResponse().getStatusCode());
+        assertEquals(404, get(base + "unknown/org/foo/1.0/foo-1.0.jar").getWebResponse().getStatusCode());
+    }
+
+    @Test
+    public void cachesReleasesOnly() throws Exception {
+        publish("org/foo/1.0/foo-1.0.jar", "release");
+        publish("org/foo/1.1-SNAPSHOT/foo-1.1-SNAPSHOT.jar", "snapshot 1");
+        assertEquals("release", get(base + "files/org/foo/1.0/foo-1.0.jar").getWebResponse().getContentAsString());
+        assertEquals("snapshot 1", get(base + "files/org/foo/1.1-SNAPSHOT/foo-1.1-SNAPSHOT.jar")
+            .getWebResponse().getContentAsString());
+
+        publish("org/foo/1.0/foo-1.0.jar", "republished");
+        publish("org/foo/1.1-SNAPSHOT/foo-1.1-SNAPSHOT.jar", "snapshot 2");
+        assertEquals("release", get(base + "files/org/foo/1.0/foo-1.0.jar").getWebResponse().getContentAsString());
+        assertEquals("snapshot 2", get(base + "files/org/foo/1.1-SNAPSHOT/foo-1.1-SNAPSHOT.jar")
+            .getWebResponse().getContentAsString());
+    }
+
+    @Test
+    public void rewritesIndexes() throws Exception {
+        publish("foo/index.html", "<a href=\"" + j.getURL() + "userContent/org/foo/1.0/foo-1.0.jar\">foo</a>");
+        assertEquals("<a href=\"" + base + "files/org/foo/1.0/foo-1.0.jar\">foo</a>",
+            get(base + "files/foo/index.html").getWebResponse().getContentAsString());
+    }
+
+    @Test
+    public void rewritesAcrossReads() throws Exception {
+        Map<String, String> mirrors = LambdaDependencyCache.parseMirrors(LambdaDependencyCache.DEFAULT_MIRRORS);
+        String cache = "https://jenkins/lambda-dependency-cache/lambda/t0k3n/";
+        // the upstream URL straddles the first read
+        String padding = StringUtils.repeat("x", 8180);
+        StringWriter out = new StringWriter();
+        LambdaDependencyCacheAction.rewrite(
+            new StringReader(padding + "https://registry.npmjs.org/lodash/-/lodash-4.17.21.tgz" + padding), out,
+            mirrors, cache);
+        assertEquals(padding + cache + "npm/lodash/-/lodash-4.17.21.tgz" + padding, out.toString());
+    }
+}
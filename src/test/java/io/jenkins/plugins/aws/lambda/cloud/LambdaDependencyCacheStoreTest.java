@@ -0,0 +1,99 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class LambdaDependencyCacheStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static ByteArrayInputStream bytes(int size) {
+        return new ByteArrayInputStream(new byte[size]);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        File root = tmp.newFolder();
+        LambdaDependencyCacheStore store = new LambdaDependencyCacheStore(root, 250);
+        store.put("maven/a.jar", bytes(100));
+        store.put("maven/b.jar", bytes(100));
+        assertNotNull(store.get("maven/a.jar"));
+
+        store.put("maven/c.jar", bytes(100));
+        assertNotNull(store.get("maven/a.jar"));
+        assertNull(store.get("maven/b.jar"));
+        assertFalse(new File(root, "maven/b.jar").exists());
+        assertNotNull(store.get("maven/c.jar"));
+        assertEquals(200, store.getTotalBytes());
+    }
+
+    @Test
+    public void keepsAFileLargerThanTheLimit() throws IOException {
+        LambdaDependencyCacheStore store = new LambdaDependencyCacheStore(tmp.newFolder(), 50);
+        store.put("maven/a.jar", bytes(10));
+        store.put("maven/big.jar", bytes(100));
+        assertNull(store.get("maven/a.jar"));
+        assertNotNull(store.get("maven/big.jar"));
+    }
+
+    @Test
+    public void reloadsFromDisk() throws IOException {
+        File root = tmp.newFolder();
+        LambdaDependencyCacheStore store = new LambdaDependencyCacheStore(root, 1000);
+        store.put("npm/x/-/x-1.0.0.tgz", bytes(100));
+        store.put("maven/org/a/1/a-1.jar", bytes(200));
+
+        LambdaDependencyCacheStore reloaded = new LambdaDependencyCacheStore(root, 1000);
+        assertEquals(300, reloaded.getTotalBytes());
+        assertNotNull(reloaded.get("npm/x/-/x-1.0.0.tgz"));
+        assertFalse("no leftover download", new File(root, ".tmp").list().length > 0);
+    }
+
+    @Test
+    public void rejectsUnsafePaths() {
+        assertTrue(LambdaDependencyCacheStore.isSafe("org/apache/foo/1.0/foo-1.0.jar"));
+        assertFalse(LambdaDependencyCacheStore.isSafe("../secrets/master.key"));
+        assertFalse(LambdaDependencyCacheStore.isSafe("org/../../x.jar"));
+        assertFalse(LambdaDependencyCacheStore.isSafe("/etc/passwd"));
+        assertFalse(LambdaDependencyCacheStore.isSafe("org//x.jar"));
+        assertFalse(LambdaDependencyCacheStore.isSafe("org\\x.jar"));
+        assertFalse(LambdaDependencyCacheStore.isSafe(".tmp/download1.tmp"));
+    }
+
+    @Test
+    public void onlyArtifactsAreCached() {
+        assertTrue(LambdaDependencyCacheStore.isArtifact("org/apache/foo/1.0/foo-1.0.jar"));
+        assertTrue(LambdaDependencyCacheStore.isArtifact("lodash/-/lodash-4.17.21.tgz"));
+        assertTrue(LambdaDependencyCacheStore.isArtifact("packages/ab/cd/requests-2.31.0-py3-none-any.whl"));
+        assertFalse(LambdaDependencyCacheStore.isArtifact("org/apache/foo/maven-metadata.xml"));
+        assertFalse(LambdaDependencyCacheStore.isArtifact("org/apache/foo/maven-metadata.xml.sha1"));
+        assertFalse(LambdaDependencyCacheStore.isArtifact("lodash"));
+        assertFalse(LambdaDependencyCacheStore.isArtifact("requests/"));
+        // snapshots are republished under the same path
+        assertFalse(LambdaDependencyCacheStore.isArtifact("org/apache/foo/1.1-SNAPSHOT/foo-1.1-SNAPSHOT.jar"));
+        assertFalse(LambdaDependencyCacheStore.isArtifact(
+            "org/apache/foo/1.1-SNAPSHOT/foo-1.1-20240101.120000-3.jar"));
+    }
+
+    @Test
+    public void rewritesUpstreamUrls() {
+        Map<String, String> mirrors = LambdaDependencyCache.parseMirrors(LambdaDependencyCache.DEFAULT_MIRRORS);
+        String base = "https://jenkins/lambda-dependency-cache/lambda/t0k3n/";
+
+        assertEquals("{\"tarball\":\"" + base + "npm/lodash/-/lodash-4.17.21.tgz\"}",
+            LambdaDependencyCacheAction.rewrite(
+                "{\"tarball\":\"https://registry.npmjs.org/lodash/-/lodash-4.17.21.tgz\"}", mirrors, base));
+        assertEquals("<a href=\"" + base + "pypi-files/packages/r.whl\">r</a>",
+            LambdaDependencyCacheAction.rewrite(
+                "<a href=\"https://files.pythonhosted.org/packages/r.whl\">r</a>", mirrors, base));
+    }
+}
@@ -0,0 +1,71 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.Collections;
+
+import hudson.model.labels.LabelAtom;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.*;
+
+public class LambdaHealthProbeWorkTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private static LambdaCloud cloud(String name, LambdaFunction function) {
+        LambdaCloud cloud = new LambdaCloud(name, null, "us-east-1");
+        cloud.setFunctions(Collections.singletonList(function));
+        return cloud;
+    }
+
+    @Test
+    public void transientErrorsFenceAfterTheThreshold() {
+        LambdaFunction function = new LambdaFunction("transient", "lambda");
+        LambdaFunctionState state = LambdaFunctionState.of(cloud("probe-transient", function), function);
+        assertTrue(state.isHealthy());
+
+        assertFalse(state.probed(1, "timeout", false, 3));
+        assertFalse(state.probed(2, "timeout", false, 3));
+        assertTrue(state.isHealthy());
+        assertNull(state.getHealthError());
+
+        assertTrue(state.probed(3, "timeout", false, 3));
+        assertFalse(state.isHealthy());
+        assertEquals("timeout", state.getHealthError());
+        assertEquals(3, state.getLastProbe());
+
+        assertTrue(state.probed(4, null, false, 3));
+        assertTrue(state.isHealthy());
+        // the count starts over after a success
+        assertFalse(state.probed(5, "timeout", false, 3));
+        assertTrue(state.isHealthy());
+    }
+
+    @Test
+    public void fatalErrorsFenceAtOnce() {
+        LambdaFunction function = new LambdaFunction("missing", "lambda");
+        LambdaFunctionState state = LambdaFunctionState.of(cloud("probe-fatal", function), function);
+        assertTrue(state.probed(1, "us-east-1: Function not found", true, 3));
+        assertFalse(state.isHealthy());
+        assertFalse(state.probed(2, "us-east-1: Function not found", true, 3));
+    }
+
+    @Test
+    public void fencedFunctionsAreNotProvisioned() {
+        LambdaFunction function = new LambdaFunction("fenced", "lambda");
+        LambdaCloud cloud = cloud("probe-fence", function);
+        LabelAtom label = new LabelAtom("lambda");
+        assertTrue(cloud.canProvision(label));
+
+        LambdaFunctionState.of(cloud, function).probed(1, "AccessDeniedException: denied", true, 3);
+        assertFalse(cloud.canProvision(label));
+        assertTrue(cloud.getLadder(label).isEmpty());
+
+        LambdaFunctionState.of(cloud, function).probed(2, null, false, 3);
+        assertTrue(cloud.canProvision(label));
+        assertEquals(Collections.singletonList(function), cloud.getLadder(label));
+    }
+}
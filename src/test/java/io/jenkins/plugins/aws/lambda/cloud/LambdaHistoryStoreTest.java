@@ -0,0 +1,96 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class LambdaHistoryStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static LambdaHistoryStore.Record record(String function, int launchMs) {
+        return new LambdaHistoryStore.Record("cloud", function, "java", 1000L, 50, launchMs, launchMs + 60000,
+            launchMs, LambdaHistoryStore.Outcome.COMPLETED);
+    }
+
+    private static List<LambdaHistoryStore.Record> readAll(LambdaHistoryStore store) {
+        List<LambdaHistoryStore.Record> records = new ArrayList<LambdaHistoryStore.Record>();
+        for (LambdaHistoryStore.Record record : store.read()) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    @Test
+    public void keepsTheLatestRecordsInOrder() throws Exception {
+        LambdaHistoryStore store = new LambdaHistoryStore(tmp.newFile(), 4);
+        for (int i = 1; i <= 6; i++) {
+            store.append(record("f" + i, i * 100));
+        }
+        assertEquals(6, store.getCount());
+        List<LambdaHistoryStore.Record> records = readAll(store);
+        assertEquals(4, records.size());
+        assertTrue(records.get(0).isOf("cloud", "f3"));
+        assertTrue(records.get(3).isOf("cloud", "f6"));
+        assertEquals(600, records.get(3).getLaunchMs());
+        assertEquals(60600, records.get(3).getRemovedMs());
+        assertEquals("java", records.get(3).getLabel());
+        assertEquals(LambdaHistoryStore.Outcome.COMPLETED, records.get(3).getOutcome());
+    }
+
+    @Test
+    public void survivesReopening() throws Exception {
+        File file = tmp.newFile();
+        LambdaHistoryStore store = new LambdaHistoryStore(file, 8);
+        store.append(record("f", 1500));
+        store.append(record("g", 2500));
+
+        LambdaHistoryStore reopened = new LambdaHistoryStore(file, 8);
+        assertEquals(2, reopened.getCount());
+        assertTrue(readAll(reopened).get(1).isOf("cloud", "g"));
+
+        // a new layout starts over
+        assertEquals(0, new LambdaHistoryStore(file, 16).getCount());
+    }
+
+    @Test
+    public void matchesLongNames() throws Exception {
+        LambdaHistoryStore store = new LambdaHistoryStore(tmp.newFile(), 2);
+        String arn = "arn:aws:lambda:eu-west-1:123456789012:function:" + StringUtils.repeat("x", 64) + ":live";
+        store.append(record(arn, 10));
+        store.append(record("short", 20));
+        List<LambdaHistoryStore.Record> records = readAll(store);
+        assertTrue(records.get(0).isOf("cloud", arn));
+        // names sharing a long prefix are told apart
+        assertFalse(records.get(0).isOf("cloud", arn.substring(0, arn.length() - 1)));
+        assertTrue(records.get(1).isOf("cloud", "short"));
+        assertFalse(records.get(1).isOf(StringUtils.repeat("c", 127), "short"));
+    }
+
+    @Test
+    public void takesLaunchesOnceFromASingleIndex() throws Exception {
+        File file = tmp.newFile();
+        LambdaHistoryStore store = new LambdaHistoryStore(file, 8);
+        store.append(record("f", 100));
+        store.append(record("g", 200));
+        store.append(record("f", 300));
+        store.append(new LambdaHistoryStore.Record("cloud", "f", "java", 1000L, 50, 0, 60000, 0,
+            LambdaHistoryStore.Outcome.FAILED));
+
+        LambdaHistoryStore reopened = new LambdaHistoryStore(file, 8);
+        assertArrayEquals(new int[] {100, 300}, reopened.takeLaunches("cloud", "f"));
+        assertArrayEquals(new int[0], reopened.takeLaunches("cloud", "f"));
+        // records appended after indexing belong to the running states
+        reopened.append(record("g", 400));
+        assertArrayEquals(new int[] {200}, reopened.takeLaunches("cloud", "g"));
+        assertArrayEquals(new int[0], reopened.takeLaunches("other", "g"));
+    }
+}
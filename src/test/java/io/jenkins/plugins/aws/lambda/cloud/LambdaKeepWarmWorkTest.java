@@ -0,0 +1,55 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import com.amazonaws.services.lambda.model.InvokeResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaKeepWarmWorkTest {
+
+    private static InvokeResult result(String log) {
+        InvokeResult result = new InvokeResult();
+        if (log != null) {
+            result.setLogResult(Base64.getEncoder().encodeToString(log.getBytes(StandardCharsets.UTF_8)));
+        }
+        return result;
+    }
+
+    @Test
+    public void tellsWarmFromColdEnvironments() {
+        LambdaKeepWarmStatistics statistics = new LambdaKeepWarmStatistics();
+        LambdaKeepWarmWork.record(result("REPORT RequestId: 1\tDuration: 1.20 ms\tBilled Duration: 2 ms"),
+            statistics);
+        LambdaKeepWarmWork.record(result("REPORT RequestId: 2\tDuration: 1.20 ms\tBilled Duration: 2 ms\t"
+            + "Init Duration: 412.31 ms"), statistics);
+        assertEquals(1, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(4, statistics.getBilledMs());
+        assertEquals(0.5, statistics.getHitRatio(), 0.001);
+    }
+
+    @Test
+    public void missingLogIsNotAHit() {
+        LambdaKeepWarmStatistics statistics = new LambdaKeepWarmStatistics();
+        LambdaKeepWarmWork.record(result(null), statistics);
+        InvokeResult garbled = new InvokeResult();
+        garbled.setLogResult("not base64!");
+        LambdaKeepWarmWork.record(garbled, statistics);
+        assertEquals(0, statistics.getHits());
+        assertEquals(0, statistics.getMisses());
+        assertEquals(2, statistics.getUnknown());
+        assertEquals(0, statistics.getHitRatio(), 0.001);
+    }
+
+    @Test
+    public void functionErrorsAreErrors() {
+        LambdaKeepWarmStatistics statistics = new LambdaKeepWarmStatistics();
+        LambdaKeepWarmWork.record(result("REPORT RequestId: 1").withFunctionError("Unhandled"), statistics);
+        assertEquals(1, statistics.getErrors());
+        assertEquals(0, statistics.getHits());
+    }
+}
@@ -0,0 +1,169 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.Cloud;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Overhead of {@link LambdaCloudProvisionerStrategy} per provisioner tick for
+ * labels no Lambda function serves, with and without {@link LambdaLabelIndex}.
+ * The overhead is reported, not asserted: only the results of the lookups are.
+ */
+public class LambdaLabelIndexBenchmarkTest {
+
+    private static final int CLOUDS = 20;
+    private static final int LABELS = 200;
+    private static final int TICKS = 2000;
+
+    private static LambdaFunction function(String labelName) {
+        final Set<LabelAtom> labels = Collections.singleton(new LabelAtom(labelName));
+        return new LambdaFunction("func-" + labelName, labelName) {
+            @Override
+            public Set<LabelAtom> getLabelSet() {
+                return labels;
+            }
+        };
+    }
+
+    private static List<Cloud> clouds() {
+        List<Cloud> clouds = new ArrayList<Cloud>();
+        for (int i = 0; i < CLOUDS; i++) {
+            LambdaCloud cloud = new LambdaCloud("index-" + i, null, "eu-west-1");
+            cloud.setFunctions(Collections.singletonList(function("lambda-" + i)));
+            clouds.add(cloud);
+        }
+        return clouds;
+    }
+
+    private static Label[] labels() {
+        Label[] labels = new Label[LABELS];
+        for (int i = 0; i < LABELS; i++) {
+            labels[i] = new LabelAtom("linux-" + i);
+        }
+        return labels;
+    }
+
+    @Test
+    public void servedLabelsGetEveryCloud() {
+        List<Cloud> clouds = clouds();
+        LambdaLabelIndex index = new LambdaLabelIndex();
+
+        Cloud[] served = index.getClouds(new LabelAtom("lambda-3"), clouds);
+        assertEquals(clouds, Arrays.asList(served));
+        assertSame(LambdaLabelIndex.NONE, index.getClouds(new LabelAtom("linux"), clouds));
+        assertSame(LambdaLabelIndex.NONE, index.getClouds(null, clouds));
+    }
+
+    @Test
+    public void invalidationPicksUpNewFunctions() {
+        List<Cloud> clouds = clouds();
+        LambdaLabelIndex index = new LambdaLabelIndex();
+        Label label = new LabelAtom("arm64");
+        assertSame(LambdaLabelIndex.NONE, index.getClouds(label, clouds));
+
+        ((LambdaCloud) clouds.get(5)).setFunctions(Arrays.asList(function("lambda-5"), function("arm64")));
+        assertEquals(CLOUDS, index.getClouds(label, clouds).length);
+    }
+
+    @Test
+    public void cloudsChangedWithoutSavingAreIndexedAgain() {
+        List<Cloud> clouds = clouds();
+        LambdaLabelIndex index = new LambdaLabelIndex();
+        Label label = new LabelAtom("arm64");
+        assertSame(LambdaLabelIndex.NONE, index.getClouds(label, clouds));
+
+        LambdaCloud added = new LambdaCloud("index-arm64", null, "eu-west-1");
+        added.setFunctions(Collections.singletonList(function("arm64")));
+        clouds.add(added);
+        assertEquals(CLOUDS + 1, index.getClouds(label, clouds).length);
+
+        clouds.remove(added);
+        assertSame(LambdaLabelIndex.NONE, index.getClouds(label, clouds));
+    }
+
+    @Test
+    public void reloadedCloudsAreIndexedAgain() {
+        LambdaLabelIndex index = new LambdaLabelIndex();
+        Label label = new LabelAtom("lambda-3");
+        List<Cloud> clouds = clouds();
+        Cloud[] served = index.getClouds(label, clouds);
+
+        // a reload replaces the cloud list without saving it
+        List<Cloud> reloaded = clouds();
+        Cloud[] again = index.getClouds(label, reloaded);
+        assertEquals(reloaded, Arrays.asList(again));
+        assertNotSame(served[0], again[0]);
+    }
+
+    @Test
+    public void overheadPerTick() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(sunThreads.isThreadAllocatedMemorySupported());
+        sunThreads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        List<Cloud> clouds = clouds();
+        Label[] labels = labels();
+        LambdaLabelIndex index = new LambdaLabelIndex();
+
+        // warm up both paths, then measure
+        int matches = walk(clouds, labels) + lookup(index, clouds, labels);
+        long start = System.nanoTime();
+        matches += walk(clouds, labels);
+        long walkNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long before = sunThreads.getThreadAllocatedBytes(thread);
+        matches += lookup(index, clouds, labels);
+        long indexBytes = sunThreads.getThreadAllocatedBytes(thread) - before;
+        long indexNanos = System.nanoTime() - start;
+
+        assertEquals(0, matches);
+        // timings and allocations depend on the machine and the JIT, they are reported only
+        System.out.println("Label index: " + indexNanos / TICKS + " ns and " + indexBytes / TICKS
+            + " bytes per tick for " + LABELS + " labels, against " + walkNanos / TICKS + " ns walking "
+            + CLOUDS + " clouds");
+    }
+
+    /**
+     * What the strategy did for every label before the index.
+     */
+    private static int walk(List<Cloud> clouds, Label[] labels) {
+        int matches = 0;
+        for (int tick = 0; tick < TICKS; tick++) {
+            for (Label label : labels) {
+                for (Cloud c : clouds) {
+                    if (c.canProvision(label)) {
+                        matches++;
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static int lookup(LambdaLabelIndex index, List<Cloud> clouds, Label[] labels) {
+        int matches = 0;
+        for (int tick = 0; tick < TICKS; tick++) {
+            for (Label label : labels) {
+                matches += index.getClouds(label, clouds).length;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,40 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaLatencySketchTest {
+
+    @Test
+    public void emptySketch() {
+        assertEquals(0, new LambdaLatencySketch().getQuantile(0.99));
+    }
+
+    @Test
+    public void quantilesWithinRelativeAccuracy() {
+        LambdaLatencySketch sketch = new LambdaLatencySketch();
+        for (int i = 1; i <= 1000; i++) {
+            sketch.add(i * 10);
+        }
+        assertEquals(5000, sketch.getQuantile(0.5), 5000 * LambdaLatencySketch.RELATIVE_ACCURACY);
+        assertEquals(9900, sketch.getQuantile(0.99), 9900 * LambdaLatencySketch.RELATIVE_ACCURACY);
+        assertEquals(10, sketch.getQuantile(0), 1);
+    }
+
+    @Test
+    public void followsLatencyChanges() {
+        LambdaLatencySketch sketch = new LambdaLatencySketch();
+        Random random = new Random(42);
+        for (int i = 0; i < LambdaLatencySketch.MAX_COUNT; i++) {
+            sketch.add(30000 + random.nextInt(1000));
+        }
+        for (int i = 0; i < 4 * LambdaLatencySketch.MAX_COUNT; i++) {
+            sketch.add(2000 + random.nextInt(100));
+        }
+        assertTrue(sketch.getCount() < LambdaLatencySketch.MAX_COUNT);
+        assertTrue(sketch.getQuantile(0.9) < 2200);
+    }
+}
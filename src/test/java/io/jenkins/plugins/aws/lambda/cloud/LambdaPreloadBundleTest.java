@@ -0,0 +1,38 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaPreloadBundleTest {
+
+    @Test
+    public void learnsClassesUsedByEnoughBuilds() {
+        LambdaPreloadBundle bundle = LambdaPreloadBundle.forLabel("preload-learn");
+        assertSame(bundle, LambdaPreloadBundle.forLabel("preload-learn"));
+        bundle.record(Arrays.asList("com.example.Common", "com.example.Rare"));
+        for (int i = 0; i < 9; i++) {
+            bundle.record(Arrays.asList("com.example.Common"));
+        }
+        assertTrue(bundle.getClassNames().contains("com.example.Common"));
+        assertFalse(bundle.getClassNames().contains("com.example.Rare"));
+    }
+
+    @Test
+    public void leavesCoreClassesOut() {
+        ClassLoader loader = LambdaCloud.class.getClassLoader();
+        List<String> names = Arrays.asList("java.lang.String", LambdaCloud.class.getName(), "com.example.Missing");
+        // the loader of the plugin is the core one: nothing to push
+        assertTrue(LambdaPreloadBundle.group(names, loader, loader).isEmpty());
+
+        Map<ClassLoader, List<Class<?>>> byLoader = LambdaPreloadBundle.group(
+            Arrays.asList("java.lang.String", LambdaCloud.class.getName(), LambdaNode.class.getName()), loader,
+            loader.getParent());
+        assertEquals(1, byLoader.size());
+        assertEquals(Arrays.<Class<?>>asList(LambdaCloud.class, LambdaNode.class), byLoader.get(loader));
+    }
+}
@@ -0,0 +1,66 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaProvisioningPolicyTest {
+
+    private static LambdaProvisioningPolicy.Snapshot snapshot(int executors, int excessWorkload, int queueLength,
+                                                              int stragglers, long p99, long sinceLastProvision) {
+        LambdaFunction function = new LambdaFunction("build", "build");
+        function.setExecutors(executors);
+        return new LambdaProvisioningPolicy.Snapshot("build", function, excessWorkload, queueLength, 0, 0, 0,
+            stragglers, stragglers, 0, p99 / 2, p99, sinceLastProvision, 0);
+    }
+
+    @Test
+    public void conservativeWaitsForItsCooldown() {
+        LambdaProvisioningPolicy policy = new LambdaProvisioningPolicy.Conservative();
+        assertEquals(0, policy.plan(snapshot(1, 10, 10, 0, 0, 100)));
+        assertEquals(10, policy.plan(snapshot(1, 10, 10, 0, 0, 500)));
+        // a partly used agent is still one agent
+        assertEquals(4, policy.plan(snapshot(3, 10, 10, 0, 0, 500)));
+    }
+
+    @Test
+    public void aggressiveReplacesStragglers() {
+        LambdaProvisioningPolicy policy = new LambdaProvisioningPolicy.Aggressive();
+        assertTrue(policy.isReplacingStragglers());
+        assertFalse(new LambdaProvisioningPolicy.Conservative().isReplacingStragglers());
+        assertEquals(10, policy.plan(snapshot(1, 10, 10, 0, 0, 0)));
+        assertEquals(6, policy.plan(snapshot(2, 12, 20, 2, 5000, 0)));
+    }
+
+    @Test
+    public void stragglersCountAsMissingUpToTheQueue() {
+        // agents on their way cover the queue, but 2 of them are stragglers
+        assertEquals(2, LambdaCloudProvisionerStrategy.withStragglers(0, 10, 2));
+        assertEquals(12, LambdaCloudProvisionerStrategy.withStragglers(10, 20, 2));
+        // not beyond the queue
+        assertEquals(10, LambdaCloudProvisionerStrategy.withStragglers(0, 10, 15));
+        // idle executors still cover them
+        assertEquals(-1, LambdaCloudProvisionerStrategy.withStragglers(-3, 10, 2));
+        assertEquals(5, LambdaCloudProvisionerStrategy.withStragglers(5, 10, 0));
+    }
+
+    @Test
+    public void defaultPolicyIsShared() {
+        LambdaCloud cloud = new LambdaCloud("policy", null, "us-east-1");
+        assertTrue(cloud.getProvisioningPolicy() instanceof LambdaProvisioningPolicy.Conservative);
+        assertSame(cloud.getProvisioningPolicy(), new LambdaCloud("other", null, "us-east-1").getProvisioningPolicy());
+    }
+
+    @Test
+    public void burstAbsorbingAddsHeadroomUpToItsBurst() {
+        LambdaProvisioningPolicy.BurstAbsorbing policy = new LambdaProvisioningPolicy.BurstAbsorbing();
+        assertEquals(0, policy.plan(snapshot(1, 0, 10, 0, 0, 0)));
+        assertEquals(13, policy.plan(snapshot(1, 10, 10, 0, 0, 0)));
+        assertEquals(50, policy.plan(snapshot(1, 100, 100, 0, 0, 0)));
+
+        policy.setMaxBurst(0);
+        assertEquals(125, policy.plan(snapshot(1, 100, 100, 0, 0, 0)));
+        policy.setHeadroom(0);
+        assertEquals(50, policy.plan(snapshot(2, 100, 100, 0, 0, 0)));
+    }
+}
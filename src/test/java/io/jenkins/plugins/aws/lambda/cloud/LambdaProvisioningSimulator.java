@@ -0,0 +1,523 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Offline discrete-event simulation of the provisioning of a {@link LambdaCloud}.
+ *
+ * A trace of build arrivals is replayed against a simulated clock, build queue
+ * and Lambda latency model. Provisioning decisions are taken by the real code:
+ * {@link LambdaCloudProvisionerStrategy#getExcessWorkload(int, int, int)} for the
+ * NodeProvisioner reviews, then {@link LambdaCloud#plan(LambdaFunction, String, int, int, int, long)}
+ * with its provisioning policy, allocator and agent timeouts. Agents take one task per
+ * executor and drain after their first completed task, as {@link LambdaComputer} does.
+ *
+ * Traces are text files with one arrival per line, <code>time_ms label duration_ms</code>,
+ * <code>#</code> starting a comment. Run with
+ * <code>LambdaProvisioningSimulator trace.txt [maxConcurrentExecutions] [agentTimeout]</code>.
+ */
+public class LambdaProvisioningSimulator {
+
+    /**
+     * NodeProvisioner review period.
+     */
+    static final long REVIEW_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Start of the simulated clock, traces are relative to it. The provisioning
+     * cooldown needs a clock well past 0.
+     */
+    private static final long EPOCH = TimeUnit.DAYS.toMillis(365 * 50);
+
+    private static final AtomicInteger SIMULATIONS = new AtomicInteger();
+
+    /**
+     * Time from invocation to agent connection.
+     */
+    interface LatencyModel {
+        long sample(Random random);
+    }
+
+    /**
+     * Log-normal latencies, the usual shape of cold start times.
+     *
+     * @param medianMs the median latency.
+     * @param sigma the standard deviation of the log of the latency.
+     * @return a {@link LatencyModel} object.
+     */
+    static LatencyModel lognormal(final long medianMs, final double sigma) {
+        return random -> Math.max(1, (long) (medianMs * Math.exp(sigma * random.nextGaussian())));
+    }
+
+    /**
+     * A mix of warm and cold starts.
+     *
+     * @param warm the latency of warm starts.
+     * @param cold the latency of cold starts.
+     * @param coldRatio the ratio of cold starts, between 0 and 1.
+     * @return a {@link LatencyModel} object.
+     */
+    static LatencyModel coldStarts(final LatencyModel warm, final LatencyModel cold, final double coldRatio) {
+        return random -> random.nextDouble() < coldRatio ? cold.sample(random) : warm.sample(random);
+    }
+
+    static final class Arrival {
+
+        final long time;
+        final String label;
+        final long duration;
+
+        Arrival(long time, String label, long duration) {
+            this.time = time;
+            this.label = label;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * Reads a recorded trace.
+     *
+     * @param reader the trace.
+     * @return the arrivals, in time order.
+     * @throws IOException if the trace cannot be read or is malformed.
+     */
+    static List<Arrival> readTrace(Reader reader) throws IOException {
+        List<Arrival> arrivals = new ArrayList<Arrival>();
+        BufferedReader lines = new BufferedReader(reader);
+        int number = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            number++;
+            line = StringUtils.substringBefore(line, "#").trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = StringUtils.split(line);
+            if (fields.length != 3) {
+                throw new IOException("Line " + number + ": expected 'time_ms label duration_ms' but got '" + line + "'");
+            }
+            try {
+                arrivals.add(new Arrival(Long.parseLong(fields[0]), fields[1], Long.parseLong(fields[2])));
+            } catch (NumberFormatException e) {
+                throw new IOException("Line " + number + ": " + e.getMessage(), e);
+            }
+        }
+        Collections.sort(arrivals, (a, b) -> Long.compare(a.time, b.time));
+        return arrivals;
+    }
+
+    /**
+     * Generates a synthetic trace of Poisson arrivals.
+     *
+     * @param label the label of the builds.
+     * @param perMinute the mean number of arrivals per minute.
+     * @param horizon the duration of the trace.
+     * @param duration the duration of the builds.
+     * @param random the source of randomness.
+     * @return the arrivals, in time order.
+     */
+    static List<Arrival> poisson(String label, double perMinute, long horizon, long duration, Random random) {
+        List<Arrival> arrivals = new ArrayList<Arrival>();
+        double meanGap = TimeUnit.MINUTES.toMillis(1) / perMinute;
+        for (long time = (long) (-meanGap * Math.log(1 - random.nextDouble())); time < horizon;
+             time += (long) (-meanGap * Math.log(1 - random.nextDouble()))) {
+            arrivals.add(new Arrival(time, label, duration));
+        }
+        return arrivals;
+    }
+
+    /**
+     * Generates a burst of simultaneous arrivals.
+     */
+    static List<Arrival> burst(String label, long time, int count, long duration) {
+        List<Arrival> arrivals = new ArrayList<Arrival>();
+        for (int i = 0; i < count; i++) {
+            arrivals.add(new Arrival(time, label, duration));
+        }
+        return arrivals;
+    }
+
+    private final LambdaCloud cloud;
+
+    private final Map<String, LambdaFunction> functions = new LinkedHashMap<String, LambdaFunction>();
+
+    private final LatencyModel latency;
+
+    private final Random random;
+
+    private int accountConcurrency;
+
+    private boolean reviewOnArrival = true;
+
+    // simulation state
+    private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+    private final Map<String, Deque<Task>> waiting = new LinkedHashMap<String, Deque<Task>>();
+    private final List<Agent> agents = new ArrayList<Agent>();
+    private long now;
+    private long sequence;
+    private long horizon;
+    private int running;
+    private Result result;
+
+    /**
+     * Creates a simulation of a fresh cloud, with no history.
+     *
+     * @param latency the time from invocation to agent connection.
+     * @param seed the seed of the latency samples.
+     * @throws InterruptedException if any.
+     */
+    LambdaProvisioningSimulator(LatencyModel latency, long seed) throws InterruptedException {
+        // runtime state is kept per cloud name, every simulation gets its own
+        this.cloud = new LambdaCloud("simulation-" + SIMULATIONS.incrementAndGet(), null, "us-east-1");
+        this.cloud.setFunctions(new ArrayList<LambdaFunction>());
+        this.latency = latency;
+        this.random = new Random(seed);
+    }
+
+    LambdaCloud getCloud() {
+        return cloud;
+    }
+
+    /**
+     * Adds the function serving a label. Labels of the trace without a function
+     * get a default one.
+     */
+    LambdaProvisioningSimulator withFunction(LambdaFunction function) {
+        functions.put(function.getLabel(), function);
+        cloud.getFunctions().add(function);
+        return this;
+    }
+
+    /**
+     * Simulates the account level concurrency limit of AWS Lambda, invocations
+     * beyond it being throttled. 0 for unlimited.
+     */
+    LambdaProvisioningSimulator withAccountConcurrency(int accountConcurrency) {
+        this.accountConcurrency = accountConcurrency;
+        return this;
+    }
+
+    /**
+     * Whether new builds trigger an immediate review, as the queue listener of
+     * {@link LambdaCloudProvisionerStrategy} does, or wait for the periodic one.
+     */
+    LambdaProvisioningSimulator withReviewOnArrival(boolean reviewOnArrival) {
+        this.reviewOnArrival = reviewOnArrival;
+        return this;
+    }
+
+    /**
+     * Replays a trace until every build ran, or an hour after the last arrival.
+     *
+     * @param arrivals the trace.
+     * @return the outcome of the simulation.
+     */
+    Result run(List<Arrival> arrivals) {
+        result = new Result();
+        long last = 0;
+        for (final Arrival arrival : arrivals) {
+            if (!functions.containsKey(arrival.label)) {
+                withFunction(new LambdaFunction(arrival.label, arrival.label));
+            }
+            final Task task = new Task(arrival.label, EPOCH + arrival.time, arrival.duration);
+            schedule(task.arrival, () -> arrive(task));
+            last = Math.max(last, task.arrival);
+        }
+        horizon = Math.max(last, EPOCH) + TimeUnit.HOURS.toMillis(1);
+        schedule(EPOCH + REVIEW_INTERVAL, this::periodicReview);
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            now = event.time;
+            event.action.run();
+        }
+        for (Deque<Task> tasks : waiting.values()) {
+            result.unserved += tasks.size();
+        }
+        result.end = now - EPOCH;
+        return result;
+    }
+
+    private void schedule(long time, Runnable action) {
+        events.add(new Event(time, sequence++, action));
+    }
+
+    private void arrive(Task task) {
+        result.builds++;
+        queue(task.label).add(task);
+        assign(task.label);
+        if (reviewOnArrival) {
+            review();
+        }
+    }
+
+    private void periodicReview() {
+        review();
+        boolean idle = agents.isEmpty();
+        for (Deque<Task> tasks : waiting.values()) {
+            idle &= tasks.isEmpty();
+        }
+        // keep reviewing while there is something left to do
+        if (now < horizon && !(idle && events.isEmpty())) {
+            schedule(now + REVIEW_INTERVAL, this::periodicReview);
+        }
+    }
+
+    /**
+     * One NodeProvisioner review: labels are considered in queue order, the way
+     * {@link LambdaCloudProvisionerStrategy} sees them.
+     */
+    private void review() {
+        List<String> labels = new ArrayList<String>();
+        for (Map.Entry<String, Deque<Task>> entry : waiting.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                labels.add(entry.getKey());
+            }
+        }
+        Collections.sort(labels, (a, b) -> Long.compare(queue(a).peek().arrival, queue(b).peek().arrival));
+        int position = 0;
+        for (String label : labels) {
+            int available = 0;
+            int connecting = 0;
+            for (Agent agent : agents) {
+                if (agent.label.equals(label)) {
+                    if (!agent.connected) {
+                        connecting += agent.executors;
+                    } else if (agent.accepting) {
+                        available += agent.executors - agent.busy;
+                    }
+                }
+            }
+            int excess = LambdaCloudProvisionerStrategy.getExcessWorkload(queue(label).size(), available, connecting);
+            if (excess > 0) {
+                LambdaFunction function = functions.get(label);
+                int planned = cloud.plan(function, label, excess, queue(label).size(), position, now);
+                for (int i = 0; i < planned; i++) {
+                    launch(function);
+                }
+            }
+            position += queue(label).size();
+        }
+    }
+
+    private void launch(final LambdaFunction function) {
+        result.invocations++;
+        if (accountConcurrency > 0 && running >= accountConcurrency) {
+            // the invocation fails, its node is removed right away
+            result.throttled++;
+            LambdaCapacityAllocator.of(cloud.name).release(function.getFunctionName());
+            return;
+        }
+        running++;
+        final Agent agent = new Agent(function.getLabel(), function.getExecutors());
+        agents.add(agent);
+        final long invoked = now;
+        final long connect = latency.sample(random);
+        final long timeout = TimeUnit.SECONDS.toMillis(cloud.getAgentTimeout(function));
+        if (connect > timeout) {
+            schedule(invoked + timeout, () -> {
+                // censored at the deadline, as the launcher does
+                cloud.getLaunchLatency(function).add(timeout);
+                result.timeouts++;
+                remove(agent);
+            });
+            // the orphaned invocation holds account concurrency until its agent is refused
+            schedule(invoked + connect, () -> running--);
+            return;
+        }
+        schedule(invoked + connect, () -> {
+            cloud.getLaunchLatency(function).add(connect);
+            agent.connected = true;
+            agent.idleSince = now;
+            assign(agent.label);
+            scheduleIdleCheck(agent);
+        });
+    }
+
+    private void assign(String label) {
+        Deque<Task> tasks = queue(label);
+        for (Iterator<Agent> it = agents.iterator(); it.hasNext() && !tasks.isEmpty(); ) {
+            final Agent agent = it.next();
+            while (agent.label.equals(label) && agent.connected && agent.accepting && agent.busy < agent.executors
+                && !tasks.isEmpty()) {
+                Task task = tasks.poll();
+                result.timeToAgent.add(now - task.arrival);
+                if (agent.busy == 0) {
+                    result.idleMs += now - agent.idleSince;
+                }
+                agent.busy++;
+                schedule(now + task.duration, () -> complete(agent));
+            }
+        }
+    }
+
+    private void complete(Agent agent) {
+        agent.busy--;
+        // drains after its first task, see LambdaComputer
+        agent.accepting = false;
+        if (agent.busy == 0) {
+            remove(agent);
+            running--;
+        }
+    }
+
+    private void scheduleIdleCheck(final Agent agent) {
+        // CloudRetentionStrategy of LambdaNode
+        final long idleTimeout = TimeUnit.MINUTES.toMillis(cloud.getAgentTimeout() / 60);
+        schedule(now + idleTimeout, () -> {
+            if (agents.contains(agent) && agent.busy == 0 && agent.accepting) {
+                if (now - agent.idleSince >= idleTimeout) {
+                    result.idleMs += now - agent.idleSince;
+                    remove(agent);
+                    running--;
+                } else {
+                    scheduleIdleCheck(agent);
+                }
+            }
+        });
+    }
+
+    private void remove(Agent agent) {
+        if (agents.remove(agent)) {
+            // functions are named after their label
+            LambdaCapacityAllocator.of(cloud.name).release(agent.label);
+        }
+    }
+
+    private Deque<Task> queue(String label) {
+        Deque<Task> tasks = waiting.get(label);
+        if (tasks == null) {
+            tasks = new ArrayDeque<Task>();
+            waiting.put(label, tasks);
+        }
+        return tasks;
+    }
+
+    private static final class Event implements Comparable<Event> {
+
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int c = Long.compare(time, other.time);
+            return c != 0 ? c : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static final class Task {
+
+        final String label;
+        final long arrival;
+        final long duration;
+
+        Task(String label, long arrival, long duration) {
+            this.label = label;
+            this.arrival = arrival;
+            this.duration = duration;
+        }
+    }
+
+    private static final class Agent {
+
+        final String label;
+        final int executors;
+        boolean connected;
+        boolean accepting = true;
+        int busy;
+        long idleSince;
+
+        Agent(String label, int executors) {
+            this.label = label;
+            this.executors = executors;
+        }
+    }
+
+    /**
+     * Outcome of a simulation.
+     */
+    static final class Result {
+
+        private final List<Long> timeToAgent = new ArrayList<Long>();
+        int builds;
+        int unserved;
+        int invocations;
+        int throttled;
+        int timeouts;
+        long idleMs;
+        long end;
+
+        /**
+         * Get a quantile of the time builds waited for an agent.
+         *
+         * @param q the quantile, between 0 and 1.
+         * @return the time in milliseconds, 0 if no build ran.
+         */
+        long getTimeToAgent(double q) {
+            if (timeToAgent.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<Long>(timeToAgent);
+            Collections.sort(sorted);
+            int rank = (int) Math.ceil(q * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank)));
+        }
+
+        double getIdleAgentSeconds() {
+            return idleMs / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("builds: %d (unserved: %d), time-to-agent p50/p90/p99: %d/%d/%dms, "
+                    + "idle agent seconds: %.1f, invocations: %d (throttled: %d, timed out: %d), simulated: %ds",
+                builds, unserved, getTimeToAgent(0.5), getTimeToAgent(0.9), getTimeToAgent(0.99),
+                getIdleAgentSeconds(), invocations, throttled, timeouts, end / 1000);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LambdaProvisioningSimulator trace.txt [maxConcurrentExecutions] [agentTimeout]");
+            System.exit(2);
+        }
+        List<Arrival> arrivals;
+        try (Reader reader = new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)) {
+            arrivals = readTrace(reader);
+        }
+        // a typical Java agent: mostly warm starts, some cold ones
+        LambdaProvisioningSimulator simulator = new LambdaProvisioningSimulator(
+            coldStarts(lognormal(1500, 0.3), lognormal(6000, 0.5), 0.2), 42);
+        if (args.length > 1) {
+            simulator.getCloud().setMaxConcurrentExecutions(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            simulator.getCloud().setAgentTimeout(Integer.parseInt(args[2]));
+        }
+        System.out.println(simulator.run(arrivals));
+    }
+}
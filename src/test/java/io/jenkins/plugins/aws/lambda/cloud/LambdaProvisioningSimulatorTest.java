@@ -0,0 +1,90 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaProvisioningSimulatorTest {
+
+    private static final LambdaProvisioningSimulator.LatencyModel TWO_SECONDS = random -> 2000;
+
+    @Test
+    public void readsTraces() throws IOException {
+        List<LambdaProvisioningSimulator.Arrival> arrivals = LambdaProvisioningSimulator.readTrace(new StringReader(
+            "# time_ms label duration_ms\n"
+                + "5000 java 60000\n"
+                + "\n"
+                + "0 node 30000 # first\n"));
+        assertEquals(2, arrivals.size());
+        assertEquals("node", arrivals.get(0).label);
+        assertEquals(5000, arrivals.get(1).time);
+        assertEquals(60000, arrivals.get(1).duration);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedTraces() throws IOException {
+        LambdaProvisioningSimulator.readTrace(new StringReader("0 java\n"));
+    }
+
+    @Test
+    public void servesEveryBuild() throws InterruptedException {
+        List<LambdaProvisioningSimulator.Arrival> arrivals = LambdaProvisioningSimulator.poisson("java", 6,
+            600000, 30000, new Random(1));
+        LambdaProvisioningSimulator.Result result = new LambdaProvisioningSimulator(TWO_SECONDS, 1).run(arrivals);
+        assertEquals(arrivals.size(), result.builds);
+        assertEquals(0, result.unserved);
+        // one-shot agents, one invocation per build
+        assertEquals(result.builds, result.invocations);
+        assertTrue(result.getTimeToAgent(0.5) >= 2000);
+    }
+
+    @Test
+    public void concurrencyCapDelaysBursts() throws InterruptedException {
+        List<LambdaProvisioningSimulator.Arrival> burst = LambdaProvisioningSimulator.burst("java", 0, 20, 60000);
+        LambdaProvisioningSimulator.Result uncapped = new LambdaProvisioningSimulator(TWO_SECONDS, 1).run(burst);
+
+        LambdaProvisioningSimulator capped = new LambdaProvisioningSimulator(TWO_SECONDS, 1);
+        capped.getCloud().setMaxConcurrentExecutions(5);
+        LambdaProvisioningSimulator.Result result = capped.run(burst);
+
+        assertEquals(0, uncapped.unserved);
+        assertEquals(0, result.unserved);
+        // four waves of one minute builds
+        assertTrue(result.getTimeToAgent(0.99) >= 3 * 60000);
+        assertTrue(result.getTimeToAgent(0.99) > uncapped.getTimeToAgent(0.99));
+    }
+
+    @Test
+    public void adaptiveTimeoutRecoversFromSlowStarts() throws InterruptedException {
+        LambdaProvisioningSimulator.LatencyModel slow = random -> 90000;
+        List<LambdaProvisioningSimulator.Arrival> burst = LambdaProvisioningSimulator.burst("java", 0, 5, 10000);
+
+        LambdaProvisioningSimulator fixed = new LambdaProvisioningSimulator(slow, 1);
+        LambdaProvisioningSimulator.Result stuck = fixed.run(burst);
+        assertEquals(5, stuck.unserved);
+        assertTrue(stuck.timeouts > 0);
+
+        LambdaProvisioningSimulator adaptive = new LambdaProvisioningSimulator(slow, 1);
+        adaptive.getCloud().setAdaptiveAgentTimeout(true);
+        LambdaProvisioningSimulator.Result result = adaptive.run(burst);
+        assertEquals(0, result.unserved);
+        // censored timeouts raise the timeout once enough were observed
+        assertTrue(result.timeouts >= 20);
+    }
+
+    @Test
+    public void accountConcurrencyThrottles() throws InterruptedException {
+        LambdaProvisioningSimulator simulator = new LambdaProvisioningSimulator(TWO_SECONDS, 1)
+            .withAccountConcurrency(3);
+        LambdaProvisioningSimulator.Result result = simulator.run(
+            LambdaProvisioningSimulator.burst("java", 0, 10, 30000));
+        assertEquals(0, result.unserved);
+        assertTrue(result.throttled > 0);
+        assertEquals(result.builds + result.throttled, result.invocations);
+    }
+}
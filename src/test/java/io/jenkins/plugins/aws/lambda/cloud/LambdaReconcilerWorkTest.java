@@ -0,0 +1,70 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaReconcilerWorkTest {
+
+    private static final long NOW = TimeUnit.DAYS.toMillis(365 * 50);
+
+    @Test
+    public void agentPlannedBetweenSnapshotsIsKept() {
+        LambdaAgentTracker tracker = LambdaAgentTracker.of("reconcile-race");
+        tracker.planned("build.lambda-a", "build", "fn", NOW);
+        Map<LambdaAgentTracker.Agent, LambdaAgentTracker.Phase> agents = LambdaReconcilerWork.snapshot(tracker);
+        // its node gets added and invoked after the agents were read, but before the nodes were
+        tracker.invoked("build.lambda-a", NOW + 10);
+
+        Map<String, Integer> labels = LambdaReconcilerWork.reconcileAgents("reconcile-race", tracker, agents,
+            Collections.<String> emptySet(), NOW + 20);
+        assertTrue(tracker.isLive("build.lambda-a"));
+        assertEquals(0, tracker.getOrphans());
+        assertEquals(Integer.valueOf(1), labels.get("build"));
+    }
+
+    @Test
+    public void agentRemovedBehindOurBackIsDropped() {
+        LambdaAgentTracker tracker = LambdaAgentTracker.of("reconcile-removed");
+        tracker.planned("build.lambda-b", "build", "fn", NOW);
+        tracker.invoked("build.lambda-b", NOW + 10);
+
+        Map<String, Integer> labels = LambdaReconcilerWork.reconcileAgents("reconcile-removed", tracker,
+            LambdaReconcilerWork.snapshot(tracker), Collections.<String> emptySet(), NOW + 20);
+        assertFalse(tracker.isLive("build.lambda-b"));
+        // its invocation may still run
+        assertEquals(1, tracker.getOrphans());
+        assertNull(labels.get("build"));
+    }
+
+    @Test
+    public void plannedAgentsWithoutNodeExpire() {
+        LambdaAgentTracker tracker = LambdaAgentTracker.of("reconcile-planned");
+        tracker.planned("build.lambda-c", "build", "fn", NOW);
+
+        LambdaReconcilerWork.reconcileAgents("reconcile-planned", tracker, LambdaReconcilerWork.snapshot(tracker),
+            Collections.<String> emptySet(), NOW + 1000);
+        assertTrue(tracker.isLive("build.lambda-c"));
+        LambdaReconcilerWork.reconcileAgents("reconcile-planned", tracker, LambdaReconcilerWork.snapshot(tracker),
+            Collections.<String> emptySet(), NOW + LambdaReconcilerWork.PLANNED_TTL + 1);
+        assertFalse(tracker.isLive("build.lambda-c"));
+        assertEquals(0, tracker.getOrphans());
+    }
+
+    @Test
+    public void orphansLastTheTimeoutOfTheirFunction() {
+        LambdaAgentTracker tracker = LambdaAgentTracker.of("reconcile-orphans");
+        assertEquals(LambdaAgentTracker.ORPHAN_TTL, tracker.getOrphanTtl("fn"));
+        tracker.setFunctionTimeout("fn", TimeUnit.MINUTES.toMillis(2));
+
+        tracker.planned("build.lambda-d", "build", "fn", NOW);
+        tracker.invoked("build.lambda-d", NOW);
+        tracker.removed("build.lambda-d");
+        assertEquals(1, tracker.expireOrphans(NOW + TimeUnit.MINUTES.toMillis(1)));
+        assertEquals(0, tracker.expireOrphans(NOW + TimeUnit.MINUTES.toMillis(2)));
+    }
+}
@@ -0,0 +1,91 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaRegionRouterTest {
+
+    @Test
+    public void parsesRegionsCloudRegionFirst() {
+        Map<String, Integer> regions = LambdaRegionRouter.parseRegions("us-east-1",
+            " eu-west-1:3 us-west-2:x us-east-1:2 ap-south-1:0");
+        assertEquals(Arrays.asList("us-east-1", "eu-west-1", "us-west-2", "ap-south-1"),
+            Arrays.asList(regions.keySet().toArray()));
+        assertEquals(Integer.valueOf(2), regions.get("us-east-1"));
+        assertEquals(Integer.valueOf(3), regions.get("eu-west-1"));
+        assertEquals(Integer.valueOf(1), regions.get("us-west-2"));
+        assertEquals(Integer.valueOf(1), regions.get("ap-south-1"));
+        assertEquals(Collections.singletonMap("us-east-1", 1), LambdaRegionRouter.parseRegions("us-east-1", null));
+    }
+
+    @Test
+    public void spillsOverWhileThrottled() {
+        LambdaRegionRouter router = LambdaRegionRouter.of("router-spill");
+        Map<String, Integer> regions = LambdaRegionRouter.parseRegions("us-east-1", "eu-west-1 us-west-2");
+        assertEquals(Arrays.asList("us-east-1", "eu-west-1", "us-west-2"), router.rank(regions, false, 0));
+
+        router.throttled("us-east-1", 0);
+        assertEquals(Arrays.asList("eu-west-1", "us-west-2", "us-east-1"), router.rank(regions, false, 1000));
+        assertFalse(router.isSaturated(regions.keySet(), 1000));
+
+        router.throttled("eu-west-1", 10);
+        router.throttled("us-west-2", 5);
+        // all throttled: the one recovering first comes first
+        assertEquals(Arrays.asList("us-east-1", "us-west-2", "eu-west-1"), router.rank(regions, false, 1000));
+        assertTrue(router.isSaturated(regions.keySet(), 1000));
+        assertEquals(1, router.getThrottles("us-east-1"));
+
+        // back in order once the backoff is over
+        long later = 10 + LambdaRegionRouter.THROTTLE_BACKOFF;
+        assertEquals(Arrays.asList("us-east-1", "eu-west-1", "us-west-2"), router.rank(regions, false, later));
+        assertFalse(router.isSaturated(regions.keySet(), later));
+    }
+
+    @Test
+    public void balancesByWeight() {
+        LambdaRegionRouter router = LambdaRegionRouter.of("router-weights");
+        Map<String, Integer> regions = LambdaRegionRouter.parseRegions("us-east-1", "eu-west-1:3");
+        assertEquals("eu-west-1", router.rank(regions, true, 0).get(0));
+        for (int i = 0; i < 3; i++) {
+            router.invoked("eu-west-1", 0);
+        }
+        // 4 / 3 per unit of weight against 1
+        assertEquals("us-east-1", router.rank(regions, true, 0).get(0));
+        router.invoked("us-east-1", 0);
+        assertEquals("eu-west-1", router.rank(regions, true, 0).get(0));
+
+        // ordered functions ignore the weights
+        assertEquals("us-east-1", router.rank(regions, false, 0).get(0));
+    }
+
+    @Test
+    public void slowRegionsArePenalized() {
+        LambdaRegionRouter router = LambdaRegionRouter.of("router-latency");
+        Map<String, Integer> regions = LambdaRegionRouter.parseRegions("us-east-1", "eu-west-1");
+        router.invoked("us-east-1", 3000);
+        router.invoked("eu-west-1", 100);
+        router.invoked("eu-west-1", 100);
+        assertEquals("eu-west-1", router.rank(regions, true, 0).get(0));
+        assertEquals(3000, router.getLatencyMs("us-east-1"));
+    }
+
+    @Test
+    public void releasesAndReconcilesInFlight() {
+        LambdaRegionRouter router = LambdaRegionRouter.of("router-reconcile");
+        router.invoked("us-east-1", 0);
+        router.invoked("us-east-1", 0);
+        router.released("us-east-1");
+        router.released("eu-west-1");
+        assertEquals(1, router.getInFlight("us-east-1"));
+        assertEquals(0, router.getInFlight("eu-west-1"));
+
+        assertEquals(1 + 4, router.reconcile(Collections.singletonMap("eu-west-1", 4)));
+        assertEquals(0, router.getInFlight("us-east-1"));
+        assertEquals(4, router.getInFlight("eu-west-1"));
+    }
+}
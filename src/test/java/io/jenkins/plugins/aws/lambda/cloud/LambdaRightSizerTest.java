@@ -0,0 +1,142 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaRightSizerTest {
+
+    private static LambdaFunction variant(String name, int memorySize) {
+        LambdaFunction function = new LambdaFunction(name, "build");
+        function.setMemorySize(memorySize);
+        return function;
+    }
+
+    private final LambdaFunction small = variant("build-512", 512);
+    private final LambdaFunction medium = variant("build-1024", 1024);
+    private final LambdaFunction large = variant("build-3008", 3008);
+
+    /** The default variant comes first. */
+    private final List<LambdaFunction> ladder = Arrays.asList(medium, small, large);
+
+    private static LambdaRightSizer.Profile profile() {
+        return new LambdaRightSizer.Profile();
+    }
+
+    @Test
+    public void newJobsRunOnTheDefaultVariant() {
+        assertSame(medium, LambdaRightSizer.select(ladder, null));
+        assertSame(medium, LambdaRightSizer.select(ladder, profile()));
+    }
+
+    @Test
+    public void notALadderWithoutMemorySizes() {
+        assertFalse(LambdaRightSizer.isLadder(Collections.singletonList(medium)));
+        assertFalse(LambdaRightSizer.isLadder(Arrays.asList(medium, variant("build", 0))));
+        assertTrue(LambdaRightSizer.isLadder(ladder));
+    }
+
+    @Test
+    public void lightJobsMoveDownWhileFastEnough() {
+        LambdaRightSizer.Profile profile = profile();
+        profile.completed("build-1024", 60000, 200);
+        // 512 MB fits 200 MB with headroom and was never tried
+        assertSame(small, LambdaRightSizer.select(ladder, profile));
+
+        profile.completed("build-512", 65000, 200);
+        assertSame(small, LambdaRightSizer.select(ladder, profile));
+    }
+
+    @Test
+    public void tooSlowVariantsAreLeft() {
+        LambdaRightSizer.Profile profile = profile();
+        profile.completed("build-1024", 60000, 200);
+        profile.completed("build-512", 120000, 200);
+        assertSame(medium, LambdaRightSizer.select(ladder, profile));
+    }
+
+    @Test
+    public void heavyJobsMoveUp() {
+        LambdaRightSizer.Profile profile = profile();
+        profile.completed("build-1024", 60000, 900);
+        // 900 MB needs more than 1024 MB with headroom
+        assertSame(large, LambdaRightSizer.select(ladder, profile));
+
+        profile = profile();
+        profile.completed("build-1024", LambdaRightSizer.MAX_DURATION + 60000, 300);
+        // too close to the time limit: only larger variants may do
+        assertSame(large, LambdaRightSizer.select(ladder, profile));
+    }
+
+    @Test
+    public void lostRunsCountAsTooSlow() {
+        LambdaRightSizer.Profile profile = profile();
+        profile.completed("build-1024", 60000, 200);
+        profile.completed("build-512", Long.MAX_VALUE, 0);
+        assertSame(medium, LambdaRightSizer.select(ladder, profile));
+    }
+
+    @Test
+    public void peakMemoryRisesAtOnceAndFallsSlowly() {
+        LambdaRightSizer.Profile profile = profile();
+        profile.completed("build-1024", 1000, 800);
+        profile.completed("build-1024", 1000, 200);
+        assertEquals(500, profile.getPeakMemoryMb());
+        profile.completed("build-1024", 1000, 900);
+        assertEquals(900, profile.getPeakMemoryMb());
+    }
+
+    @Test
+    public void workloadFollowsTheNewestJobs() {
+        LambdaRightSizer.completed("job/heavy/", "build-1024", 60000, 900);
+        LambdaRightSizer.completed("job/light/", "build-1024", 60000, 100);
+        List<String> queue = Arrays.asList("job/light/", "job/heavy/", "job/light/", "job/new/");
+
+        Map<LambdaFunction, Integer> split = LambdaRightSizer.split(ladder, queue, 3);
+        assertEquals(Arrays.asList(medium, small, large), Arrays.asList(split.keySet().toArray()));
+        assertEquals(Integer.valueOf(1), split.get(medium));
+        assertEquals(Integer.valueOf(1), split.get(small));
+        assertEquals(Integer.valueOf(1), split.get(large));
+
+        // workload beyond the queued items goes to the default variant
+        split = LambdaRightSizer.split(ladder, Collections.singletonList("job/light/"), 3);
+        assertEquals(Integer.valueOf(2), split.get(medium));
+        assertEquals(Integer.valueOf(1), split.get(small));
+    }
+
+    @Test
+    public void peakMemoryIsTheUsedMemoryOfTheEnvironment() {
+        assertEquals(1536, LambdaRightSizer.PeakMemory.usedMb(Arrays.asList(
+            "MemTotal:        3145728 kB",
+            "MemFree:          524288 kB",
+            "MemAvailable:    1572864 kB")));
+        // older kernels do not tell the available memory
+        assertEquals(0, LambdaRightSizer.PeakMemory.usedMb(Arrays.asList(
+            "MemTotal:        3145728 kB",
+            "MemFree:          524288 kB")));
+        assertEquals(0, LambdaRightSizer.PeakMemory.usedMb(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void peakMemoryIsPerTask() {
+        LambdaRightSizer.PeakMemory.start(0, 100);
+        LambdaRightSizer.PeakMemory.record(800);
+        LambdaRightSizer.PeakMemory.record(300);
+        assertEquals(800, LambdaRightSizer.PeakMemory.read(0));
+
+        // the next task on the executor does not inherit the previous peak
+        LambdaRightSizer.PeakMemory.start(0, 300);
+        LambdaRightSizer.PeakMemory.start(1, 300);
+        LambdaRightSizer.PeakMemory.record(400);
+        assertEquals(400, LambdaRightSizer.PeakMemory.read(0));
+        LambdaRightSizer.PeakMemory.record(600);
+        assertEquals(600, LambdaRightSizer.PeakMemory.read(1));
+        // a task whose start was not seen has no peak
+        assertEquals(0, LambdaRightSizer.PeakMemory.read(1));
+    }
+}
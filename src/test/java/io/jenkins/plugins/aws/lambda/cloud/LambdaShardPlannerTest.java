@@ -0,0 +1,116 @@
+package io.jenkins.plugins.aws.lambda.cloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LambdaShardPlannerTest {
+
+    private static Map<String, Long> timings(Object... entries) {
+        Map<String, Long> timings = new HashMap<String, Long>();
+        for (int i = 0; i < entries.length; i += 2) {
+            timings.put((String) entries[i], ((Number) entries[i + 1]).longValue());
+        }
+        return timings;
+    }
+
+    @Test
+    public void balancesShards() {
+        LambdaShardPlanner planner = new LambdaShardPlanner(
+            timings("a", 700, "b", 500, "c", 400, "d", 300, "e", 200, "f", 100), 0);
+        List<LambdaShardPlanner.Shard> plan = planner.plan(Arrays.asList("a", "b", "c", "d", "e", "f"), 2);
+
+        assertEquals(2, plan.size());
+        assertEquals(1100, plan.get(0).getEstimatedMs());
+        assertEquals(1100, plan.get(1).getEstimatedMs());
+        Set<String> all = new HashSet<String>(plan.get(0).getItems());
+        all.addAll(plan.get(1).getItems());
+        assertEquals(6, all.size());
+    }
+
+    @Test
+    public void addsShardsToStayWithinMaxDuration() {
+        LambdaShardPlanner planner = new LambdaShardPlanner(
+            timings("a", 600, "b", 600, "c", 600, "d", 600), 1000);
+        List<LambdaShardPlanner.Shard> plan = planner.plan(Arrays.asList("a", "b", "c", "d"), 2);
+
+        assertEquals(4, plan.size());
+        for (LambdaShardPlanner.Shard shard : plan) {
+            assertEquals(600, shard.getEstimatedMs());
+        }
+    }
+
+    @Test
+    public void itemTooLongAloneDoesNotSplitTheOthers() {
+        Map<String, Long> timings = new HashMap<String, Long>();
+        List<String> items = new ArrayList<String>();
+        timings.put("slow", 5000L);
+        items.add("slow");
+        for (int i = 0; i < 20; i++) {
+            timings.put("fast" + i, 100L);
+            items.add("fast" + i);
+        }
+        List<LambdaShardPlanner.Shard> plan = new LambdaShardPlanner(timings, 1000).plan(items, 2);
+
+        // 7000ms of work need 7 shards of 1000ms, the slow item cannot fit anyway
+        assertEquals(7, plan.size());
+        assertEquals(Collections.singletonList("slow"), plan.get(0).getItems());
+        for (LambdaShardPlanner.Shard shard : plan.subList(1, plan.size())) {
+            assertTrue(shard.getEstimatedMs() <= 1000);
+        }
+    }
+
+    @Test
+    public void shardsAreCapped() {
+        Map<String, Long> timings = new HashMap<String, Long>();
+        List<String> items = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            timings.put("item" + i, 2000L);
+            items.add("item" + i);
+        }
+        assertEquals(LambdaShardPlanner.MAX_SHARDS, new LambdaShardPlanner(timings, 1000).plan(items, 2).size());
+        // unless more were asked for
+        assertEquals(80, new LambdaShardPlanner(timings, 1000).plan(items, 80).size());
+    }
+
+    @Test
+    public void neverMoreShardsThanItems() {
+        LambdaShardPlanner planner = new LambdaShardPlanner(timings("a", 5000), 1000);
+
+        assertEquals(1, planner.plan(Collections.singletonList("a"), 8).size());
+        assertEquals(0, planner.plan(Collections.<String> emptyList(), 8).size());
+    }
+
+    @Test
+    public void unknownItemsTakeTheMeanDuration() {
+        LambdaShardPlanner planner = new LambdaShardPlanner(timings("a", 100, "b", 300), 0);
+        List<LambdaShardPlanner.Shard> plan = planner.plan(Arrays.asList("a", "b", "c"), 1);
+
+        assertEquals(600, plan.get(0).getEstimatedMs());
+        assertEquals(Arrays.asList("b", "c", "a"), plan.get(0).getItems());
+
+        planner = new LambdaShardPlanner(Collections.<String, Long> emptyMap(), 0);
+        assertEquals(2 * LambdaShardPlanner.DEFAULT_ITEM_MS,
+            planner.plan(Arrays.asList("x", "y"), 1).get(0).getEstimatedMs());
+    }
+
+    @Test
+    public void parsesTimings() {
+        Map<String, Long> timings = LambdaShardPlanner.parseTimings(
+            "com.acme.FooTest 1200\r\ncom.acme.BarTest=300\n\n  spaced test\t42  \nbroken\nbad x\n"
+                + "item = 100\n=5\nlate=x=7\n");
+
+        assertEquals(timings("com.acme.FooTest", 1200, "com.acme.BarTest", 300, "spaced test", 42, "item", 100),
+            timings);
+        assertTrue(LambdaShardPlanner.parseTimings(null).isEmpty());
+    }
+}